@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.font;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** lookups in CodePointSets of the kinds found in TeX and MathPi fonts, and reading them.
+ * 
+ * Each lookup benchmark probes LOOKUPS codes (or names) of which half are in the set.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodePointSetBenchmark {
+
+	static final int LOOKUPS = 1024;
+	// offset taking a code or name out of the set
+	private static final int MISS = 0x10000;
+
+	@Param({
+		"org/xmlcml/pdf2svg/codepoints/misc/cmmi10.xml",
+		"org/xmlcml/pdf2svg/codepoints/defacto/mathpi1.xml",
+		"org/xmlcml/pdf2svg/codepoints/defacto/mtsyn.xml"
+	})
+	public String resource;
+
+	private CodePointSet codePointSet;
+	private int[] decimals;
+	private Integer[] boxedDecimals;
+	private String[] names;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		codePointSet = CodePointSet.readCodePointSet(resource);
+		List<Integer> decimalList = new ArrayList<Integer>();
+		List<String> nameList = new ArrayList<String>();
+		for (CodePoint codePoint : codePointSet.getCodePointsInOrder()) {
+			if (codePoint.getDecimal() != null) {
+				decimalList.add(codePoint.getDecimal());
+			}
+			if (codePoint.getName() != null) {
+				nameList.add(codePoint.getName());
+			}
+		}
+		if (decimalList.size() == 0 || nameList.size() == 0) {
+			throw new RuntimeException("No decimals or names in "+resource);
+		}
+		decimals = new int[LOOKUPS];
+		boxedDecimals = new Integer[LOOKUPS];
+		names = new String[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			boolean hit = (i % 2 == 0);
+			int decimal = decimalList.get((i / 2) % decimalList.size());
+			String name = nameList.get((i / 2) % nameList.size());
+			decimals[i] = hit ? decimal : decimal + MISS;
+			boxedDecimals[i] = decimals[i];
+			// new Strings as names from a PDF would not be interned
+			names[i] = new String(hit ? name : name + MISS);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int toUnicodeByDecimal() {
+		int sum = 0;
+		for (int i = 0; i < LOOKUPS; i++) {
+			sum += codePointSet.toUnicode(decimals[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int toUnicodeByName() {
+		int sum = 0;
+		for (int i = 0; i < LOOKUPS; i++) {
+			sum += codePointSet.toUnicode(names[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int getByDecimal() {
+		int count = 0;
+		for (int i = 0; i < LOOKUPS; i++) {
+			if (codePointSet.getByDecimal(boxedDecimals[i]) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int getByName() {
+		int count = 0;
+		for (int i = 0; i < LOOKUPS; i++) {
+			if (codePointSet.getByName(names[i]) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public CodePointSet readCompiled() {
+		CodePointSet.setUseCompiledTables(true);
+		return CodePointSet.readCodePointSet(resource);
+	}
+
+	@Benchmark
+	public CodePointSet readXML() {
+		CodePointSet.setUseCompiledTables(false);
+		try {
+			return CodePointSet.readCodePointSet(resource);
+		} finally {
+			CodePointSet.setUseCompiledTables(true);
+		}
+	}
+}
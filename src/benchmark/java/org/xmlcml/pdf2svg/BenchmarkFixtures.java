@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+
+/** PDFs used by the benchmarks; all are bundled under src/test/resources.
+ * 
+ * Benchmarks are run from the project directory with
+ *   mvn -Pbenchmark verify
+ * which writes JMH results as JSON to target/jmh-result.json (-Djmh.result=...
+ * to keep results from different commits, -Djmh.include=regex to select benchmarks).
+ * 
+ * @author pm286
+ *
+ */
+public class BenchmarkFixtures {
+
+	public static final String TEST_RESOURCES = "src/test/resources";
+
+	public static final String BMC = "bmc/1471-2148-11-329.pdf";
+	public static final String MDPI = "mdpi/materials-05-00027.pdf";
+	public static final String WORD = "word/harterchap7small.pdf";
+	public static final String WORD_MATH = "word/testmath.pdf";
+	public static final String PAGE6 = "page6.pdf";
+
+	public static File getFile(String fixture) {
+		File file = new File(TEST_RESOURCES, fixture);
+		if (!file.exists()) {
+			throw new RuntimeException("Benchmark fixture not found (run from project directory): "+file.getAbsolutePath());
+		}
+		return file;
+	}
+
+	/** output directory for a benchmark under target/jmh
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static File getOutputDirectory(String name) {
+		return new File("target/jmh", name);
+	}
+}
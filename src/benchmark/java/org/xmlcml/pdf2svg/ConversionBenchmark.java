@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+/** whole documents (through run(), including writing the SVG files) and single pages.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+	@Param({BenchmarkFixtures.BMC, BenchmarkFixtures.MDPI, BenchmarkFixtures.WORD, BenchmarkFixtures.PAGE6})
+	public String pdf;
+
+	private File pdfFile;
+	private PDF2SVGConverter pageConverter;
+	private PDDocument document;
+	private List<PDPage> pdPages;
+	private PDFPage2SVGConverter page2svgConverter;
+	private int pageIndex;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		pdfFile = BenchmarkFixtures.getFile(pdf);
+		// no outdir so images are not written
+		pageConverter = new PDF2SVGConverter();
+		document = pageConverter.readDocument(pdfFile);
+		pdPages = (List<PDPage>) document.getDocumentCatalog().getAllPages();
+		page2svgConverter = new PDFPage2SVGConverter();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		document.close();
+	}
+
+	@Benchmark
+	public boolean convertDocument() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		return converter.run("-outdir", BenchmarkFixtures.getOutputDirectory("document").toString(), pdfFile.toString());
+	}
+
+	/** one page per call, cycling through the document
+	 * 
+	 * @return
+	 */
+	@Benchmark
+	public SVGSVG convertPageToSVG() {
+		int pageNumber = pageIndex + 1;
+		pageIndex = (pageIndex + 1) % pdPages.size();
+		return page2svgConverter.convertPageToSVG(pdPages.get(pageNumber - 1), pageConverter, pageNumber);
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nu.xom.Document;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+/** SVGSerializer.write() of a converted first page, as in PDF2SVGConverter.writeFile()
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SVGSerializerBenchmark {
+
+	@Param({BenchmarkFixtures.BMC, BenchmarkFixtures.MDPI, BenchmarkFixtures.WORD_MATH})
+	public String pdf;
+
+	private Document svgDocument;
+	private ByteArrayOutputStream baos;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		PDDocument document = converter.readDocument(BenchmarkFixtures.getFile(pdf));
+		try {
+			PDPage page = (PDPage) document.getDocumentCatalog().getAllPages().get(0);
+			SVGSVG svgPage = new PDFPage2SVGConverter().convertPageToSVG(page, converter, 1);
+			svgDocument = new Document(svgPage);
+		} finally {
+			document.close();
+		}
+		baos = new ByteArrayOutputStream(1 << 20);
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		baos.reset();
+		SVGSerializer serializer = new SVGSerializer(baos, "UTF-8");
+		serializer.setIndent(1);
+		serializer.write(svgDocument);
+		return baos.size();
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.awt.Shape;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.graphics.PDGraphicsState;
+import org.apache.pdfbox.util.TextPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** cost of processTextPosition() for one glyph.
+ * 
+ * The first page is converted once and every TextPosition is recorded with a copy
+ * of its graphics state. Each invocation replays GLYPHS of them into the same page.
+ * Consecutive glyphs which shared a clip in the PDF share it in the copies.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextPositionBenchmark {
+
+	static final int GLYPHS = 1000;
+
+	@Param({BenchmarkFixtures.BMC, BenchmarkFixtures.MDPI, BenchmarkFixtures.WORD_MATH})
+	public String pdf;
+
+	private PDDocument document;
+	private GlyphRecorder recorder;
+	private int glyphIndex;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		document = converter.readDocument(BenchmarkFixtures.getFile(pdf));
+		PDPage page = (PDPage) document.getDocumentCatalog().getAllPages().get(0);
+		recorder = new GlyphRecorder();
+		recorder.convertPageToSVG(page, converter, 1);
+		recorder.recording = false;
+		if (recorder.textPositionList.size() == 0) {
+			throw new RuntimeException("No text on first page of "+pdf);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		document.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GLYPHS)
+	public int processTextPosition() {
+		// the page would otherwise grow without limit
+		recorder.getConvertedPageSVG().removeChildren();
+		for (int i = 0; i < GLYPHS; i++) {
+			recorder.replay(glyphIndex);
+			glyphIndex = (glyphIndex + 1) % recorder.textPositionList.size();
+		}
+		return recorder.getConvertedPageSVG().getChildCount();
+	}
+
+	private static class GlyphRecorder extends PDFPage2SVGConverter {
+
+		private boolean recording = true;
+		private List<TextPosition> textPositionList = new ArrayList<TextPosition>();
+		private List<PDGraphicsState> graphicsStateList = new ArrayList<PDGraphicsState>();
+		private Shape lastClip;
+		private Shape lastClipCopy;
+
+		GlyphRecorder() throws IOException {
+			super();
+		}
+
+		@Override
+		protected void processTextPosition(TextPosition textPosition) {
+			if (recording) {
+				PDGraphicsState graphicsState = getGraphicsState();
+				PDGraphicsState copy = (PDGraphicsState) graphicsState.clone();
+				Shape clip = graphicsState.getCurrentClippingPath();
+				if (clip == lastClip) {
+					copy.setCurrentClippingPath(lastClipCopy);
+				} else {
+					lastClip = clip;
+					lastClipCopy = copy.getCurrentClippingPath();
+				}
+				textPositionList.add(textPosition);
+				graphicsStateList.add(copy);
+			}
+			super.processTextPosition(textPosition);
+		}
+
+		void replay(int i) {
+			setGraphicsState(graphicsStateList.get(i));
+			super.processTextPosition(textPositionList.get(i));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg.cmap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** CMap.read() of the bundled LaTeX CMaps; the text is held in memory so no I/O is measured.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CMapBenchmark {
+
+	private static final String CMAP_DIR = "org/xmlcml/pdf2svg/codepoints/latex/cmap/";
+
+	@Param({"oml.cmap", "lmr.cmap", "t1.cmap", "omx.cmap"})
+	public String cmapName;
+
+	private String cmapText;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		InputStream is = CMapBenchmark.class.getClassLoader().getResourceAsStream(CMAP_DIR+cmapName);
+		if (is == null) {
+			throw new RuntimeException("Cannot find CMap: "+CMAP_DIR+cmapName);
+		}
+		StringBuilder sb = new StringBuilder();
+		BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				sb.append(line).append("\n");
+			}
+		} finally {
+			br.close();
+		}
+		cmapText = sb.toString();
+	}
+
+	@Benchmark
+	public CMap read() throws IOException {
+		return CMap.read(new BufferedReader(new StringReader(cmapText)));
+	}
+}
@@ -61,6 +61,23 @@ public class CodePoint extends Element {
 		this.unicodePoint = UnicodePoint.UNKNOWN;
 	}
 
+	/** used when reading compiled CodePointSets; fields as set by createFromElement()
+	 * 
+	 * @param decimal may be null
+	 * @param name may be null
+	 * @param note may be null
+	 * @param unicodePoint
+	 * @return
+	 */
+	static CodePoint createCompiled(Integer decimal, String name, String note, UnicodePoint unicodePoint) {
+		CodePoint codePoint = new CodePoint();
+		codePoint.nonUnicodeDecimal = decimal;
+		codePoint.name = name;
+		codePoint.note = note;
+		codePoint.unicodePoint = unicodePoint;
+		return codePoint;
+	}
+
 	public static CodePoint createFromElement(Element codePointElement, String encoding) {
 		CodePoint codePoint = null;
 		try {
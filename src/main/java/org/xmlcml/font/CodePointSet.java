@@ -16,6 +16,9 @@
  */
 package org.xmlcml.font;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -56,16 +59,25 @@ public class CodePointSet extends Element {
 	public static final String CODEPOINT_DIR = PConstants.PDF2SVG_ROOT+"/codepoints/";
 	public static final String UNICODE_DIR = CODEPOINT_DIR+"unicode/";
 	public static final String UNICODE_POINT_SET_XML = UNICODE_DIR+"unicode.xml";
+	/** returned by toUnicode() if there is no codePoint */
+	public static final int NOT_FOUND = -1;
 
 	private Map<UnicodePoint, CodePoint> codePointByUnicodePointMap;
 	private Map<String, CodePoint> codePointByUnicodeValueMap;
 	private Map<Integer, CodePoint> codePointByDecimalMap;
 	private Map<String, CodePoint> codePointByUnicodeNameMap;
 	private Map<String, CodePoint> codePointByNameMap;
+	private List<CodePoint> codePointList;
+	// derived from the maps on first lookup; discarded when codePoints are added
+	private volatile CodePointIndex index;
+	// false for a compiled set until a lookup needs the maps (see setCompiledCodePoints())
+	private volatile boolean mapsIndexed = true;
 	private String encoding = null;
 	private String id       = null;
 	private String resource = null;
 
+	private static boolean useCompiledTables = true;
+
 	public CodePointSet() {
 		super(TAG);
 		ensureMaps();
@@ -78,11 +90,32 @@ public class CodePointSet extends Element {
 			codePointByUnicodeNameMap =  new HashMap<String, CodePoint>();
 			codePointByUnicodeValueMap = new HashMap<String, CodePoint>();
 			codePointByNameMap =         new HashMap<String, CodePoint>();
+			codePointList =              new ArrayList<CodePoint>();
+		}
+		if (!mapsIndexed) {
+			// compiled sets are shared between threads
+			synchronized (this) {
+				if (!mapsIndexed) {
+					for (CodePoint codePoint : codePointList) {
+						makeIndexes(codePoint, codePoint.getUnicodePoint());
+					}
+					mapsIndexed = true;
+				}
+			}
 		}
 	}
 
+	/** reads the compiled table for the resource if there is one (see CodePointSetCompiler)
+	 * else parses the XML.
+	 * 
+	 * @param codePointSetXmlResource
+	 * @return
+	 */
 	public static CodePointSet readCodePointSet(String codePointSetXmlResource) {
-		CodePointSet codePointSet = new CodePointSet();
+		CodePointSet codePointSet = (useCompiledTables) ? readCompiledCodePointSet(codePointSetXmlResource) : null;
+		if (codePointSet != null) {
+			return codePointSet;
+		}
 		try {
 			Element codePointSetElement = new Builder().build(
 					Util.getResourceUsingContextClassLoader(codePointSetXmlResource, CodePointSet.class)).getRootElement();
@@ -94,6 +127,36 @@ public class CodePointSet extends Element {
 		return codePointSet;
 	}
 
+	private static CodePointSet readCompiledCodePointSet(String codePointSetXmlResource) {
+		String compiledResource = CodePointSetCompiler.getCompiledResourceName(codePointSetXmlResource);
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		classLoader = (classLoader == null) ? CodePointSet.class.getClassLoader() : classLoader;
+		InputStream is = classLoader.getResourceAsStream(compiledResource);
+		if (is == null) {
+			return null;
+		}
+		try {
+			return CodePointSetCompiler.read(is);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read compiled CodePointSet: "+compiledResource, e);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				LOG.warn("Cannot close "+compiledResource);
+			}
+		}
+	}
+
+	/** whether readCodePointSet() uses the compiled tables; the XML is always used if false.
+	 * 
+	 * default true
+	 * @param use
+	 */
+	public static void setUseCompiledTables(boolean use) {
+		useCompiledTables = use;
+	}
+
 	public static CodePointSet createFromElement(Element codePointSetElement) {
 		CodePointSet codePointSet = new CodePointSet();
 		if (!(TAG.equals(codePointSetElement.getLocalName()))) {
@@ -135,7 +198,32 @@ public class CodePointSet extends Element {
 		this.addCodePoint(codePoint);
 	}
 
-	private void addCodePoint(CodePoint codePoint) {
+	/** sets the fields read from the XML attributes without adding the attributes
+	 * 
+	 * @param encoding
+	 * @param id
+	 * @param resource
+	 */
+	void setCompiledAttributes(String encoding, String id, String resource) {
+		this.encoding = encoding;
+		this.id = id;
+		this.resource = resource;
+	}
+
+	/** the codePoints of a compiled table, in the order they were added.
+	 * 
+	 * No child elements are created and the decimal and name lookups are built
+	 * directly from the list; the other maps are only filled if a lookup needs them.
+	 * The table was compiled from a valid codePointSet so nothing is checked.
+	 * @param codePoints
+	 */
+	void setCompiledCodePoints(List<CodePoint> codePoints) {
+		codePointList.addAll(codePoints);
+		mapsIndexed = false;
+		index = new CodePointIndex(codePointList);
+	}
+
+	void addCodePoint(CodePoint codePoint) {
 		UnicodePoint unicodePoint = createUnicodePointAndCheckUniqueness( codePoint);
 		this.codePointByUnicodePointMap.put(unicodePoint, codePoint);
 		this.add(codePoint);
@@ -186,14 +274,16 @@ public class CodePointSet extends Element {
 	}
 
 	private boolean containsKey(UnicodePoint unicodePoint) {
+		ensureMaps();
 		return codePointByUnicodePointMap.containsKey(unicodePoint);
 	}
 	
 	boolean containsKey(Integer decimal) {
-		return codePointByDecimalMap.containsKey(decimal);
+		return decimal != null && getOrCreateIndex().getByDecimal(decimal) != null;
 	}
 	
 	public Element createElementWithSortedIntegers() {
+		ensureMaps();
 		Element codePointsElement = new Element(TAG);
 		Integer[] codePointIntegers = codePointByDecimalMap.keySet().toArray(new Integer[0]);
 		Arrays.sort(codePointIntegers);
@@ -207,15 +297,21 @@ public class CodePointSet extends Element {
 	}
 	
 	public Set<String> getUnicodeNames() {
+		ensureMaps();
 		return codePointByUnicodeNameMap.keySet();
 	}
 
 	public Set<String> getNames() {
+		ensureMaps();
 		return codePointByNameMap.keySet();
 	}
 
+	/** number of distinct decimals
+	 * 
+	 * @return
+	 */
 	public int size() {
-		return codePointByDecimalMap.size();
+		return getOrCreateIndex().size();
 	}
 
 	/** adds and indexes codePoints checking for duplicates etc.
@@ -228,19 +324,18 @@ public class CodePointSet extends Element {
 		if (unicodePoint == null) {
 			throw new RuntimeException("CodePoint must have unicodePoint");
 		}
+		ensureMaps();
 		Element element = codePoint.createElement();
 		this.appendChild(element);
+		codePointList.add(codePoint);
 		makeIndexes(codePoint, unicodePoint);
+		index = null;
 	}
 
 	private void makeIndexes(CodePoint codePoint, UnicodePoint unicodePoint) {
-		if (codePoint.getDecimal() != null) {
-			this.codePointByDecimalMap.put(codePoint.getDecimal(), codePoint);
-		} else {
-			Integer decimal = (unicodePoint == null) ? null : unicodePoint.getDecimalValue();
-			if (decimal != null) {
-				this.codePointByDecimalMap.put(decimal, codePoint);
-			}
+		Integer decimal = getIndexDecimal(codePoint);
+		if (decimal != null) {
+			this.codePointByDecimalMap.put(decimal, codePoint);
 		}
 		this.codePointByUnicodePointMap.put(unicodePoint, codePoint);
 		this.codePointByUnicodeValueMap.put(unicodePoint.getUnicodeValue(), codePoint);
@@ -252,10 +347,32 @@ public class CodePointSet extends Element {
 		}
 	}
 	
+	/** the decimal a codePoint is found by: its own, else that of its unicodePoint
+	 * 
+	 * @param codePoint
+	 * @return null if neither
+	 */
+	private static Integer getIndexDecimal(CodePoint codePoint) {
+		if (codePoint.getDecimal() != null) {
+			return codePoint.getDecimal();
+		}
+		UnicodePoint unicodePoint = codePoint.getUnicodePoint();
+		return (unicodePoint == null) ? null : unicodePoint.getDecimalValue();
+	}
+
 	public List<CodePoint> getCodePoints() {
+		ensureMaps();
 		return (List<CodePoint>) Arrays.asList(codePointByUnicodePointMap.values().toArray(new CodePoint[0]));
 	}
 
+	/** codePoints in the order they were added (including those later replaced in the indexes)
+	 * 
+	 * @return
+	 */
+	List<CodePoint> getCodePointsInOrder() {
+		return codePointList;
+	}
+
 	public CodePoint getByUnicodePoint(UnicodePoint unicodePoint) {
 		ensureMaps();
 		return codePointByUnicodePointMap.get(unicodePoint);
@@ -267,13 +384,49 @@ public class CodePointSet extends Element {
 	}
 	
 	public CodePoint getByName(String name) {
-		ensureMaps();
-		return codePointByNameMap.get(name);
+		return (name == null) ? null : getOrCreateIndex().getByName(name);
 	}
 	
 	public CodePoint getByDecimal(Integer decimal) {
-		ensureMaps();
-		return codePointByDecimalMap.get(decimal);
+		return (decimal == null) ? null : getByDecimal((int) decimal);
+	}
+
+	/** lookup without boxing
+	 * 
+	 * @param decimal
+	 * @return
+	 */
+	public CodePoint getByDecimal(int decimal) {
+		return getOrCreateIndex().getByDecimal(decimal);
+	}
+
+	/** unicode decimal for the (non-unicode) decimal code; allocation-free
+	 * 
+	 * @param code
+	 * @return NOT_FOUND if there is no codePoint
+	 */
+	public int toUnicode(int code) {
+		return getOrCreateIndex().toUnicode(code);
+	}
+
+	/** unicode decimal for the character name (e.g. "alpha"); allocation-free
+	 * 
+	 * @param name
+	 * @return NOT_FOUND if there is no codePoint
+	 */
+	public int toUnicode(String name) {
+		CodePoint codePoint = getByName(name);
+		return (codePoint == null) ? NOT_FOUND : codePoint.getUnicodeDecimal();
+	}
+
+	private CodePointIndex getOrCreateIndex() {
+		CodePointIndex index = this.index;
+		if (index == null) {
+			ensureMaps();
+			index = new CodePointIndex(codePointByDecimalMap, codePointByNameMap);
+			this.index = index;
+		}
+		return index;
 	}
 
 	public CodePoint getByUnicodeName(String unicodeName) {
@@ -286,6 +439,18 @@ public class CodePointSet extends Element {
 		}
 	}
 
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getResource() {
+		return resource;
+	}
+
 	public boolean isUnicodeEncoded() {
 		return UNICODE.equals(encoding);
 	}
@@ -300,4 +465,157 @@ public class CodePointSet extends Element {
 		this.addAttribute(new Attribute(ID, id));
 	}
 	
-}
+	/** immutable lookup tables built from the decimal and name maps (or directly from
+	 * the codePoints of a compiled set).
+	 * 
+	 * decimals are held in an int-indexed array if they are dense enough, else as sorted
+	 * int keys searched by bisection. Names are in an open-addressed (linear probing) table
+	 * using the cached String hashCode. Shared CodePointSets are used by several threads
+	 * so an index is never changed once built.
+	 */
+	private static class CodePointIndex {
+
+		private static final int MAX_DENSE_OVERHEAD = 4;
+		private static final int MIN_DENSE_SIZE = 256;
+
+		private int[] sortedDecimals;
+		private CodePoint[] codePointByDecimal;
+		private int[] unicodeByDecimal;
+		private boolean dense;
+		private String[] names;
+		private CodePoint[] codePointByName;
+		private int nameMask;
+
+		CodePointIndex(Map<Integer, CodePoint> codePointByDecimalMap, Map<String, CodePoint> codePointByNameMap) {
+			int size = codePointByDecimalMap.size();
+			int[] decimals = new int[size];
+			int i = 0;
+			for (Integer decimal : codePointByDecimalMap.keySet()) {
+				decimals[i++] = decimal;
+			}
+			Arrays.sort(decimals);
+			CodePoint[] codePoints = new CodePoint[size];
+			for (i = 0; i < size; i++) {
+				codePoints[i] = codePointByDecimalMap.get(decimals[i]);
+			}
+			createDecimalTables(decimals, codePoints);
+			createNameTable(codePointByNameMap.size());
+			for (Map.Entry<String, CodePoint> entry : codePointByNameMap.entrySet()) {
+				putName(entry.getKey(), entry.getValue());
+			}
+		}
+
+		/** as building the maps from the codePoints in order (a later codePoint replaces
+		 * an earlier one with the same decimal or name)
+		 * 
+		 * @param codePointList
+		 */
+		CodePointIndex(List<CodePoint> codePointList) {
+			int count = codePointList.size();
+			// decimal in the high half, position in the low half, so equal decimals sort by position
+			long[] keys = new long[count];
+			int nKeys = 0;
+			for (int i = 0; i < count; i++) {
+				Integer decimal = getIndexDecimal(codePointList.get(i));
+				if (decimal != null) {
+					keys[nKeys++] = ((long) decimal << 32) | i;
+				}
+			}
+			Arrays.sort(keys, 0, nKeys);
+			int[] decimals = new int[nKeys];
+			CodePoint[] codePoints = new CodePoint[nKeys];
+			int size = 0;
+			for (int i = 0; i < nKeys; i++) {
+				int decimal = (int) (keys[i] >> 32);
+				// keep the last of equal decimals
+				if (i + 1 < nKeys && (int) (keys[i + 1] >> 32) == decimal) {
+					continue;
+				}
+				decimals[size] = decimal;
+				codePoints[size] = codePointList.get((int) keys[i]);
+				size++;
+			}
+			createDecimalTables(Arrays.copyOf(decimals, size), Arrays.copyOf(codePoints, size));
+			createNameTable(count);
+			for (CodePoint codePoint : codePointList) {
+				if (codePoint.getName() != null) {
+					putName(codePoint.getName(), codePoint);
+				}
+			}
+		}
+
+		/**
+		 * @param decimals sorted, distinct
+		 * @param codePoints in the order of decimals
+		 */
+		private void createDecimalTables(int[] decimals, CodePoint[] codePoints) {
+			int size = decimals.length;
+			sortedDecimals = decimals;
+			int maxDecimal = (size == 0) ? -1 : decimals[size - 1];
+			int minDecimal = (size == 0) ? 0 : Math.min(0, decimals[0]);
+			dense = minDecimal >= 0 && maxDecimal < Math.max(MIN_DENSE_SIZE, MAX_DENSE_OVERHEAD * size);
+			int length = dense ? maxDecimal + 1 : size;
+			codePointByDecimal = new CodePoint[length];
+			unicodeByDecimal = new int[length];
+			Arrays.fill(unicodeByDecimal, NOT_FOUND);
+			for (int i = 0; i < size; i++) {
+				int slot = dense ? decimals[i] : i;
+				codePointByDecimal[slot] = codePoints[i];
+				Integer unicode = codePoints[i].getUnicodeDecimal();
+				unicodeByDecimal[slot] = (unicode == null) ? NOT_FOUND : unicode;
+			}
+		}
+
+		private void createNameTable(int maxNames) {
+			int capacity = Integer.highestOneBit(Math.max(2, maxNames) * 2) * 2;
+			names = new String[capacity];
+			codePointByName = new CodePoint[capacity];
+			nameMask = capacity - 1;
+		}
+
+		private void putName(String name, CodePoint codePoint) {
+			name = name.intern();
+			int slot = name.hashCode() & nameMask;
+			while (names[slot] != null && !names[slot].equals(name)) {
+				slot = (slot + 1) & nameMask;
+			}
+			names[slot] = name;
+			codePointByName[slot] = codePoint;
+		}
+
+		int size() {
+			return sortedDecimals.length;
+		}
+
+		private int getSlot(int decimal) {
+			if (dense) {
+				return (decimal >= 0 && decimal < codePointByDecimal.length) ? decimal : -1;
+			}
+			int slot = Arrays.binarySearch(sortedDecimals, decimal);
+			return (slot < 0) ? -1 : slot;
+		}
+
+		CodePoint getByDecimal(int decimal) {
+			int slot = getSlot(decimal);
+			return (slot < 0) ? null : codePointByDecimal[slot];
+		}
+
+		int toUnicode(int decimal) {
+			int slot = getSlot(decimal);
+			return (slot < 0) ? NOT_FOUND : unicodeByDecimal[slot];
+		}
+
+		CodePoint getByName(String name) {
+			int slot = name.hashCode() & nameMask;
+			String key;
+			while ((key = names[slot]) != null) {
+				if (key == name || key.equals(name)) {
+					return codePointByName[slot];
+				}
+				slot = (slot + 1) & nameMask;
+			}
+			return null;
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.font;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.xom.Builder;
+
+import org.apache.log4j.Logger;
+
+/** compiles the codePointSet XML resources into a binary form that loads without XML parsing.
+ *
+ * The XML stays the source of truth. The build runs main() on target/classes
+ * (process-classes phase) and writes foo.cpb next to each foo.xml which has a
+ * codePointSet root; included sets are expanded. CodePointSet.readCodePointSet()
+ * uses the .cpb if it is on the classpath and otherwise parses the XML.
+ *
+ * Format (DataOutputStream): MAGIC, VERSION, encoding, id, resource, count, then
+ * for each codePoint in the order it was added: decimal (NO_DECIMAL if absent),
+ * unicode value, unicode name, name, note and replacement points. Strings may be null.
+ *
+ * @author pm286
+ *
+ */
+public class CodePointSetCompiler {
+
+	private final static Logger LOG = Logger.getLogger(CodePointSetCompiler.class);
+
+	public static final String XML_SUFFIX = ".xml";
+	public static final String COMPILED_SUFFIX = ".cpb";
+
+	static final int MAGIC = 0x43504231; // "CPB1"
+	static final int VERSION = 1;
+	static final int NO_DECIMAL = Integer.MIN_VALUE;
+
+	/** compiles all codePointSet XML files under the codepoints directory in a classes directory.
+	 *
+	 * @param args classes directory (e.g. target/classes)
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("Usage: CodePointSetCompiler <classes-dir>");
+			return;
+		}
+		File classesDir = new File(args[0]);
+		int count = compileDirectory(classesDir, new File(classesDir, CodePointSet.CODEPOINT_DIR));
+		LOG.info("compiled "+count+" codePointSets");
+	}
+
+	/** compiles every codePointSet XML file in directory and its descendants.
+	 *
+	 * Files with other root elements (or that cannot be read) are skipped.
+	 * @param classesDir root of the classpath (resource names are relative to this)
+	 * @param directory
+	 * @return number of files compiled
+	 */
+	public static int compileDirectory(File classesDir, File directory) {
+		// never read stale .cpb files while compiling the XML
+		CodePointSet.setUseCompiledTables(false);
+		try {
+			List<File> xmlFiles = new ArrayList<File>();
+			addXMLFiles(directory, xmlFiles);
+			int count = 0;
+			for (File xmlFile : xmlFiles) {
+				String resourceName = getResourceName(classesDir, xmlFile);
+				if (!hasCodePointSetRoot(xmlFile)) {
+					LOG.trace("skipped "+resourceName);
+					continue;
+				}
+				try {
+					CodePointSet codePointSet = CodePointSet.readCodePointSet(resourceName);
+					File compiledFile = new File(classesDir, getCompiledResourceName(resourceName));
+					OutputStream os = new BufferedOutputStream(new FileOutputStream(compiledFile));
+					try {
+						write(codePointSet, os);
+					} finally {
+						os.close();
+					}
+					count++;
+				} catch (Exception e) {
+					LOG.warn("Cannot compile "+resourceName+": "+e);
+				}
+			}
+			return count;
+		} finally {
+			CodePointSet.setUseCompiledTables(true);
+		}
+	}
+
+	/** maps foo.xml to foo.cpb
+	 *
+	 * @param xmlResourceName
+	 * @return
+	 */
+	public static String getCompiledResourceName(String xmlResourceName) {
+		String name = xmlResourceName;
+		if (name.endsWith(XML_SUFFIX)) {
+			name = name.substring(0, name.length() - XML_SUFFIX.length());
+		}
+		return name + COMPILED_SUFFIX;
+	}
+
+	public static void write(CodePointSet codePointSet, OutputStream os) throws IOException {
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		writeString(dos, codePointSet.getEncoding());
+		writeString(dos, codePointSet.getId());
+		writeString(dos, codePointSet.getResource());
+		List<CodePoint> codePointList = codePointSet.getCodePointsInOrder();
+		dos.writeInt(codePointList.size());
+		for (CodePoint codePoint : codePointList) {
+			Integer decimal = codePoint.getDecimal();
+			dos.writeInt(decimal == null ? NO_DECIMAL : decimal);
+			UnicodePoint unicodePoint = codePoint.getUnicodePoint();
+			writeString(dos, unicodePoint.getUnicodeValue());
+			writeString(dos, unicodePoint.getUnicodeName());
+			writeString(dos, codePoint.getName());
+			writeString(dos, codePoint.getNote());
+			writeString(dos, createReplacementString(unicodePoint.getReplacmentPoints()));
+		}
+		dos.flush();
+	}
+
+	public static CodePointSet read(InputStream is) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+		if (dis.readInt() != MAGIC) {
+			throw new IOException("Not a compiled CodePointSet");
+		}
+		int version = dis.readInt();
+		if (version != VERSION) {
+			throw new IOException("Compiled CodePointSet version "+version+"; expected "+VERSION);
+		}
+		CodePointSet codePointSet = new CodePointSet();
+		String encoding = readString(dis);
+		String id = readString(dis);
+		String resource = readString(dis);
+		codePointSet.setCompiledAttributes(encoding, id, resource);
+		int size = dis.readInt();
+		List<CodePoint> codePoints = new ArrayList<CodePoint>(size);
+		for (int i = 0; i < size; i++) {
+			int decimal = dis.readInt();
+			UnicodePoint unicodePoint = UnicodePoint.createUnicodeValue(readString(dis));
+			unicodePoint.setUnicodeName(readString(dis));
+			String name = readString(dis);
+			String note = readString(dis);
+			unicodePoint.addReplacmentPoints(readString(dis));
+			CodePoint codePoint = CodePoint.createCompiled(
+					(decimal == NO_DECIMAL) ? null : decimal, name, note, unicodePoint);
+			codePoints.add(codePoint);
+		}
+		codePointSet.setCompiledCodePoints(codePoints);
+		return codePointSet;
+	}
+
+	private static String createReplacementString(UnicodePoint[] replacementPoints) {
+		if (replacementPoints == null) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < replacementPoints.length; i++) {
+			if (i > 0) {
+				sb.append(" ");
+			}
+			sb.append(replacementPoints[i].getUnicodeValue());
+		}
+		return sb.toString();
+	}
+
+	private static void writeString(DataOutputStream dos, String s) throws IOException {
+		dos.writeBoolean(s != null);
+		if (s != null) {
+			dos.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInputStream dis) throws IOException {
+		return dis.readBoolean() ? dis.readUTF() : null;
+	}
+
+	private static void addXMLFiles(File directory, List<File> xmlFiles) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				addXMLFiles(file, xmlFiles);
+			} else if (file.getName().endsWith(XML_SUFFIX)) {
+				xmlFiles.add(file);
+			}
+		}
+	}
+
+	private static boolean hasCodePointSetRoot(File xmlFile) {
+		try {
+			return CodePointSet.TAG.equals(new Builder().build(xmlFile).getRootElement().getLocalName());
+		} catch (Exception e) {
+			LOG.trace("cannot parse "+xmlFile+": "+e);
+			return false;
+		}
+	}
+
+	private static String getResourceName(File classesDir, File file) {
+		String root = classesDir.getAbsoluteFile().toURI().getPath();
+		String path = file.getAbsoluteFile().toURI().getPath();
+		return path.substring(root.length());
+	}
+}
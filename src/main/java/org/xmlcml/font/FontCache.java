@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.font;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.xmlcml.pdf2svg.AMIFont;
+
+/** two-level cache for font resolution.
+ *
+ * level 1 (an instance): AMIFonts keyed by PDFont identity. Each PDFPage2SVGConverter
+ * has its own and clears it for each page, so consecutive glyphs in the same
+ * font do not resolve the font descriptor name again. Not threadsafe.
+ *
+ * level 2 (static): the parsed FontFamilySets and AMIFont lists from the resources,
+ * shared by all NonStandardFontManagers in the process. These are read-only once
+ * parsed. Least recently used resources are evicted beyond maxResources.
+ *
+ * Both levels count hits and misses.
+ *
+ * @author pm286
+ *
+ */
+public class FontCache {
+
+	private final static Logger LOG = Logger.getLogger(FontCache.class);
+
+	public static final int DEFAULT_MAX_RESOURCES = 16;
+
+	private static int maxResources = DEFAULT_MAX_RESOURCES;
+	private static Map<String, FontFamilySet> fontFamilySetByResourceMap = createResourceMap();
+	private static Map<String, Map<String, AMIFont>> amiFontMapByResourceMap = createResourceMap();
+	private static AtomicLong resourceHits = new AtomicLong();
+	private static AtomicLong resourceMisses = new AtomicLong();
+
+	private Map<PDFont, AMIFont> amiFontByPDFontMap;
+	private long hits;
+	private long misses;
+
+	public FontCache() {
+		amiFontByPDFontMap = new IdentityHashMap<PDFont, AMIFont>();
+	}
+
+	/** AMIFont for the PDFont, resolving it through the fontManager on the first call.
+	 *
+	 * @param pdFont
+	 * @param fontManager
+	 * @return
+	 */
+	public AMIFont getAmiFont(PDFont pdFont, NonStandardFontManager fontManager) {
+		AMIFont amiFont = amiFontByPDFontMap.get(pdFont);
+		if (amiFont == null) {
+			misses++;
+			amiFont = fontManager.getAmiFontByFont(pdFont);
+			amiFontByPDFontMap.put(pdFont, amiFont);
+		} else {
+			hits++;
+		}
+		return amiFont;
+	}
+
+	/** forgets the PDFonts (called for each page); the counters are kept
+	 *
+	 */
+	public void clear() {
+		amiFontByPDFontMap.clear();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public double getHitRate() {
+		return getHitRate(hits, misses);
+	}
+
+	/** parsed FontFamilySet for the resource; the result is shared and must not be altered
+	 *
+	 * @param resourceName
+	 * @return
+	 */
+	public static FontFamilySet getFontFamilySet(String resourceName) {
+		synchronized (fontFamilySetByResourceMap) {
+			FontFamilySet fontFamilySet = fontFamilySetByResourceMap.get(resourceName);
+			if (fontFamilySet == null) {
+				resourceMisses.incrementAndGet();
+				fontFamilySet = FontFamilySet.readFontFamilySet(resourceName);
+				fontFamilySetByResourceMap.put(resourceName, fontFamilySet);
+			} else {
+				resourceHits.incrementAndGet();
+			}
+			return fontFamilySet;
+		}
+	}
+
+	/** AMIFonts read from the resource by NonStandardFontManager.readAmiFonts()
+	 *
+	 * @param resourceName
+	 * @return unmodifiable map shared between callers
+	 */
+	public static Map<String, AMIFont> getAmiFonts(String resourceName) {
+		synchronized (amiFontMapByResourceMap) {
+			Map<String, AMIFont> amiFontMap = amiFontMapByResourceMap.get(resourceName);
+			if (amiFontMap == null) {
+				resourceMisses.incrementAndGet();
+				amiFontMap = Collections.unmodifiableMap(NonStandardFontManager.readAmiFonts(resourceName));
+				amiFontMapByResourceMap.put(resourceName, amiFontMap);
+			} else {
+				resourceHits.incrementAndGet();
+			}
+			return amiFontMap;
+		}
+	}
+
+	public static long getResourceHits() {
+		return resourceHits.get();
+	}
+
+	public static long getResourceMisses() {
+		return resourceMisses.get();
+	}
+
+	public static double getResourceHitRate() {
+		return getHitRate(resourceHits.get(), resourceMisses.get());
+	}
+
+	public static int getMaxResources() {
+		return maxResources;
+	}
+
+	/** number of resources of each kind kept before the least recently used is dropped
+	 *
+	 * @param maxResources
+	 */
+	public static void setMaxResources(int maxResources) {
+		if (maxResources < 1) {
+			throw new RuntimeException("maxResources must be >= 1; found: "+maxResources);
+		}
+		FontCache.maxResources = maxResources;
+	}
+
+	/** empties the shared cache and resets its counters
+	 *
+	 */
+	public static void clearResources() {
+		synchronized (fontFamilySetByResourceMap) {
+			fontFamilySetByResourceMap.clear();
+		}
+		synchronized (amiFontMapByResourceMap) {
+			amiFontMapByResourceMap.clear();
+		}
+		resourceHits.set(0);
+		resourceMisses.set(0);
+	}
+
+	private static double getHitRate(long hits, long misses) {
+		long total = hits + misses;
+		return (total == 0) ? 0.0 : (double) hits / (double) total;
+	}
+
+	private static <T> Map<String, T> createResourceMap() {
+		return new LinkedHashMap<String, T>(DEFAULT_MAX_RESOURCES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				boolean remove = size() > maxResources;
+				if (remove) {
+					LOG.trace("evicting font resource "+eldest.getKey());
+				}
+				return remove;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "fonts: "+hits+" hits, "+misses+" misses; resources: "+resourceHits+" hits, "+resourceMisses+" misses";
+	}
+}
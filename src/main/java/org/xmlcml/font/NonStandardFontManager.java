@@ -38,6 +38,11 @@ import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.font.PDType3Font;
 import org.xmlcml.euclid.Util;
 import org.xmlcml.pdf2svg.AMIFont;
+/** manages AMIFonts and FontFamilySets.
+ * 
+ * may be shared between threads converting pages of the same document 
+ * so the lookup and creation methods are synchronized
+ */
 public class NonStandardFontManager {
 
 
@@ -81,23 +86,24 @@ public class NonStandardFontManager {
 		ensureAMIFontMaps();
 	}
 	
-	public void ensureAMIFontMaps() {
+	public synchronized void ensureAMIFontMaps() {
 		if (amiFontByFontNameMap == null) {
 			amiFontByFontNameMap = new HashMap<String, AMIFont>();
-			standardUnicodeFontFamilySet = FontFamilySet.readFontFamilySet(FontFamilySet.STANDARD_UNICODE_FONT_FAMILY_SET_XML);
-			standardNonUnicodeFontFamilySet = FontFamilySet.readFontFamilySet(FontFamilySet.STANDARD_NON_UNICODE_FONT_FAMILY_SET_XML);
-			nonStandardFontFamilySet = FontFamilySet.readFontFamilySet(FontFamilySet.NON_STANDARD_FONT_FAMILY_SET_XML);
+			// shared and read-only; unknownFontFamilySet is the only set this manager adds to
+			standardUnicodeFontFamilySet = FontCache.getFontFamilySet(FontFamilySet.STANDARD_UNICODE_FONT_FAMILY_SET_XML);
+			standardNonUnicodeFontFamilySet = FontCache.getFontFamilySet(FontFamilySet.STANDARD_NON_UNICODE_FONT_FAMILY_SET_XML);
+			nonStandardFontFamilySet = FontCache.getFontFamilySet(FontFamilySet.NON_STANDARD_FONT_FAMILY_SET_XML);
 			unknownFontFamilySet = new FontFamilySet();
 		}
 	}
 
 	
-	public Map<String, AMIFont> getAmiFontByFontNameMap() {
+	public synchronized Map<String, AMIFont> getAmiFontByFontNameMap() {
 		ensureAMIFontMaps();
 		return amiFontByFontNameMap;
 	}
 	
-	public AMIFont getAmiFontByFontName(String fontName) {
+	public synchronized AMIFont getAmiFontByFontName(String fontName) {
 		getAmiFontByFontNameMap();
 		return amiFontByFontNameMap.get(fontName);
 	}
@@ -160,7 +166,7 @@ CharProcs = COSDictionary{(COSName{space}:COSDictionary{(COSName{Length}:COSInt{
 	}
 
 
-	public AMIFont getAmiFontByFont(PDFont pdFont) {
+	public synchronized AMIFont getAmiFontByFont(PDFont pdFont) {
 		ensureAMIFontMaps();
 		String fontName = null;
 		AMIFont amiFont = null;
@@ -274,7 +280,7 @@ CharProcs = COSDictionary{(COSName{space}:COSDictionary{(COSName{Length}:COSInt{
 		return fontList;
 	}
 
-	public NonStandardFontFamily getFontFamilyByFamilyName(String fontFamilyName) {
+	public synchronized NonStandardFontFamily getFontFamilyByFamilyName(String fontFamilyName) {
 		NonStandardFontFamily fontFamily = standardUnicodeFontFamilySet.getFontFamilyByName(fontFamilyName);
 		if (fontFamily == null) {
 			fontFamily = standardNonUnicodeFontFamilySet.getFontFamilyByName(fontFamilyName);
@@ -288,7 +294,7 @@ CharProcs = COSDictionary{(COSName{space}:COSDictionary{(COSName{Length}:COSInt{
 		return fontFamily;
 	}
 
-	public NonStandardFontFamily recordExistingOrAddNewFontFamily(String fontName, AMIFont amiFont) {
+	public synchronized NonStandardFontFamily recordExistingOrAddNewFontFamily(String fontName, AMIFont amiFont) {
 		String fontFamilyName = amiFont.getFontFamilyName();
 		NonStandardFontFamily fontFamily = amiFont.getOrCreateNonStandardFontFamily(this); // looks hairy...
 		if (standardUnicodeFontFamilySet.containsKey(fontFamilyName)) {
@@ -18,10 +18,10 @@ package org.xmlcml.pdf2svg;
 import java.io.IOException;
 
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -113,6 +113,8 @@ public class AMIFont {
 	private NonStandardFontFamily nonStandardFontFamily;
 	private Boolean forceBold;
 	private String fontFamilyString;
+	// read by the page threads without locking; FontStyleProfile is immutable
+	private volatile FontStyleProfile styleProfile;
 	
 	/**
         addFontMapping("Times-Roman","TimesNewRoman");
@@ -353,9 +355,9 @@ and
 		return pathStringByCharnameMap;
 	}
 
-	private void ensurePathStringByCharnameMap() {
+	private synchronized void ensurePathStringByCharnameMap() {
 		if (this.pathStringByCharnameMap == null) {
-			pathStringByCharnameMap = new HashMap<String, String>();
+			pathStringByCharnameMap = new ConcurrentHashMap<String, String>();
 		}
 	}
 	
@@ -729,4 +731,21 @@ and
 		return nonStandardFontFamily;
 	}
 
+	/** the styles used for every glyph in this font; worked out on the first call.
+	 * 
+	 * also sets the NonStandardFontFamily from amiFontManager
+	 * @param amiFontManager
+	 * @return
+	 */
+	public FontStyleProfile getStyleProfile(NonStandardFontManager amiFontManager) {
+		FontStyleProfile profile = styleProfile;
+		if (profile == null) {
+			NonStandardFontFamily fontFamily = amiFontManager.getFontFamilyByFamilyName(fontFamilyName);
+			setNonStandardFontFamily(fontFamily);
+			profile = new FontStyleProfile(this, fontFamily);
+			styleProfile = profile;
+		}
+		return profile;
+	}
+
 }
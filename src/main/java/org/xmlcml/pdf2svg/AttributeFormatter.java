@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+/** formats the numbers and colours of SVG attributes without intermediate objects.
+ *
+ * format(double) rounds to a fixed number of places (half up) and writes the
+ * digits into a reusable buffer; the result is the same as Double.toString() of
+ * the rounded value (as GraphicsElement.format() produces). formatColor() and
+ * formatWidth() keep their recent results in small direct-mapped caches keyed by
+ * the packed RGB or the float bits, as the same few values recur for every glyph.
+ *
+ * Not threadsafe; each PDFPage2SVGConverter has its own.
+ *
+ * @author pm286
+ *
+ */
+class AttributeFormatter {
+
+	// powers of 2
+	private static final int COLOR_CACHE_SIZE = 64;
+	private static final int WIDTH_CACHE_SIZE = 1024;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	// Double.toString() uses exponents outside [1e-3, 1e7)
+	private static final double MIN_PLAIN = 1.0e-3;
+	private static final double MAX_PLAIN = 1.0e7;
+
+	private int places;
+	private long scale;
+	private char[] buffer = new char[32];
+	private int[] colorKeys = new int[COLOR_CACHE_SIZE];
+	private String[] colorStrings = new String[COLOR_CACHE_SIZE];
+	private int[] widthKeys = new int[WIDTH_CACHE_SIZE];
+	private String[] widthStrings = new String[WIDTH_CACHE_SIZE];
+
+	/**
+	 * @param places decimal places (0 to 9)
+	 */
+	AttributeFormatter(int places) {
+		if (places < 0 || places > 9) {
+			throw new RuntimeException("places must be 0-9; found: "+places);
+		}
+		this.places = places;
+		scale = 1;
+		for (int i = 0; i < places; i++) {
+			scale *= 10;
+		}
+	}
+
+	int getPlaces() {
+		return places;
+	}
+
+	/** value rounded to places, as Double.toString()
+	 *
+	 * @param value
+	 * @return
+	 */
+	String format(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return Double.toString(value);
+		}
+		long scaled = Math.round(value * scale);
+		double rounded = scaled / (double) scale;
+		double abs = Math.abs(rounded);
+		if (abs >= MAX_PLAIN || (abs < MIN_PLAIN && scaled != 0)) {
+			return Double.toString(rounded);
+		}
+		long magnitude = Math.abs(scaled);
+		long integer = magnitude / scale;
+		long fraction = magnitude % scale;
+		int end = buffer.length;
+		int pos = end;
+		// fraction without trailing zeros but at least one digit
+		int digits = places;
+		while (digits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		for (int i = 0; i < digits; i++) {
+			buffer[--pos] = (char) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		if (places == 0) {
+			buffer[--pos] = '0';
+		}
+		buffer[--pos] = '.';
+		do {
+			buffer[--pos] = (char) ('0' + integer % 10);
+			integer /= 10;
+		} while (integer > 0);
+		if (scaled < 0) {
+			buffer[--pos] = '-';
+		}
+		return new String(buffer, pos, end - pos);
+	}
+
+	/** CSS colour as #rrggbb
+	 *
+	 * @param rgb packed red, green, blue
+	 * @return
+	 */
+	String formatColor(int rgb) {
+		rgb &= 0xffffff;
+		int index = (rgb ^ (rgb >>> 12)) & (COLOR_CACHE_SIZE - 1);
+		String color = colorStrings[index];
+		if (color == null || colorKeys[index] != rgb) {
+			char[] chars = new char[7];
+			chars[0] = '#';
+			for (int i = 6; i > 0; i--) {
+				chars[i] = HEX[(rgb >> (4 * (6 - i))) & 0xf];
+			}
+			color = new String(chars);
+			colorKeys[index] = rgb;
+			colorStrings[index] = color;
+		}
+		return color;
+	}
+
+	/** width as String.valueOf((double) width)
+	 *
+	 * @param width
+	 * @return
+	 */
+	String formatWidth(float width) {
+		int bits = Float.floatToIntBits(width);
+		int index = (bits ^ (bits >>> 10) ^ (bits >>> 20)) & (WIDTH_CACHE_SIZE - 1);
+		String widthString = widthStrings[index];
+		if (widthString == null || widthKeys[index] != bits) {
+			widthString = String.valueOf((double) width);
+			widthKeys[index] = bits;
+			widthStrings[index] = widthString;
+		}
+		return widthString;
+	}
+}
@@ -0,0 +1,469 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Serializer;
+
+import org.apache.log4j.Logger;
+
+/** converts many PDF files at once on a bounded pool of threads.
+ *
+ * Each document gets a fresh PDF2SVGConverter configured from the same options
+ * so that a failure (including OutOfMemoryError) in one document does not affect
+ * the others. Documents can be abandoned after a timeout (checked between pages)
+ * and input files above a size cap are not converted. There is no per-document heap
+ * cap (the JVM cannot measure the heap used by one thread); -maxheapmb checks the
+ * whole heap between pages. A summary is written to batchManifest.xml.
+ *
+ * @author pm286
+ *
+ */
+public class BatchConverter {
+
+	private final static Logger LOG = Logger.getLogger(BatchConverter.class);
+
+	public static final String MANIFEST_XML = "batchManifest.xml";
+
+	private static final String PDF = ".pdf";
+	private static final String UTF_8 = "UTF-8";
+	private static final double MEGABYTE = 1024.0 * 1024.0;
+
+	// manifest
+	private static final String BATCH = "batch";
+	private static final String DOCUMENT = "document";
+	private static final String DOCUMENTS = "documents";
+	private static final String EXCEPTION = "exception";
+	private static final String FAILURES = "failures";
+	private static final String FILE = "file";
+	private static final String MESSAGE = "message";
+	private static final String MILLIS = "millis";
+	private static final String PAGES = "pages";
+	private static final String PAGES_PER_SECOND = "pagesPerSecond";
+	private static final String STATUS = "status";
+	private static final String THREADS = "threads";
+	private static final String TYPE = "type";
+
+	public enum Status {
+		OK,
+		FAILED,
+		TIMEOUT,
+		SKIPPED,
+	}
+
+	/** outcome of converting a single PDF
+	 *
+	 */
+	public static class DocumentResult {
+		private File file;
+		private Status status;
+		private int pageCount;
+		private long millis;
+		private Throwable throwable;
+
+		DocumentResult(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public int getPageCount() {
+			return pageCount;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public Throwable getThrowable() {
+			return throwable;
+		}
+
+		public double getPagesPerSecond() {
+			return millis == 0 ? 0.0 : (1000.0 * pageCount) / millis;
+		}
+	}
+
+	private List<String> optionArgList;
+	private File outputDirectory;
+	private List<File> fileList;
+	private Map<File, PageSelection> pageSelectionByFileMap;
+	private int threadCount = 1;
+	private int timeoutSeconds = 0;
+	private int maxFileMegabytes = 0;
+	private boolean exitOnError = false;
+	private List<DocumentResult> resultList;
+	private long totalMillis;
+
+	/**
+	 * @param optionArgList PDF2SVGConverter options (without input files) applied to every document
+	 * @param outputDirectory where the manifest is written
+	 */
+	public BatchConverter(List<String> optionArgList, File outputDirectory) {
+		this.optionArgList = (optionArgList == null) ? new ArrayList<String>() : optionArgList;
+		this.outputDirectory = outputDirectory;
+		this.fileList = new ArrayList<File>();
+		this.pageSelectionByFileMap = new HashMap<File, PageSelection>();
+	}
+
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1) {
+			throw new RuntimeException("threadCount must be >= 1; found: "+threadCount);
+		}
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * @param timeoutSeconds 0 means no timeout
+	 */
+	public void setTimeoutSeconds(int timeoutSeconds) {
+		this.timeoutSeconds = timeoutSeconds;
+	}
+
+	/** documents whose input file is larger than this fail without being read.
+	 * 
+	 * a cap on the file size, not on the heap (see class doc)
+	 * @param maxFileMegabytes 0 means no cap
+	 */
+	public void setMaxFileMegabytes(int maxFileMegabytes) {
+		this.maxFileMegabytes = maxFileMegabytes;
+	}
+
+	/** stop scheduling documents after the first failure
+	 *
+	 * documents already being converted are finished; the others are SKIPPED
+	 * @param exitOnError
+	 */
+	public void setExitOnError(boolean exitOnError) {
+		this.exitOnError = exitOnError;
+	}
+
+	public void addFileOrDirectory(File file) {
+		if (file.isDirectory()) {
+			File[] pdfFiles = file.listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String filename) {
+					return filename.endsWith(PDF);
+				}
+			});
+			if (pdfFiles != null) {
+				for (File pdf : pdfFiles) {
+					fileList.add(pdf);
+				}
+			}
+		} else {
+			fileList.add(file);
+		}
+	}
+
+	/** adds a file whose pages are selected independently of the -pages option
+	 *
+	 * @param file
+	 * @param pageSelection
+	 */
+	public void addFile(File file, PageSelection pageSelection) {
+		fileList.add(file);
+		pageSelectionByFileMap.put(file, pageSelection);
+	}
+
+	public List<File> getFileList() {
+		return fileList;
+	}
+
+	public List<DocumentResult> getResultList() {
+		return resultList;
+	}
+
+	/** converts all documents and writes the manifest
+	 *
+	 * results are taken as documents finish, so with exitOnError the first failure
+	 * stops the batch however far down the list it is. The results are listed in
+	 * the order of the files.
+	 * @return true if all documents succeeded
+	 */
+	public boolean run() {
+		resultList = new ArrayList<DocumentResult>();
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		CompletionService<DocumentResult> completionService = new ExecutorCompletionService<DocumentResult>(executor);
+		ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+		try {
+			List<DocumentConverter> converterList = new ArrayList<DocumentConverter>();
+			Map<Future<DocumentResult>, Integer> indexByFutureMap = new IdentityHashMap<Future<DocumentResult>, Integer>();
+			for (File file : fileList) {
+				DocumentConverter converter = new DocumentConverter(file, watchdog);
+				indexByFutureMap.put(completionService.submit(converter), converterList.size());
+				converterList.add(converter);
+			}
+			DocumentResult[] results = new DocumentResult[fileList.size()];
+			boolean stopped = false;
+			for (int n = 0; n < results.length; n++) {
+				Future<DocumentResult> future = completionService.take();
+				int i = indexByFutureMap.get(future);
+				DocumentResult result = getResult(future, fileList.get(i));
+				results[i] = result;
+				if (exitOnError && !stopped && !Status.OK.equals(result.status)) {
+					LOG.error("Stopping batch after failure of: "+result.file);
+					stopped = true;
+					executor.shutdown();
+					// documents being converted are not interrupted
+					for (Map.Entry<Future<DocumentResult>, Integer> entry : indexByFutureMap.entrySet()) {
+						if (converterList.get(entry.getValue()).skipIfNotStarted()) {
+							entry.getKey().cancel(false);
+						}
+					}
+				}
+			}
+			resultList.addAll(Arrays.asList(results));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while converting batch", e);
+		} finally {
+			executor.shutdownNow();
+			watchdog.shutdownNow();
+		}
+		totalMillis = System.currentTimeMillis() - start;
+		writeManifest();
+		return getFailureCount() == 0;
+	}
+
+	private DocumentResult getResult(Future<DocumentResult> future, File file) {
+		DocumentResult result = null;
+		try {
+			result = future.get();
+		} catch (Exception e) {
+			// only happens if the task was cancelled before starting
+			result = createSkippedResult(file);
+		}
+		return result;
+	}
+
+	private static DocumentResult createSkippedResult(File file) {
+		DocumentResult result = new DocumentResult(file);
+		result.status = Status.SKIPPED;
+		result.throwable = new RuntimeException("Not converted: batch stopped after a failure");
+		return result;
+	}
+
+	public int getFailureCount() {
+		int count = 0;
+		for (DocumentResult result : resultList) {
+			if (!Status.OK.equals(result.status)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public int getPageCount() {
+		int count = 0;
+		for (DocumentResult result : resultList) {
+			count += result.pageCount;
+		}
+		return count;
+	}
+
+	public Element createManifestElement() {
+		Element batch = new Element(BATCH);
+		batch.addAttribute(new Attribute(DOCUMENTS, String.valueOf(resultList.size())));
+		batch.addAttribute(new Attribute(FAILURES, String.valueOf(getFailureCount())));
+		batch.addAttribute(new Attribute(THREADS, String.valueOf(threadCount)));
+		batch.addAttribute(new Attribute(PAGES, String.valueOf(getPageCount())));
+		batch.addAttribute(new Attribute(MILLIS, String.valueOf(totalMillis)));
+		double pagesPerSecond = totalMillis == 0 ? 0.0 : (1000.0 * getPageCount()) / totalMillis;
+		batch.addAttribute(new Attribute(PAGES_PER_SECOND, String.format("%.2f", pagesPerSecond)));
+		for (DocumentResult result : resultList) {
+			Element document = new Element(DOCUMENT);
+			document.addAttribute(new Attribute(FILE, result.file.getPath()));
+			document.addAttribute(new Attribute(STATUS, result.status.toString().toLowerCase()));
+			document.addAttribute(new Attribute(PAGES, String.valueOf(result.pageCount)));
+			document.addAttribute(new Attribute(MILLIS, String.valueOf(result.millis)));
+			document.addAttribute(new Attribute(PAGES_PER_SECOND, String.format("%.2f", result.getPagesPerSecond())));
+			if (result.throwable != null) {
+				document.appendChild(createExceptionElement(result.throwable));
+			}
+			batch.appendChild(document);
+		}
+		return batch;
+	}
+
+	private Element createExceptionElement(Throwable throwable) {
+		Element exception = new Element(EXCEPTION);
+		exception.addAttribute(new Attribute(TYPE, throwable.getClass().getName()));
+		String message = throwable.getMessage();
+		if (message != null) {
+			exception.addAttribute(new Attribute(MESSAGE, message));
+		}
+		StringWriter sw = new StringWriter();
+		throwable.printStackTrace(new PrintWriter(sw));
+		exception.appendChild(sw.toString());
+		return exception;
+	}
+
+	private void writeManifest() {
+		if (!outputDirectory.exists()) {
+			outputDirectory.mkdirs();
+		}
+		File manifestFile = new File(outputDirectory, MANIFEST_XML);
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(manifestFile);
+			Serializer serializer = new Serializer(os, UTF_8);
+			serializer.setIndent(1);
+			serializer.write(new Document(createManifestElement()));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write batch manifest: "+manifestFile, e);
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {
+					LOG.error("Cannot close batch manifest: "+e);
+				}
+			}
+		}
+		LOG.debug("batch: "+resultList.size()+" documents, "+getFailureCount()+" failures, "+getPageCount()+" pages in "+totalMillis+" ms");
+	}
+
+	/** converts a single document with its own PDF2SVGConverter
+	 *
+	 */
+	private class DocumentConverter implements Callable<DocumentResult> {
+
+		private File file;
+		private ScheduledExecutorService watchdog;
+		private volatile boolean timedOut = false;
+		// guards done so that the watchdog cannot interrupt the pool thread after call() has finished
+		private final Object lock = new Object();
+		private boolean done = false;
+		// set when call() starts, or by skipIfNotStarted() so that it never does
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		DocumentConverter(File file, ScheduledExecutorService watchdog) {
+			this.file = file;
+			this.watchdog = watchdog;
+		}
+
+		/**
+		 * @return true if the document had not started and now will not
+		 */
+		boolean skipIfNotStarted() {
+			return started.compareAndSet(false, true);
+		}
+
+		public DocumentResult call() {
+			if (!started.compareAndSet(false, true)) {
+				// skipped after this was taken from the queue but before it was cancelled
+				return createSkippedResult(file);
+			}
+			DocumentResult result = new DocumentResult(file);
+			long start = System.currentTimeMillis();
+			ScheduledFuture<?> interrupter = scheduleTimeout();
+			try {
+				checkFileSize();
+				PDF2SVGConverter converter = new PDF2SVGConverter();
+				converter.parseArgs(optionArgList.toArray(new String[0]));
+				if (pageSelectionByFileMap.containsKey(file)) {
+					converter.setPageSelection(pageSelectionByFileMap.get(file));
+				}
+				converter.ensureXMLLogger();
+				converter.openPDFFile(file);
+				if (converter.useXMLLogger) {
+					converter.xmlLogger.writeXMLFile(converter.outdir.getPath(), file.getName());
+				}
+				result.pageCount = converter.getConvertedPageCount();
+				result.status = Status.OK;
+			} catch (Throwable t) {
+				// includes OutOfMemoryError - the other documents can continue
+				result.status = timedOut ? Status.TIMEOUT : Status.FAILED;
+				result.throwable = t;
+				LOG.error("Failed to convert file: "+file+" ("+result.status+")", t);
+			} finally {
+				synchronized (lock) {
+					done = true;
+				}
+				if (interrupter != null) {
+					interrupter.cancel(false);
+				}
+				// clear any interrupt so the pool thread can be reused; none can follow
+				Thread.interrupted();
+			}
+			result.millis = System.currentTimeMillis() - start;
+			return result;
+		}
+
+		private void checkFileSize() {
+			if (maxFileMegabytes > 0) {
+				double megabytes = file.length() / MEGABYTE;
+				if (megabytes > maxFileMegabytes) {
+					throw new RuntimeException(String.format(
+							"File is %.1f MB, larger than file size cap of %d MB", megabytes, maxFileMegabytes));
+				}
+			}
+		}
+
+		private ScheduledFuture<?> scheduleTimeout() {
+			ScheduledFuture<?> interrupter = null;
+			if (timeoutSeconds > 0) {
+				final Thread worker = Thread.currentThread();
+				interrupter = watchdog.schedule(new Runnable() {
+					public void run() {
+						synchronized (lock) {
+							if (done) {
+								return;
+							}
+							timedOut = true;
+							LOG.error("Timeout after "+timeoutSeconds+" s: "+file);
+							worker.interrupt();
+						}
+					}
+				}, timeoutSeconds, TimeUnit.SECONDS);
+			}
+			return interrupter;
+		}
+	}
+}
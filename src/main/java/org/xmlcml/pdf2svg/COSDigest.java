@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+
+/** content digests of PDF objects, independent of object numbers and key order.
+ *
+ * used for the keys of PageCache and GlyphOutlineCache
+ *
+ * @author pm286
+ *
+ */
+class COSDigest {
+
+	private static final String ENCODING = "UTF-8";
+
+	/** adds base (and everything it refers to) to digest
+	 *
+	 * @param digest
+	 * @param base may be null
+	 * @param streamDigestMap digests of streams already seen (should not outlive their document)
+	 * @throws IOException
+	 */
+	static void update(MessageDigest digest, COSBase base, Map<COSStream, byte[]> streamDigestMap) throws IOException {
+		update(digest, base, streamDigestMap, new IdentityHashMap<COSBase, Boolean>());
+	}
+
+	/** adds a type marker and the content of base; dictionaries are in key order and
+	 * a dictionary or stream already on the path is only marked (resources can be cyclic)
+	 */
+	private static void update(MessageDigest digest, COSBase base, Map<COSStream, byte[]> streamDigestMap,
+			IdentityHashMap<COSBase, Boolean> pathMap) throws IOException {
+		if (base instanceof COSObject) {
+			base = ((COSObject) base).getObject();
+		}
+		if (base == null) {
+			digest.update((byte) 'n');
+		} else if (pathMap.containsKey(base)) {
+			digest.update((byte) 'r');
+		} else if (base instanceof COSStream) {
+			digest.update((byte) 's');
+			digest.update(getStreamDigest((COSStream) base, streamDigestMap, pathMap));
+		} else if (base instanceof COSDictionary) {
+			pathMap.put(base, Boolean.TRUE);
+			updateDictionary(digest, (COSDictionary) base, streamDigestMap, pathMap);
+			pathMap.remove(base);
+		} else if (base instanceof COSArray) {
+			COSArray array = (COSArray) base;
+			digest.update((byte) 'a');
+			updateString(digest, String.valueOf(array.size()));
+			for (int i = 0; i < array.size(); i++) {
+				update(digest, array.get(i), streamDigestMap, pathMap);
+			}
+		} else if (base instanceof COSName) {
+			digest.update((byte) '/');
+			updateString(digest, ((COSName) base).getName());
+		} else if (base instanceof COSString) {
+			byte[] bytes = ((COSString) base).getBytes();
+			digest.update((byte) '(');
+			updateString(digest, String.valueOf(bytes.length));
+			digest.update(bytes);
+		} else if (base instanceof COSNumber) {
+			digest.update((byte) '#');
+			updateString(digest, String.valueOf(((COSNumber) base).doubleValue()));
+		} else if (base instanceof COSBoolean) {
+			digest.update((byte) (((COSBoolean) base).getValue() ? 't' : 'f'));
+		} else {
+			digest.update((byte) '?');
+			updateString(digest, base.getClass().getName());
+		}
+	}
+
+	private static void updateDictionary(MessageDigest digest, COSDictionary dictionary,
+			Map<COSStream, byte[]> streamDigestMap, IdentityHashMap<COSBase, Boolean> pathMap) throws IOException {
+		List<COSName> keyList = new ArrayList<COSName>(dictionary.keySet());
+		Collections.sort(keyList);
+		digest.update((byte) 'd');
+		updateString(digest, String.valueOf(keyList.size()));
+		for (COSName key : keyList) {
+			update(digest, key, streamDigestMap, pathMap);
+			update(digest, dictionary.getItem(key), streamDigestMap, pathMap);
+		}
+	}
+
+	/** digest of a stream's dictionary and encoded data; remembered as streams
+	 * (fonts, images) are shared between pages
+	 */
+	private static byte[] getStreamDigest(COSStream stream, Map<COSStream, byte[]> streamDigestMap,
+			IdentityHashMap<COSBase, Boolean> pathMap) throws IOException {
+		byte[] streamDigest = streamDigestMap.get(stream);
+		if (streamDigest == null) {
+			MessageDigest digest = ConversionCheckpoint.createDigest();
+			pathMap.put(stream, Boolean.TRUE);
+			updateDictionary(digest, stream, streamDigestMap, pathMap);
+			pathMap.remove(stream);
+			InputStream is = stream.getFilteredStream();
+			if (is != null) {
+				try {
+					byte[] buffer = new byte[8192];
+					int n;
+					while ((n = is.read(buffer)) != -1) {
+						digest.update(buffer, 0, n);
+					}
+				} finally {
+					is.close();
+				}
+			}
+			streamDigest = digest.digest();
+			streamDigestMap.put(stream, streamDigest);
+		}
+		return streamDigest;
+	}
+
+	private static void updateString(MessageDigest digest, String s) throws UnsupportedEncodingException {
+		digest.update(s.getBytes(ENCODING));
+		digest.update((byte) 0);
+	}
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/** manifest of the pages already written to an output directory; used by -resume.
+ *
+ * One line is appended (and flushed) for each page file once it has been renamed
+ * into place:
+ *
+ *   outputFileName TAB inputHash TAB pageNumber TAB settingsHash TAB outputHash
+ *
+ * Hashes are hex SHA-1. A later line for the same output file replaces an earlier
+ * one, and a truncated last line (from a killed run) is ignored. A page is done
+ * if its line matches the input file and settings and the output file still has
+ * the recorded hash; otherwise it is converted again.
+ *
+ * @author pm286
+ *
+ */
+class ConversionCheckpoint {
+
+	private final static Logger LOG = Logger.getLogger(ConversionCheckpoint.class);
+
+	public static final String CHECKPOINT_FILE = "pdf2svgCheckpoint.tsv";
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+	private static final int HASH_LENGTH = 40;
+	private static final String ENCODING = "UTF-8";
+	private static final String TAB = "\t";
+	private static final int FIELDS = 5;
+
+	private File file;
+	private Map<String, String[]> fieldsByOutputNameMap;
+	private Writer writer;
+
+	/** reads the checkpoint in directory (if any)
+	 *
+	 * @param directory
+	 */
+	ConversionCheckpoint(File directory) {
+		file = new File(directory, CHECKPOINT_FILE);
+		fieldsByOutputNameMap = new HashMap<String, String[]>();
+		if (file.exists()) {
+			read();
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/** number of pages recorded
+	 *
+	 * @return
+	 */
+	synchronized int size() {
+		return fieldsByOutputNameMap.size();
+	}
+
+	/** whether outfile was written from this input and page with these settings and is unchanged
+	 *
+	 * @param outfile
+	 * @param inputHash
+	 * @param pageNumber
+	 * @param settingsHash
+	 * @return
+	 */
+	synchronized boolean isDone(File outfile, String inputHash, int pageNumber, String settingsHash) {
+		String[] fields = fieldsByOutputNameMap.get(outfile.getName());
+		if (fields == null ||
+				!fields[1].equals(inputHash) ||
+				!fields[2].equals(String.valueOf(pageNumber)) ||
+				!fields[3].equals(settingsHash) ||
+				!outfile.isFile()) {
+			return false;
+		}
+		boolean valid = fields[4].equals(hash(outfile));
+		if (!valid) {
+			LOG.debug("stale output: "+outfile);
+		}
+		return valid;
+	}
+
+	/** appends a line for a page file that is complete
+	 *
+	 * @param outfile
+	 * @param inputHash
+	 * @param pageNumber
+	 * @param settingsHash
+	 * @param outputHash
+	 */
+	synchronized void record(File outfile, String inputHash, int pageNumber, String settingsHash, String outputHash) {
+		String[] fields = new String[]{outfile.getName(), inputHash, String.valueOf(pageNumber), settingsHash, outputHash};
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < FIELDS; i++) {
+			sb.append(i == 0 ? "" : TAB).append(fields[i]);
+		}
+		sb.append("\n");
+		try {
+			ensureWriter().write(sb.toString());
+			writer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write checkpoint "+file, e);
+		}
+		fieldsByOutputNameMap.put(fields[0], fields);
+	}
+
+	synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				LOG.warn("Cannot close checkpoint "+file+": "+e);
+			}
+			writer = null;
+		}
+	}
+
+	static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("No "+HASH_ALGORITHM, e);
+		}
+	}
+
+	/** hex hash of the file contents
+	 *
+	 * @param file
+	 * @return
+	 */
+	static String hash(File file) {
+		MessageDigest digest = createDigest();
+		byte[] buffer = new byte[8192];
+		try {
+			InputStream is = new BufferedInputStream(new FileInputStream(file));
+			try {
+				int n;
+				while ((n = is.read(buffer)) != -1) {
+					digest.update(buffer, 0, n);
+				}
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot hash "+file, e);
+		}
+		return toHex(digest.digest());
+	}
+
+	static String hash(String s) {
+		try {
+			return toHex(createDigest().digest(s.getBytes(ENCODING)));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot hash "+s, e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	private void read() {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(TAB);
+					if (fields.length != FIELDS ||
+							fields[1].length() != HASH_LENGTH ||
+							fields[3].length() != HASH_LENGTH ||
+							fields[4].length() != HASH_LENGTH) {
+						LOG.debug("ignored checkpoint line: "+line);
+						continue;
+					}
+					fieldsByOutputNameMap.put(fields[0], fields);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read checkpoint "+file, e);
+		}
+	}
+
+	private Writer ensureWriter() throws IOException {
+		if (writer == null) {
+			// a killed run may have left a partial line without a newline
+			boolean newline = file.length() > 0 && !endsWithNewline();
+			writer = new OutputStreamWriter(new FileOutputStream(file, true), ENCODING);
+			if (newline) {
+				writer.write("\n");
+			}
+		}
+		return writer;
+	}
+
+	private boolean endsWithNewline() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(file.length() - 1);
+			return raf.read() == '\n';
+		} finally {
+			raf.close();
+		}
+	}
+}
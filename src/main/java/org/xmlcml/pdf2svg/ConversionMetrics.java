@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/** times and counts for the stages of a conversion, for one page or one document.
+ *
+ * Each PDFPage2SVGConverter fills a new page ConversionMetrics for every page
+ * (only System.nanoTime() and array arithmetic; no locking). PDF2SVGConverter adds
+ * the completed pages to the document ConversionMetrics, which also holds PDF parsing.
+ * The timings of FONT, CLIP_PATH and IMAGE are included in DRAW_PAGE. A document
+ * also adds to IMAGE the wait for background image encoding at its end. OUTPUT (time
+ * in the OutputSink, including compression) is included in SERIALIZE; BYTES_WRITTEN
+ * is after and BYTES_SERIALIZED before compression.
+ *
+ * Exported with toJSON() or toPrometheus() (document totals and, for JSON, each page).
+ *
+ * @author pm286
+ *
+ */
+public class ConversionMetrics {
+
+	public enum Stage {
+		PARSE("parse"),
+		DRAW_PAGE("drawPage"),
+		FONT("font"),
+		CLIP_PATH("clipPath"),
+		IMAGE("image"),
+		SERIALIZE("serialize"),
+		OUTPUT("output"),
+		;
+		private String name;
+		private Stage(String name) {
+			this.name = name;
+		}
+		public String getName() {
+			return name;
+		}
+	}
+
+	public enum Counter {
+		PAGES("pages"),
+		GLYPHS("glyphs"),
+		PATHS("paths"),
+		IMAGES("images"),
+		BYTES_WRITTEN("bytesWritten"),
+		BYTES_SERIALIZED("bytesSerialized"),
+		;
+		private String name;
+		private Counter(String name) {
+			this.name = name;
+		}
+		public String getName() {
+			return name;
+		}
+	}
+
+	public static final String PROMETHEUS_PREFIX = "pdf2svg_";
+
+	private static final double NANOS_PER_SECOND = 1.0e9;
+
+	private String documentName;
+	private int pageNumber;
+	private long[] nanos;
+	private long[] counts;
+	private List<ConversionMetrics> pageMetricsList;
+
+	/** metrics for a document
+	 *
+	 * @param documentName
+	 */
+	public ConversionMetrics(String documentName) {
+		this.documentName = documentName;
+		init();
+		pageMetricsList = new ArrayList<ConversionMetrics>();
+	}
+
+	/** metrics for a page
+	 *
+	 * @param pageNumber
+	 */
+	public ConversionMetrics(int pageNumber) {
+		this.pageNumber = pageNumber;
+		init();
+	}
+
+	private void init() {
+		nanos = new long[Stage.values().length];
+		counts = new long[Counter.values().length];
+	}
+
+	/** adds elapsed time (usually System.nanoTime() - start)
+	 *
+	 * @param stage
+	 * @param elapsedNanos
+	 */
+	public void addTime(Stage stage, long elapsedNanos) {
+		nanos[stage.ordinal()] += elapsedNanos;
+	}
+
+	public void increment(Counter counter) {
+		counts[counter.ordinal()]++;
+	}
+
+	public void add(Counter counter, long n) {
+		counts[counter.ordinal()] += n;
+	}
+
+	public long getNanos(Stage stage) {
+		return nanos[stage.ordinal()];
+	}
+
+	public long getCount(Counter counter) {
+		return counts[counter.ordinal()];
+	}
+
+	public String getDocumentName() {
+		return documentName;
+	}
+
+	/**
+	 * @return 0 for a document
+	 */
+	public int getPageNumber() {
+		return pageNumber;
+	}
+
+	/** adds a completed page to this (document) and its totals; counts a page
+	 *
+	 * pages are kept in page number order whatever order they are added in
+	 * @param pageMetrics must not be altered afterwards
+	 */
+	public void addPage(ConversionMetrics pageMetrics) {
+		if (pageMetricsList == null) {
+			throw new RuntimeException("can only add pages to document metrics");
+		}
+		int index = pageMetricsList.size();
+		while (index > 0 && pageMetricsList.get(index - 1).pageNumber > pageMetrics.pageNumber) {
+			index--;
+		}
+		pageMetricsList.add(index, pageMetrics);
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] += pageMetrics.nanos[i];
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += pageMetrics.counts[i];
+		}
+		increment(Counter.PAGES);
+	}
+
+	/**
+	 * @return pages in page number order (empty for a page)
+	 */
+	public List<ConversionMetrics> getPageMetricsList() {
+		return pageMetricsList == null ? Collections.<ConversionMetrics>emptyList() :
+			Collections.unmodifiableList(pageMetricsList);
+	}
+
+	/** JSON object; times are in nanoseconds; a document includes its pages in "pageMetrics"
+	 *
+	 * @return
+	 */
+	public String toJSON() {
+		StringBuilder sb = new StringBuilder();
+		appendJSON(sb);
+		return sb.toString();
+	}
+
+	private void appendJSON(StringBuilder sb) {
+		sb.append("{");
+		if (pageMetricsList != null) {
+			sb.append("\"document\":");
+			appendJSONString(sb, documentName);
+		} else {
+			sb.append("\"page\":").append(pageNumber);
+		}
+		sb.append(",\"nanos\":{");
+		for (Stage stage : Stage.values()) {
+			if (stage.ordinal() > 0) {
+				sb.append(",");
+			}
+			sb.append("\"").append(stage.getName()).append("\":").append(getNanos(stage));
+		}
+		sb.append("},\"counts\":{");
+		for (Counter counter : Counter.values()) {
+			if (counter.ordinal() > 0) {
+				sb.append(",");
+			}
+			sb.append("\"").append(counter.getName()).append("\":").append(getCount(counter));
+		}
+		sb.append("}");
+		if (pageMetricsList != null) {
+			sb.append(",\"pageMetrics\":[");
+			for (int i = 0; i < pageMetricsList.size(); i++) {
+				if (i > 0) {
+					sb.append(",");
+				}
+				sb.append("\n");
+				pageMetricsList.get(i).appendJSON(sb);
+			}
+			sb.append("]");
+		}
+		sb.append("}");
+	}
+
+	private static void appendJSONString(StringBuilder sb, String s) {
+		if (s == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append("\"");
+	}
+
+	/** Prometheus text exposition format (0.0.4) of the totals, labelled with the document name.
+	 *
+	 * times are pdf2svg_stage_seconds_total{stage="..."}; counters are pdf2svg_<counter>_total
+	 * @return
+	 */
+	public String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		String label = "document=\""+escapePrometheusLabel(documentName == null ? "" : documentName)+"\"";
+		String stageSeconds = PROMETHEUS_PREFIX+"stage_seconds_total";
+		sb.append("# HELP "+stageSeconds+" Time spent in each conversion stage.\n");
+		sb.append("# TYPE "+stageSeconds+" counter\n");
+		for (Stage stage : Stage.values()) {
+			sb.append(stageSeconds+"{"+label+",stage=\""+stage.getName()+"\"} ");
+			sb.append(String.format(Locale.ROOT, "%.9f", getNanos(stage) / NANOS_PER_SECOND)).append("\n");
+		}
+		for (Counter counter : Counter.values()) {
+			String metric = PROMETHEUS_PREFIX+toSnakeCase(counter.getName())+"_total";
+			sb.append("# TYPE "+metric+" counter\n");
+			sb.append(metric+"{"+label+"} "+getCount(counter)+"\n");
+		}
+		return sb.toString();
+	}
+
+	private static String toSnakeCase(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				sb.append('_').append(Character.toLowerCase(c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String escapePrometheusLabel(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+}
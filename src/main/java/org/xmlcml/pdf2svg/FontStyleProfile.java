@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.font.NonStandardFontFamily;
+import org.xmlcml.graphics.svg.GraphicsElement.FontWeight;
+
+/** the styles of an AMIFont which PDFPage2SVGConverter writes on every glyph.
+ *
+ * They depend only on the font (descriptor flags, weight and italic angle, the
+ * font name heuristics and its NonStandardFontFamily) so they are worked out once,
+ * by AMIFont.getStyleProfile(), and the glyphs only read the fields. Immutable.
+ *
+ * @author pm286
+ *
+ */
+public class FontStyleProfile {
+
+	private final static Logger LOG = Logger.getLogger(FontStyleProfile.class);
+
+	/** PDF weights are 100, 200 ... 900 */
+	static final float BOLD_FONT_MIN = 410;
+	static final float ITALIC_ANGLE_MIN = 0.001f;
+
+	private final NonStandardFontFamily nonStandardFontFamily;
+	private final FontWeight fontWeight;
+	private final boolean italic;
+	private final boolean fixedPitch;
+	private final boolean serif;
+	private final String standardFontFamily;
+
+	FontStyleProfile(AMIFont amiFont, NonStandardFontFamily nonStandardFontFamily) {
+		this.nonStandardFontFamily = nonStandardFontFamily;
+		this.fontWeight = computeFontWeight(amiFont, nonStandardFontFamily);
+		this.italic = isTrue(amiFont.isItalic()) ||
+				(amiFont.getItalicAngle() != null && amiFont.getItalicAngle() > ITALIC_ANGLE_MIN) ||
+				(amiFont.getFontName() != null && amiFont.isHeuristicItalic());
+		this.fixedPitch = isTrue(amiFont.isFixedPitch()) ||
+				(amiFont.getFontName() != null && amiFont.getFontFamilyName() != null && amiFont.isHeuristicFixedPitch());
+		this.serif = isTrue(amiFont.isSerif());
+		if (fixedPitch) {
+			standardFontFamily = NonStandardFontFamily.DEFAULT_MONOSPACED_FONT;
+		} else if (serif) {
+			standardFontFamily = NonStandardFontFamily.DEFAULT_SERIF_FONT;
+		} else {
+			standardFontFamily = NonStandardFontFamily.DEFAULT_SANS_SERIF_FONT;
+		}
+		LOG.trace(amiFont.getFontName()+": "+this);
+	}
+
+	private static FontWeight computeFontWeight(AMIFont amiFont, NonStandardFontFamily nonStandardFontFamily) {
+		Float weight = amiFont.getFontWeightFloat();
+		if (weight != null && weight > 0.0) {
+			LOG.trace("WEIGHT "+weight);
+		}
+		boolean bold = (weight != null && weight > BOLD_FONT_MIN) ||
+				(nonStandardFontFamily != null && isTrue(nonStandardFontFamily.isForceBold())) ||
+				(amiFont.getFontName() != null && amiFont.isHeuristicBold());
+		return bold ? FontWeight.BOLD : FontWeight.NORMAL;
+	}
+
+	private static boolean isTrue(Boolean b) {
+		return b != null && b;
+	}
+
+	/** family from the NonStandardFontManager (null if not known)
+	 *
+	 * @return
+	 */
+	public NonStandardFontFamily getNonStandardFontFamily() {
+		return nonStandardFontFamily;
+	}
+
+	/** BOLD from the weight, the family's forceBold or the font name
+	 *
+	 * @return
+	 */
+	public FontWeight getFontWeight() {
+		return fontWeight;
+	}
+
+	/** from the descriptor flag, the italic angle or the font name
+	 *
+	 * @return
+	 */
+	public boolean isItalic() {
+		return italic;
+	}
+
+	/** from the descriptor flag or the font name
+	 *
+	 * @return
+	 */
+	public boolean isFixedPitch() {
+		return fixedPitch;
+	}
+
+	public boolean isSerif() {
+		return serif;
+	}
+
+	/** the standard font used in place of the font: monospaced, serif or sans-serif
+	 *
+	 * @return
+	 */
+	public String getStandardFontFamily() {
+		return standardFontFamily;
+	}
+
+	@Override
+	public String toString() {
+		return "weight: "+fontWeight+"; italic: "+italic+"; fixedPitch: "+fixedPitch+"; serif: "+serif+
+				"; standard font: "+standardFontFamily;
+	}
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptorDictionary;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+/** persistent store of glyph outlines (SVG path strings) captured with -logglyphs.
+ *
+ * Outlines are keyed by a digest of the embedded font program (and the encoding
+ * that maps codes to its glyphs) plus the charname or code, so the same glyph of
+ * the same font is only drawn once across documents and runs.
+ *
+ * The store is one append-only file (glyphOutlines.dat) in the cache directory:
+ * MAGIC then records of (key length, value length, UTF-8 key, UTF-8 value).
+ * It is memory-mapped for reading and indexed when opened. Appends take an
+ * exclusive FileLock and first index any records added by other processes, so
+ * several processes can share the directory; a truncated record (from a killed
+ * writer) is cut off by the next writer. Recently used outlines are also kept
+ * decoded in memory, least recently used dropped beyond maxEntries.
+ *
+ * Instances are shared per directory (getInstance()) and are threadsafe.
+ *
+ * @author pm286
+ *
+ */
+public class GlyphOutlineCache {
+
+	private final static Logger LOG = Logger.getLogger(GlyphOutlineCache.class);
+
+	public static final String STORE_FILE = "glyphOutlines.dat";
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	static final int MAGIC = 0x474f4331; // "GOC1"
+	private static final int HEADER_LENGTH = 4;
+	private static final int RECORD_HEADER_LENGTH = 8;
+	private static final String ENCODING = "UTF-8";
+	private static final String SEPARATOR = "/";
+
+	private static Map<String, GlyphOutlineCache> cacheByPathMap = new HashMap<String, GlyphOutlineCache>();
+
+	private File file;
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private MappedByteBuffer mappedBuffer;
+	// end of the last complete record indexed
+	private long indexedLength;
+	// key -> {offset, length} of the value in the file
+	private Map<String, long[]> valuePositionByKeyMap;
+	private LinkedHashMap<String, String> outlineByKeyMap;
+	private int maxEntries;
+	private long hits;
+	private long misses;
+
+	/** the cache for directory, opened on the first call
+	 *
+	 * @param directory created if necessary
+	 * @return
+	 */
+	public static GlyphOutlineCache getInstance(File directory) {
+		String path = directory.getAbsolutePath();
+		synchronized (cacheByPathMap) {
+			GlyphOutlineCache cache = cacheByPathMap.get(path);
+			if (cache == null) {
+				cache = new GlyphOutlineCache(directory, DEFAULT_MAX_ENTRIES);
+				cacheByPathMap.put(path, cache);
+			}
+			return cache;
+		}
+	}
+
+	GlyphOutlineCache(File directory, int maxEntries) {
+		directory.mkdirs();
+		file = new File(directory, STORE_FILE);
+		valuePositionByKeyMap = new HashMap<String, long[]>();
+		setMaxEntries(maxEntries);
+		try {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				if (channel.size() == 0) {
+					randomAccessFile.writeInt(MAGIC);
+				}
+				map();
+				if (mappedBuffer.getInt(0) != MAGIC) {
+					throw new RuntimeException("Not a glyph outline store: "+file);
+				}
+				indexedLength = HEADER_LENGTH;
+				index();
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot open glyph outline store "+file, e);
+		}
+		LOG.debug("glyph outlines "+file+": "+valuePositionByKeyMap.size());
+	}
+
+	/** number of decoded outlines kept in memory
+	 *
+	 * @param maxEntries
+	 */
+	public synchronized void setMaxEntries(final int maxEntries) {
+		if (maxEntries < 1) {
+			throw new RuntimeException("maxEntries must be >= 1; found: "+maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		LinkedHashMap<String, String> oldMap = outlineByKeyMap;
+		outlineByKeyMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > GlyphOutlineCache.this.maxEntries;
+			}
+		};
+		if (oldMap != null) {
+			outlineByKeyMap.putAll(oldMap);
+		}
+	}
+
+	/** key of the outline of a glyph
+	 *
+	 * @param fontKey from createFontKey()
+	 * @param charKey charname or code
+	 * @return
+	 */
+	public static String createKey(String fontKey, String charKey) {
+		return fontKey + SEPARATOR + charKey;
+	}
+
+	/** digest of the font program and the encoding of pdFont.
+	 *
+	 * Fonts which are not embedded are identified by subtype, base font and encoding.
+	 * @param pdFont
+	 * @param streamDigestMap digests of streams seen in the document (see COSDigest)
+	 * @return null for fonts without a program (Type3)
+	 */
+	public static String createFontKey(PDFont pdFont, Map<COSStream, byte[]> streamDigestMap) {
+		COSDictionary fontDictionary = (COSDictionary) pdFont.getCOSObject();
+		PDFont descriptorFont = pdFont;
+		COSDictionary descendantDictionary = null;
+		if (pdFont instanceof PDType0Font && ((PDType0Font) pdFont).getDescendantFont() != null) {
+			descriptorFont = ((PDType0Font) pdFont).getDescendantFont();
+			descendantDictionary = (COSDictionary) descriptorFont.getCOSObject();
+		}
+		PDStream fontFile = getFontFile(descriptorFont.getFontDescriptor());
+		if (fontFile == null && COSName.TYPE3.getName().equals(pdFont.getSubType())) {
+			return null;
+		}
+		MessageDigest digest = ConversionCheckpoint.createDigest();
+		try {
+			COSDigest.update(digest, fontDictionary.getItem(COSName.ENCODING), streamDigestMap);
+			if (descendantDictionary != null) {
+				COSDigest.update(digest, descendantDictionary.getItem(COSName.CID_TO_GID_MAP), streamDigestMap);
+			}
+			if (fontFile == null) {
+				COSDigest.update(digest, fontDictionary.getItem(COSName.SUBTYPE), streamDigestMap);
+				COSDigest.update(digest, fontDictionary.getItem(COSName.BASE_FONT), streamDigestMap);
+			} else {
+				COSDigest.update(digest, fontFile.getStream(), streamDigestMap);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create font key", e);
+		}
+		return ConversionCheckpoint.toHex(digest.digest());
+	}
+
+	/** outline stored under key or null
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized String get(String key) {
+		String outline = outlineByKeyMap.get(key);
+		if (outline == null) {
+			long[] position = valuePositionByKeyMap.get(key);
+			if (position != null) {
+				outline = decode(position[0], (int) position[1]);
+				outlineByKeyMap.put(key, outline);
+			}
+		}
+		if (outline == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return outline;
+	}
+
+	/** stores the outline unless key is already stored (by this or another process)
+	 *
+	 * @param key
+	 * @param outline
+	 */
+	public synchronized void put(String key, String outline) {
+		if (valuePositionByKeyMap.containsKey(key)) {
+			return;
+		}
+		try {
+			byte[] keyBytes = key.getBytes(ENCODING);
+			byte[] valueBytes = outline.getBytes(ENCODING);
+			FileLock lock = channel.lock();
+			try {
+				map();
+				index();
+				if (!valuePositionByKeyMap.containsKey(key)) {
+					append(keyBytes, valueBytes);
+				}
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			LOG.warn("Cannot store glyph outline: "+e);
+		}
+		outlineByKeyMap.put(key, outline);
+	}
+
+	/** number of outlines in the store
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return valuePositionByKeyMap.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/** closes the file; the instance cannot be used afterwards
+	 *
+	 */
+	synchronized void close() {
+		try {
+			channel.close();
+			randomAccessFile.close();
+		} catch (IOException e) {
+			LOG.warn("Cannot close "+file+": "+e);
+		}
+		mappedBuffer = null;
+		synchronized (cacheByPathMap) {
+			cacheByPathMap.values().remove(this);
+		}
+	}
+
+	private static PDStream getFontFile(PDFontDescriptor fontDescriptor) {
+		if (!(fontDescriptor instanceof PDFontDescriptorDictionary)) {
+			return null;
+		}
+		PDFontDescriptorDictionary descriptor = (PDFontDescriptorDictionary) fontDescriptor;
+		PDStream fontFile = descriptor.getFontFile();
+		if (fontFile == null) {
+			fontFile = descriptor.getFontFile2();
+		}
+		if (fontFile == null) {
+			fontFile = descriptor.getFontFile3();
+		}
+		return fontFile;
+	}
+
+	/** maps the whole file if it has grown since it was last mapped
+	 *
+	 */
+	private void map() throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("glyph outline store too large: "+file);
+		}
+		if (mappedBuffer == null || mappedBuffer.capacity() != size) {
+			mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/** indexes complete records after indexedLength
+	 *
+	 */
+	private void index() throws IOException {
+		ByteBuffer buffer = mappedBuffer.duplicate();
+		int limit = buffer.capacity();
+		int offset = (int) indexedLength;
+		while (offset + RECORD_HEADER_LENGTH <= limit) {
+			int keyLength = buffer.getInt(offset);
+			int valueLength = buffer.getInt(offset + 4);
+			int end = offset + RECORD_HEADER_LENGTH + keyLength + valueLength;
+			if (keyLength <= 0 || valueLength < 0 || end > limit || end < offset) {
+				break;
+			}
+			byte[] keyBytes = new byte[keyLength];
+			buffer.position(offset + RECORD_HEADER_LENGTH);
+			buffer.get(keyBytes);
+			long[] position = new long[]{offset + RECORD_HEADER_LENGTH + keyLength, valueLength};
+			valuePositionByKeyMap.put(new String(keyBytes, ENCODING), position);
+			offset = end;
+		}
+		indexedLength = offset;
+	}
+
+	/** appends a record after the last complete one (called with the lock held)
+	 *
+	 */
+	private void append(byte[] keyBytes, byte[] valueBytes) throws IOException {
+		if (channel.size() > indexedLength) {
+			LOG.debug("truncating incomplete record in "+file);
+			channel.truncate(indexedLength);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_LENGTH + keyBytes.length + valueBytes.length);
+		buffer.putInt(keyBytes.length);
+		buffer.putInt(valueBytes.length);
+		buffer.put(keyBytes);
+		buffer.put(valueBytes);
+		buffer.flip();
+		long offset = indexedLength;
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+		map();
+		index();
+	}
+
+	private String decode(long offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer buffer = mappedBuffer.duplicate();
+		buffer.position((int) offset);
+		buffer.get(bytes);
+		try {
+			return new String(bytes, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "glyph outlines: "+hits+" hits, "+misses+" misses, "+valuePositionByKeyMap.size()+" stored";
+	}
+}
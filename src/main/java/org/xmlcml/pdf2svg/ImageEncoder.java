@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.graphics.svg.util.ImageIOUtil;
+
+/** encodes and writes the images which are referenced (not inlined) from the SVG pages.
+ *
+ * With threadCount > 0 images are encoded on background threads. At most
+ * QUEUE_PER_THREAD images per thread wait in the queue; beyond that the page
+ * thread encodes the image itself, so memory is bounded and a page is never
+ * far ahead of its images. The filename is chosen before the image is queued
+ * so the SVG does not depend on the order in which images are written.
+ * flush() waits for all queued images (PDF2SVGConverter calls it at the end
+ * of each PDF). With threadCount 0 images are written immediately as before.
+ *
+ * One ImageEncoder is shared by all the page threads of a PDF2SVGConverter.
+ *
+ * @author pm286
+ *
+ */
+public class ImageEncoder {
+
+	private final static Logger LOG = Logger.getLogger(ImageEncoder.class);
+
+	public static final String PNG = "png";
+	public static final String JPG = "jpg";
+	public static final String BMP = "bmp";
+
+	public static final int DEFAULT_THREAD_COUNT = 1;
+	static final int QUEUE_PER_THREAD = 4;
+
+	private String format;
+	private Float quality;
+	private int threadCount;
+	private ThreadPoolExecutor executor;
+	private AtomicInteger imageCount = new AtomicInteger();
+	private AtomicInteger failureCount = new AtomicInteger();
+	// the quality is only reported once if the writer cannot use it
+	private AtomicBoolean qualityIgnored = new AtomicBoolean();
+
+	/**
+	 * @param format PNG, JPG or BMP
+	 * @param quality compression quality 0.0 (smallest) to 1.0 (best/fastest) if the
+	 * format supports it (a warning is logged if the ImageIO writer cannot compress,
+	 * e.g. the PNG writer before Java 9); null for the default
+	 * @param threadCount background threads (0 writes images immediately)
+	 */
+	public ImageEncoder(String format, Float quality, int threadCount) {
+		if (!PNG.equals(format) && !JPG.equals(format) && !BMP.equals(format)) {
+			throw new RuntimeException("image format must be "+PNG+", "+JPG+" or "+BMP+"; found: "+format);
+		}
+		if (quality != null && (quality < 0.0f || quality > 1.0f)) {
+			throw new RuntimeException("image quality must be between 0.0 and 1.0; found: "+quality);
+		}
+		if (threadCount < 0) {
+			throw new RuntimeException("image threads must be >= 0; found: "+threadCount);
+		}
+		this.format = format;
+		this.quality = quality;
+		this.threadCount = threadCount;
+	}
+
+	/** filename suffix (without the dot)
+	 *
+	 * @return
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	public Float getQuality() {
+		return quality;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/** writes the image to file now or on a background thread.
+	 *
+	 * @param image must not be altered afterwards
+	 * @param file
+	 */
+	public void encode(final BufferedImage image, final File file) {
+		imageCount.incrementAndGet();
+		if (threadCount == 0) {
+			writeImage(image, file);
+		} else {
+			ensureExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					writeImage(image, file);
+				}
+			});
+		}
+	}
+
+	/** writes the image to a file or entry of the sink now or on a background thread.
+	 *
+	 * @param image must not be altered afterwards
+	 * @param sink
+	 * @param name relative to the output directory
+	 */
+	public void encode(final BufferedImage image, final OutputSink sink, final String name) {
+		imageCount.incrementAndGet();
+		if (threadCount == 0) {
+			writeImage(image, sink, name);
+		} else {
+			ensureExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					writeImage(image, sink, name);
+				}
+			});
+		}
+	}
+
+	/** waits until all images have been written; the threads are stopped and
+	 * restarted by the next encode()
+	 *
+	 */
+	public void flush() {
+		ThreadPoolExecutor executor0;
+		synchronized (this) {
+			executor0 = executor;
+			executor = null;
+		}
+		if (executor0 != null) {
+			executor0.shutdown();
+			try {
+				while (!executor0.awaitTermination(10, TimeUnit.SECONDS)) {
+					LOG.debug("waiting for "+executor0.getQueue().size()+" queued images");
+				}
+			} catch (InterruptedException e) {
+				executor0.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while writing images", e);
+			}
+		}
+	}
+
+	/**
+	 * @return images passed to encode()
+	 */
+	public int getImageCount() {
+		return imageCount.get();
+	}
+
+	/**
+	 * @return images which could not be written (errors are logged)
+	 */
+	public int getFailureCount() {
+		return failureCount.get();
+	}
+
+	private synchronized ThreadPoolExecutor ensureExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(QUEUE_PER_THREAD * threadCount),
+					new ThreadFactory() {
+						private int count = 0;
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "pdf2svg-image-"+(++count));
+							thread.setDaemon(true);
+							return thread;
+						}
+					},
+					// backpressure: the page thread encodes the image itself when the queue is full
+					new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+		return executor;
+	}
+
+	void writeImage(BufferedImage image, File file) {
+		try {
+			if (PNG.equals(format) && quality == null) {
+				if (!ImageIOUtil.writeImageQuietly(image, file)) {
+					failureCount.incrementAndGet();
+				}
+			} else {
+				writeImageWithImageIO(image, file);
+			}
+		} catch (Exception e) {
+			failureCount.incrementAndGet();
+			LOG.error("Cannot write image "+file+": "+e);
+		}
+	}
+
+	void writeImage(BufferedImage image, OutputSink sink, String name) {
+		try {
+			OutputSink.SinkOutputStream os = sink.openStream(name, null);
+			try {
+				writeImageWithImageIO(image, os);
+				os.commit();
+			} finally {
+				os.close();
+			}
+		} catch (Exception e) {
+			failureCount.incrementAndGet();
+			LOG.error("Cannot write image "+name+": "+e);
+		}
+	}
+
+	/**
+	 * @param image
+	 * @param output File or OutputStream
+	 * @throws IOException
+	 */
+	private void writeImageWithImageIO(BufferedImage image, Object output) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new RuntimeException("No ImageIO writer for "+format);
+		}
+		ImageWriter writer = writers.next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (quality != null && param.canWriteCompressed()) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			if (param.getCompressionType() == null) {
+				param.setCompressionType(param.getCompressionTypes()[0]);
+			}
+			param.setCompressionQuality(quality);
+		} else if (quality != null && qualityIgnored.compareAndSet(false, true)) {
+			LOG.warn("image quality "+quality+" ignored; the ImageIO "+format+" writer cannot compress");
+		}
+		// JPEG has no alpha channel
+		BufferedImage image0 = (JPG.equals(format) && image.getColorModel().hasAlpha()) ? removeAlpha(image) : image;
+		if (output instanceof File && ((File) output).exists()) {
+			((File) output).delete();
+		}
+		// createImageOutputStream() would cache a stream in a temporary file
+		ImageOutputStream ios = (output instanceof OutputStream) ?
+				new MemoryCacheImageOutputStream((OutputStream) output) : ImageIO.createImageOutputStream(output);
+		try {
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(image0, null, null), param);
+		} finally {
+			writer.dispose();
+			ios.close();
+		}
+	}
+
+	private static BufferedImage removeAlpha(BufferedImage image) {
+		BufferedImage rgbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		rgbImage.getGraphics().drawImage(image, 0, 0, Color.WHITE, null);
+		return rgbImage;
+	}
+}
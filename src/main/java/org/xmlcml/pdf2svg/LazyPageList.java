@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.AbstractList;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/** pages of a document found in the page tree only when asked for.
+ *
+ * getAllPages() creates every PDPage (and with the non-sequential parser reads
+ * every page dictionary) before the first page is converted. This walks only the
+ * path from the root to the requested page, using /Count to skip other subtrees,
+ * and keeps nothing so each PDPage can be garbage collected after its conversion.
+ *
+ * @author pm286
+ *
+ */
+class LazyPageList extends AbstractList<PDPage> {
+
+	private PDDocument document;
+	private int size;
+
+	LazyPageList(PDDocument document) {
+		this.document = document;
+		this.size = document.getNumberOfPages();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index 0-based
+	 */
+	@Override
+	public PDPage get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("page index "+index+" in "+size+" pages");
+		}
+		COSDictionary node = document.getDocumentCatalog().getPages().getDictionary();
+		int remaining = index;
+		while (true) {
+			COSArray kids = (COSArray) node.getDictionaryObject(COSName.KIDS);
+			if (kids == null) {
+				throw new RuntimeException("Page tree node without /Kids looking for page "+(index + 1));
+			}
+			COSDictionary next = null;
+			for (int i = 0; i < kids.size() && next == null; i++) {
+				COSBase kidObject = kids.getObject(i);
+				if (!(kidObject instanceof COSDictionary)) {
+					continue;
+				}
+				COSDictionary kid = (COSDictionary) kidObject;
+				if (isPageTreeNode(kid)) {
+					int count = kid.getInt(COSName.COUNT, 0);
+					if (remaining < count) {
+						next = kid;
+					} else {
+						remaining -= count;
+					}
+				} else if (remaining == 0) {
+					return new PDPage(kid);
+				} else {
+					remaining--;
+				}
+			}
+			if (next == null) {
+				throw new RuntimeException("Page tree /Count is wrong; cannot find page "+(index + 1));
+			}
+			node = next;
+		}
+	}
+
+	private static boolean isPageTreeNode(COSDictionary dictionary) {
+		return COSName.PAGES.equals(dictionary.getDictionaryObject(COSName.TYPE)) ||
+				dictionary.containsKey(COSName.KIDS);
+	}
+}
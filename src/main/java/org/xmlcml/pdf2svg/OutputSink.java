@@ -0,0 +1,622 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import nu.xom.Builder;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+/** where the files of a converted document (pages, images, metrics) are written (-output).
+ *
+ * DIR writes each file into the output directory as before. SVGZ also writes into
+ * the directory but gzips the pages (foo-page1.svgz). ZIP writes everything for a
+ * document into one basename.zip in the output directory (images under images/),
+ * deflating all entries except already compressed images.
+ *
+ * Names are relative to the output directory and use / as separator. A stream from
+ * openStream() is buffered and only appears under its name when it is committed
+ * (a .part file is renamed, or the entry is added to the archive) after the whole
+ * file has been written. Closing a stream that was not committed aborts it, so a
+ * failed or interrupted write never leaves a truncated file. Likewise the ZIP archive
+ * is only published by close() once the document has finished; abort() deletes it.
+ * Streams may be opened from several threads; ZIP entries are held in memory until
+ * they are committed.
+ *
+ * Each sink counts the bytes given to it, the bytes stored and the time spent in
+ * its streams (including compression).
+ *
+ * @author pm286
+ *
+ */
+public abstract class OutputSink {
+
+	private final static Logger LOG = Logger.getLogger(OutputSink.class);
+
+	public static final String DIR = "dir";
+	public static final String SVGZ = "svgz";
+	public static final String ZIP = "zip";
+
+	public static final String SVG_SUFFIX = ".svg";
+	public static final String SVGZ_SUFFIX = ".svgz";
+	public static final String ZIP_SUFFIX = ".zip";
+	public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	static final int BUFFER_SIZE = 64 * 1024;
+	private static final String PART = ".part";
+
+	protected File outdir;
+	protected String basename;
+	protected int level;
+
+	private AtomicLong bytesIn = new AtomicLong();
+	private AtomicLong bytesStored = new AtomicLong();
+	private AtomicLong nanos = new AtomicLong();
+	private AtomicLong entryCount = new AtomicLong();
+
+	/**
+	 * @param type DIR, SVGZ or ZIP
+	 * @param level deflate level 0 (store) to 9 (smallest), or DEFAULT_LEVEL; not used by DIR
+	 * @return
+	 */
+	public static OutputSink create(String type, int level) {
+		if (level != DEFAULT_LEVEL && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new RuntimeException("compression level must be between 0 and 9; found: "+level);
+		}
+		OutputSink sink;
+		if (DIR.equals(type)) {
+			sink = new DirectorySink();
+		} else if (SVGZ.equals(type)) {
+			sink = new SVGZSink();
+		} else if (ZIP.equals(type)) {
+			sink = new ZipSink();
+		} else {
+			throw new RuntimeException("output must be "+DIR+", "+SVGZ+" or "+ZIP+"; found: "+type);
+		}
+		sink.level = level;
+		return sink;
+	}
+
+	/** starts the output of a document
+	 *
+	 * @param outdir existing directory
+	 * @param basename of the input file
+	 */
+	public void open(File outdir, String basename) {
+		this.outdir = outdir;
+		this.basename = basename;
+	}
+
+	/** completes the output of the document; streams must have been closed
+	 *
+	 */
+	public void close() {
+		LOG.debug(this);
+	}
+
+	/** abandons the output of a document that failed or was interrupted.
+	 *
+	 * files already committed to a directory are kept; an unfinished archive is deleted
+	 */
+	public void abort() {
+		LOG.debug("aborted "+this);
+	}
+
+	/** DIR, SVGZ or ZIP
+	 *
+	 * @return
+	 */
+	public abstract String getType();
+
+	/** suffix of page names (.svg or .svgz)
+	 *
+	 * @return
+	 */
+	public String getPageSuffix() {
+		return SVG_SUFFIX;
+	}
+
+	/** whether the files are written as files in the output directory (and so can be
+	 * found by a checkpoint or MenuSystem)
+	 *
+	 * @return
+	 */
+	public boolean isDirectory() {
+		return true;
+	}
+
+	/** a stream for the file or entry called name
+	 *
+	 * @param name relative to the output directory
+	 * @param digest if not null, is updated with the bytes of the file (or of the uncompressed entry for ZIP)
+	 * @return must be committed when complete and then closed (in finally)
+	 * @throws IOException
+	 */
+	public abstract SinkOutputStream openStream(String name, MessageDigest digest) throws IOException;
+
+	/** reads back a page written by this sink
+	 *
+	 * @param name
+	 * @return null if pages cannot be read back
+	 */
+	public abstract SVGSVG readPage(String name);
+
+	/** the file holding name once it has been written
+	 *
+	 * @param name
+	 * @return
+	 */
+	public abstract File getFile(String name);
+
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	public long getBytesStored() {
+		return bytesStored.get();
+	}
+
+	public long getNanos() {
+		return nanos.get();
+	}
+
+	public long getEntryCount() {
+		return entryCount.get();
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName()+": "+entryCount+" files, "+bytesIn+" bytes in, "+bytesStored+" bytes stored, "+
+				(nanos.get() / 1000000)+" ms";
+	}
+
+	private static File createPartFile(File file) {
+		return new File(file.getPath() + PART);
+	}
+
+	// renameTo() does not replace an existing file on all platforms
+	private static void rename(File partFile, File file) {
+		if ((file.exists() && !file.delete()) || !partFile.renameTo(file)) {
+			throw new RuntimeException("Cannot rename "+partFile+" to "+file);
+		}
+	}
+
+	/** buffers, times and counts what is written.
+	 *
+	 * The file or entry only appears when commit() is called; close() without
+	 * commit() discards it. Use as:
+	 * <pre>
+	 * SinkOutputStream os = sink.openStream(name, null);
+	 * try {
+	 *     write(os);
+	 *     os.commit();
+	 * } finally {
+	 *     os.close();
+	 * }
+	 * </pre>
+	 */
+	public static abstract class SinkOutputStream extends FilterOutputStream {
+
+		private OutputSink sink;
+		private long count;
+		private long storedCount;
+		private boolean closed;
+		private boolean committed;
+
+		SinkOutputStream(OutputSink sink, OutputStream os) {
+			super(os);
+			this.sink = sink;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			long start = System.nanoTime();
+			out.write(b);
+			count++;
+			sink.nanos.addAndGet(System.nanoTime() - start);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			out.write(b, off, len);
+			count += len;
+			sink.nanos.addAndGet(System.nanoTime() - start);
+		}
+
+		/** makes the complete file or entry visible under its name and closes the stream
+		 *
+		 * @throws IOException if it cannot be stored (nothing is then visible)
+		 */
+		public void commit() throws IOException {
+			if (committed) {
+				return;
+			}
+			if (closed) {
+				throw new IOException("stream was closed before commit");
+			}
+			closed = true;
+			long start = System.nanoTime();
+			try {
+				storedCount = publish();
+			} catch (IOException e) {
+				discardQuietly();
+				throw e;
+			} catch (RuntimeException e) {
+				discardQuietly();
+				throw e;
+			} finally {
+				sink.nanos.addAndGet(System.nanoTime() - start);
+			}
+			committed = true;
+			sink.bytesIn.addAndGet(count);
+			sink.bytesStored.addAndGet(storedCount);
+			sink.entryCount.incrementAndGet();
+		}
+
+		/** drops what has been written; nothing appears under the name
+		 *
+		 */
+		public void abort() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			discardQuietly();
+		}
+
+		/** aborts the stream unless it has been committed
+		 *
+		 */
+		@Override
+		public void close() {
+			abort();
+		}
+
+		public boolean isCommitted() {
+			return committed;
+		}
+
+		private void discardQuietly() {
+			try {
+				discard();
+			} catch (Exception e) {
+				LOG.warn("Cannot discard output: "+e);
+			}
+		}
+
+		/** closes the underlying stream and makes the file or entry visible
+		 *
+		 * @return bytes stored
+		 * @throws IOException
+		 */
+		protected abstract long publish() throws IOException;
+
+		/** closes the underlying stream and removes anything written
+		 *
+		 * @throws IOException
+		 */
+		protected abstract void discard() throws IOException;
+
+		/**
+		 * @return bytes written to this stream
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return bytes stored (after compression); 0 until closed
+		 */
+		public long getStoredCount() {
+			return storedCount;
+		}
+	}
+
+	/** counts the bytes reaching the file
+	 *
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream os) {
+			super(os);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/** one file per name in the output directory (the original behaviour)
+	 *
+	 */
+	static class DirectorySink extends OutputSink {
+
+		@Override
+		public String getType() {
+			return DIR;
+		}
+
+		@Override
+		public SinkOutputStream openStream(String name, MessageDigest digest) throws IOException {
+			final File file = getFile(name);
+			final File partFile = createPartFile(file);
+			File parent = partFile.getParentFile();
+			if (parent != null && !parent.isDirectory()) {
+				parent.mkdirs();
+			}
+			final CountingOutputStream fileStream = new CountingOutputStream(
+					new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE));
+			OutputStream os = (digest == null) ? fileStream : new DigestOutputStream(fileStream, digest);
+			if (isCompressed(name)) {
+				os = new LevelGZIPOutputStream(os, level);
+			}
+			return new SinkOutputStream(this, os) {
+				@Override
+				protected long publish() throws IOException {
+					out.close();
+					rename(partFile, file);
+					return fileStream.count;
+				}
+
+				@Override
+				protected void discard() throws IOException {
+					try {
+						out.close();
+					} finally {
+						if (partFile.exists() && !partFile.delete()) {
+							LOG.warn("Cannot delete "+partFile);
+						}
+					}
+				}
+			};
+		}
+
+		@Override
+		public SVGSVG readPage(String name) {
+			File file = getFile(name);
+			if (!isCompressed(name)) {
+				return (SVGSVG) SVGElement.readAndCreateSVG(file);
+			}
+			try {
+				InputStream is = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+				try {
+					return (SVGSVG) SVGElement.readAndCreateSVG(new Builder().build(is).getRootElement());
+				} finally {
+					is.close();
+				}
+			} catch (Exception e) {
+				throw new RuntimeException("Cannot read page "+file, e);
+			}
+		}
+
+		@Override
+		public File getFile(String name) {
+			return new File(outdir, name);
+		}
+
+		boolean isCompressed(String name) {
+			return false;
+		}
+	}
+
+	/** as DirectorySink but pages are gzipped
+	 *
+	 */
+	static class SVGZSink extends DirectorySink {
+
+		@Override
+		public String getType() {
+			return SVGZ;
+		}
+
+		@Override
+		public String getPageSuffix() {
+			return SVGZ_SUFFIX;
+		}
+
+		@Override
+		boolean isCompressed(String name) {
+			return name.endsWith(SVGZ_SUFFIX);
+		}
+	}
+
+	/** all the files of a document in basename.zip
+	 *
+	 */
+	static class ZipSink extends OutputSink {
+
+		private File zipFile;
+		private File partFile;
+		private CountingOutputStream fileStream;
+		private ZipOutputStream zipStream;
+
+		@Override
+		public String getType() {
+			return ZIP;
+		}
+
+		@Override
+		public synchronized void open(File outdir, String basename) {
+			super.open(outdir, basename);
+			zipFile = new File(outdir, basename + ZIP_SUFFIX);
+			partFile = createPartFile(zipFile);
+			zipStream = null;
+		}
+
+		/** the archive is only created for the first entry
+		 *
+		 * @throws IOException
+		 */
+		private void ensureZipStream() throws IOException {
+			if (zipStream == null) {
+				fileStream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE));
+				zipStream = new ZipOutputStream(fileStream);
+				zipStream.setLevel(level);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			File partFile0 = partFile;
+			partFile = null;
+			if (zipStream == null) {
+				return;
+			}
+			try {
+				zipStream.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot write "+partFile0, e);
+			} finally {
+				zipStream = null;
+			}
+			rename(partFile0, zipFile);
+			super.close();
+		}
+
+		@Override
+		public synchronized void abort() {
+			File partFile0 = partFile;
+			partFile = null;
+			if (zipStream != null) {
+				try {
+					zipStream.close();
+				} catch (IOException e) {
+					LOG.warn("Cannot close "+partFile0+": "+e);
+				} finally {
+					zipStream = null;
+				}
+			}
+			if (partFile0 != null) {
+				partFile0.delete();
+			}
+			super.abort();
+		}
+
+		@Override
+		public boolean isDirectory() {
+			return false;
+		}
+
+		@Override
+		public SinkOutputStream openStream(final String name, final MessageDigest digest) throws IOException {
+			return new SinkOutputStream(this, new ByteArrayOutputStream(BUFFER_SIZE)) {
+				@Override
+				protected long publish() throws IOException {
+					ByteArrayOutputStream bytes = (ByteArrayOutputStream) out;
+					return addEntry(name, bytes, digest);
+				}
+
+				@Override
+				protected void discard() {
+					// never added to the archive
+					((ByteArrayOutputStream) out).reset();
+				}
+			};
+		}
+
+		private synchronized long addEntry(String name, ByteArrayOutputStream bytes, MessageDigest digest) throws IOException {
+			if (partFile == null) {
+				throw new IOException("archive is not open for "+name);
+			}
+			ensureZipStream();
+			byte[] data = bytes.toByteArray();
+			ZipEntry entry = new ZipEntry(name);
+			if (!isDeflated(name)) {
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(data.length);
+				entry.setCompressedSize(data.length);
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				entry.setCrc(crc.getValue());
+			}
+			long before = fileStream.count;
+			zipStream.putNextEntry(entry);
+			zipStream.write(data);
+			zipStream.closeEntry();
+			if (digest != null) {
+				digest.update(data);
+			}
+			return fileStream.count - before;
+		}
+
+		/** images are already compressed
+		 *
+		 * @param name
+		 * @return
+		 */
+		private static boolean isDeflated(String name) {
+			String lower = name.toLowerCase();
+			return !lower.endsWith("."+ImageEncoder.PNG) && !lower.endsWith("."+ImageEncoder.JPG);
+		}
+
+		@Override
+		public SVGSVG readPage(String name) {
+			return null;
+		}
+
+		@Override
+		public File getFile(String name) {
+			return zipFile;
+		}
+	}
+
+	/** GZIPOutputStream with a deflate level
+	 *
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+		LevelGZIPOutputStream(OutputStream os, int level) throws IOException {
+			super(os, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+	}
+}
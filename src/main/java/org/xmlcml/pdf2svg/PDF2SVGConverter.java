@@ -21,28 +21,35 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.print.attribute.standard.PageRanges;
 
 import nu.xom.Document;
 import nu.xom.Serializer;
 
 import org.apache.log4j.Logger;
 import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.io.RandomAccessFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.util.PDFStreamEngine;
 import org.xmlcml.font.CodePointSet;
+import org.xmlcml.font.FontCache;
 import org.xmlcml.font.FontFamilySet;
 import org.xmlcml.font.NonStandardFontManager;
-import org.xmlcml.graphics.svg.SVGG;
 import org.xmlcml.graphics.svg.SVGSVG;
-import org.xmlcml.graphics.svg.SVGText;
-import org.xmlcml.graphics.svg.normalize.TextDecorator;
 import org.xmlcml.pdf2svg.log.XMLLogger;
 import org.xmlcml.pdf2svg.util.MenuSystem;
 
@@ -51,7 +58,7 @@ import org.xmlcml.pdf2svg.util.MenuSystem;
  */
 public class PDF2SVGConverter extends PDFStreamEngine {
 
-	private static final String IMAGES = "images";
+	static final String IMAGES = "images";
 
 	private static final String DEFAULT_OUTPUT_DIRECTORY = "target";
 
@@ -60,30 +67,53 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 	private static final String PDF = ".pdf";
 	private static final double _DEFAULT_PAGE_WIDTH = 600.0;
 	private static final double _DEFAULT_PAGE_HEIGHT = 800.0;
+	private static final long MEGABYTE = 1024L * 1024L;
 	
 	@SuppressWarnings("unused")
 	private static final long serialVersionUID = 1L;
 
+	public static final String BATCH = "-batch";
 	public static final String COMPACT = "-compact";
+	public static final String COMPRESSION_LEVEL = "-compresslevel";
+	public static final String CSS_CLASSES = "-cssclasses";
 	public static final String DEBUG_CHAR_CODE = "-debugCharCode";
 	public static final String DEBUG_CHAR_NAME = "-debugCharName";
 	public static final String DEBUG_FONT_NAME = "-debugFontName";
 	public static final String EXITONERR = "-exitonerr";
+	public static final String GLYPH_CACHE = "-glyphcache";
+	public static final String IMAGE_FORMAT = "-imageformat";
+	public static final String IMAGE_QUALITY = "-imagequality";
+	public static final String IMAGE_THREADS = "-imagethreads";
 	public static final String INFO_FILES = "-infofiles";
 	public static final String LOGGER = "-logger";
+	public static final String LOW_MEMORY = "-lowmemory";
 	public static final String LOGFILE = "-logfile";
 	public static final String LOGMORE = "-logmore";
 	public static final String LOGGLYPHS = "-logglyphs";
+	public static final String MAX_HEAP_MB = "-maxheapmb";
+	public static final String MAX_MB = "-maxmb";
+	public static final String METRICS = "-metrics";
 	public static final String MKDIR = "-mkdir";
 	public static final String NO_SVG = "-nosvg";
 	public static final String NONSEQ = "-nonseq";
 	public static final String OUTDIR = "-outdir";
+	public static final String OUTPUT = "-output";
 	public static final String PAGES = "-pages";
+	public static final String PAGE_CACHE = "-pagecache";
+	public static final String PAGE_CACHE_MB = "-pagecachemb";
+	public static final String PAGE_WINDOW = "-pagewindow";
 	public static final String PASSWORD = "-password";
 	public static final String PUB = "-pub";
+	public static final String RESUME = "-resume";
 	public static final String STORE_SVG = "-storesvg";
+	public static final String STREAM = "-stream";
+	public static final String TEXT_ONLY = "-textonly";
+	public static final String THREADS = "-threads";
+	public static final String TIMEOUT = "-timeout";
 
 	public static final String HTTP = "http";
+	public static final String METRICS_JSON = "json";
+	public static final String METRICS_PROMETHEUS = "prometheus";
 //	private static final int DEFAULT_MAX_PAGE = 200;
 	private static final int DEFAULT_MAX_PAGE = 999;
 
@@ -92,10 +122,11 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 	private boolean useNonSeqParser = true;
 	private String outputDirectory = ".";
 	private boolean basenameOutdir = false;
-	private PageRanges pageRanges = null;
+	private PageSelection pageSelection = PageSelection.ALL;
 
 	private PDDocument document;
-	private List<SVGSVG> svgPageList;
+	private SpillingPageList svgPageList;
+	private int pageWindow = SpillingPageList.DEFAULT_WINDOW;
 	private boolean fixFont = true;
 	
 	private NonStandardFontManager amiFontManager;
@@ -111,6 +142,7 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 	private SVGSVG currentSVGPage;
 	public boolean writeFile = true;
 	public boolean storeSVG = true;
+	public boolean streamSVG = false;
 	private boolean writeInfoFiles = false;
 	private boolean exitOnError = false;
 	
@@ -134,12 +166,42 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 
 	String inputBasename;
 	int pageNumber;
-	int imageNumber;
 	File imageDirectory;
 
 	public int maxInlineImageSize = 100; // size in pixels - arbitrary 
 
 	private boolean makeCompactText = false;
+	private boolean useStyleClasses = false;
+	private boolean textOnly = false;
+	private int threadCount = 1;
+	private int convertedPageCount = 0;
+
+	private int batchThreadCount = 0;
+	private int batchTimeoutSeconds = 0;
+	private int batchMaxFileMegabytes = 0;
+
+	private ConversionMetrics documentMetrics = new ConversionMetrics((String) null);
+	private String metricsFormat = null;
+
+	private String imageFormat = ImageEncoder.PNG;
+	private Float imageQuality = null;
+	private int imageThreadCount = ImageEncoder.DEFAULT_THREAD_COUNT;
+	private ImageEncoder imageEncoder;
+
+	private boolean lowMemory = false;
+	private boolean resume = false;
+	private ConversionCheckpoint checkpoint;
+	private String inputHash;
+	private String settingsHash;
+	private String pageCacheDirectory = null;
+	private int pageCacheMegabytes = PageCache.DEFAULT_MAX_MEGABYTES;
+	private PageCache pageCache;
+	private File glyphCacheDirectory = null;
+	private String outputSinkType = OutputSink.DIR;
+	private int compressionLevel = OutputSink.DEFAULT_LEVEL;
+	private OutputSink outputSink;
+	private int maxHeapMegabytes = 0;
+	private List<String> optionArgList;
 
 	public int getMaxPage() {
 		return maxPage;
@@ -149,13 +211,35 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		this.maxPage = maxPage;
 	}
 
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/** number of worker threads used to convert pages of a single PDF file.
+	 * 
+	 * each worker reads its own PDDocument and uses its own PDFPage2SVGConverter
+	 * so 1 (the default) gives the original serial behaviour
+	 * @param threadCount
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1) {
+			throw new RuntimeException("threadCount must be >= 1; found: "+threadCount);
+		}
+		this.threadCount = threadCount;
+	}
+
 	private static void usage() {
 		System.err
 				.printf("Usage: pdf2svg [%s <pw>] [%s] [%s <page-ranges>] [%s <pub>] [%s <dir>] [%s] [%s]%n"
-						+ "               [%s] [%s] [%s] [%s <filename>] [%s] [%s] [%s] <input-file(s)> ...%n%n"
+						+ "               [%s] [%s] [%s] [%s <filename>] [%s] [%s] [%s] [%s <n>]%n"
+						+ "               [%s <n>] [%s <secs>] [%s <mb>] [%s] [%s <format>]%n"
+						+ "               [%s <format>] [%s <q>] [%s <n>] [%s] [%s <mb>]%n"
+						+ "               [%s <n>] [%s] [%s <dir>] [%s <mb>]%n"
+						+ "               [%s <dir>] [%s] [%s <sink>] [%s <n>] [%s] <input-file(s)> ...%n%n"
 						+ "  %s <password>  Password to decrypt the document (default none)%n"
 						+ "  %s               Enables the new non-sequential parser%n"
-						+ "  %s <page-ranges>  Restrict pages to be output (default all)%n"
+						+ "  %s <page-ranges>  Restrict pages to be output e.g. 1-3,7,10-,first:2,last:1 (default all)%n"
+						+ "                       or for one file only: <input-file>#pages=<page-ranges>%n"
 						+ "  %s <publisher>      Use publisher-specific info%n"
 						+ "  %s <dirname>     Location to write output SVG pages (default '.')%n"
 						+ "  %s                Create dir in outdir using PDF basename and set as outdir for this PDF%n"
@@ -171,13 +255,47 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 						+ "  %s            enter debug loop (with charName)%n"
 						+ "  %s            enter debug loop (with fontName)%n"
 						+ "  %s            output compact SVG (multichar texts)%n"
+						+ "  %s <n>         convert pages of each PDF file on n threads (default 1)%n"
+						+ "  %s <n>           convert up to n PDF files at once and write batchManifest.xml%n"
+						+ "  %s <secs>      with %s, abandon a PDF after secs seconds (default no limit)%n"
+						+ "  %s <mb>          with %s, skip PDF files larger than mb megabytes (default no limit)%n"
+						+ "  %s            write SVG elements as they are created without keeping pages (implies no %s)%n"
+						+ "  %s <format>   write stage timings and counts for each PDF to basename-metrics (%s or %s)%n"
+						+ "  %s <format> format of image files: %s (default), %s or %s%n"
+						+ "  %s <q>     image compression quality 0.0 (smallest) to 1.0 (fastest/best) if format supports it%n"
+						+ "  %s <n>     encode image files on n background threads (default %d; 0 = on page thread)%n"
+						+ "  %s          use a scratch file and release each page for very large PDFs (implies %s)%n"
+						+ "  %s <mb>      fail if the heap in use stays over mb megabytes between pages%n"
+						+ "  %s <n>     with %s keep at most n pages in memory, the rest in temporary files (default %d)%n"
+						+ "  %s              skip pages already written from the same PDF and options (see %s)%n"
+						+ "  %s <dir>     reuse pages already converted (in any PDF) from cache dir%n"
+						+ "  %s <mb>    with %s, delete least recently used pages over mb megabytes (default %d)%n"
+						+ "  %s <dir>     with %s, keep glyph outlines in dir for all PDFs and runs%n"
+						+ "  %s         write each distinct text/path style once as a CSS class%n"
+						+ "  %s <sink>      %s (default) files in outdir, %s gzipped pages, %s one basename.zip per PDF%n"
+						+ "  %s <n>  with %s or %s, deflate level 0 (fastest) to 9 (smallest) (default 6)%n"
+						+ "  %s           only convert text; skip paths, clips and images%n"
 						+ "  <input-file(s)>       The PDF document(s) to be loaded%n%n",
                                                 PASSWORD, NONSEQ, PAGES, PUB, OUTDIR, MKDIR, NO_SVG, STORE_SVG,
-                                                INFO_FILES, LOGGER, LOGFILE, LOGMORE, LOGGLYPHS, EXITONERR,
+                                                INFO_FILES, LOGGER, LOGFILE, LOGMORE, LOGGLYPHS, EXITONERR, THREADS,
+                                                BATCH, TIMEOUT, MAX_MB, STREAM, METRICS,
+                                                IMAGE_FORMAT, IMAGE_QUALITY, IMAGE_THREADS, LOW_MEMORY, MAX_HEAP_MB, PAGE_WINDOW, RESUME, PAGE_CACHE, PAGE_CACHE_MB,
+                                                GLYPH_CACHE, CSS_CLASSES, OUTPUT, COMPRESSION_LEVEL, TEXT_ONLY,
                                                 PASSWORD, NONSEQ, PAGES, PUB, OUTDIR, MKDIR, NO_SVG, STORE_SVG,
                                                 INFO_FILES, LOGGER, LOGFILE, LOGMORE, LOGGLYPHS, EXITONERR, 
                                                 DEBUG_CHAR_CODE, DEBUG_CHAR_NAME, DEBUG_FONT_NAME,
-                                                COMPACT);
+                                                COMPACT, THREADS, BATCH, TIMEOUT, BATCH, MAX_MB, BATCH, STREAM, STORE_SVG,
+                                                METRICS, METRICS_JSON, METRICS_PROMETHEUS,
+                                                IMAGE_FORMAT, ImageEncoder.PNG, ImageEncoder.JPG, ImageEncoder.BMP,
+                                                IMAGE_QUALITY, IMAGE_THREADS, ImageEncoder.DEFAULT_THREAD_COUNT,
+                                                LOW_MEMORY, STREAM, MAX_HEAP_MB,
+                                                PAGE_WINDOW, STORE_SVG, SpillingPageList.DEFAULT_WINDOW,
+                                                RESUME, ConversionCheckpoint.CHECKPOINT_FILE,
+                                                PAGE_CACHE, PAGE_CACHE_MB, PAGE_CACHE, PageCache.DEFAULT_MAX_MEGABYTES,
+                                                GLYPH_CACHE, LOGGLYPHS, CSS_CLASSES,
+                                                OUTPUT, OutputSink.DIR, OutputSink.SVGZ, OutputSink.ZIP,
+                                                COMPRESSION_LEVEL, OutputSink.SVGZ, OutputSink.ZIP,
+                                                TEXT_ONLY);
 	}
 
 	public void openPDFURL(String urlString) throws Exception {
@@ -192,6 +310,7 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 	}
 
 	public void openPDFInputStream(InputStream is) throws IOException {
+		documentMetrics = new ConversionMetrics((String) null);
 		page2svgConverter = new PDFPage2SVGConverter();
 		readDocument(is);
 		openAndProcess((File) null, (URL) null);
@@ -199,34 +318,67 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 
 	public void openPDFFile(File file) throws Exception {
 		svgPageList = null;
+		documentMetrics = new ConversionMetrics(file.getName());
 		page2svgConverter = new PDFPage2SVGConverter();
 		LOG.trace("PDF " + file.getCanonicalPath());
-		readDocument(file, useNonSeqParser, PDFpassword);
-		openAndProcess(file, (URL) null);
-		document.close();
+		document = readDocument(file, useNonSeqParser, PDFpassword);
+		try {
+			openAndProcess(file, (URL) null);
+		} finally {
+			// also after a failure or timeout; releases the scratch file of -lowmemory
+			document.close();
+		}
 	}
 
 	private void openAndProcess(File inputFile, URL url) {
-		pdPages = (List<PDPage>) document.getDocumentCatalog().getAllPages();
-
-		pageRanges = new PageRanges(String.format("1-%d", pdPages.size()));
+		pdPages = lowMemory ? new LazyPageList(document) : (List<PDPage>) document.getDocumentCatalog().getAllPages();
 
 		if (useXMLLogger) {
 			xmlLogger.newPDFFile(inputFile.getAbsolutePath(), pdPages.size());
 		}
 
-		LOG.debug(" .. pages "+pageRanges.toString()+" ("+pdPages.size()+") "); 
+		LOG.debug(" .. pages "+pageSelection+" ("+pdPages.size()+") "); 
 
 		createBasename(inputFile);
 		createOutputDirectory(inputBasename);
 
-		pageNumber = pageRanges.next(0);
 		if (writeFile) {
 			outfileList = new ArrayList<File>();
 		}
 		
-		iterateOverPagesAndWriteFiles();
+		List<Integer> pageNumberList = createPageNumberList();
+		convertedPageCount = pageNumberList.size();
+		getOutputSink().open(outdir, inputBasename);
+		boolean completed = false;
+		try {
+			openCheckpoint(inputFile);
+			try {
+				// each thread would read its own copy of the document
+				if (threadCount > 1 && !lowMemory && inputFile != null && pageNumberList.size() > 1) {
+					iterateOverPagesInParallelAndWriteFiles(inputFile, pageNumberList);
+				} else {
+					iterateOverPagesAndWriteFiles(pageNumberList);
+				}
+			} finally {
+				flushImages();
+				closeCheckpoint();
+			}
+			if (pageCache != null) {
+				LOG.debug(pageCache);
+			}
 
+			if (metricsFormat != null) {
+				writeMetrics();
+			}
+			completed = true;
+		} finally {
+			// a failed or timed out document must not look complete
+			if (completed) {
+				getOutputSink().close();
+			} else {
+				getOutputSink().abort();
+			}
+		}
 		if (writeInfoFiles) {
 			reportHighCodePoints();
 			reportNewFontFamilyNames();
@@ -234,10 +386,32 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		}
 	}
 
-	private void iterateOverPagesAndWriteFiles() {
-		while (pageNumber > 0) {
+	/** page numbers (1-based) selected by pageSelection, truncated at maxPage
+	 * 
+	 * only these pages have their content streams processed
+	 * @return
+	 */
+	private List<Integer> createPageNumberList() {
+		List<Integer> pageNumberList = new ArrayList<Integer>();
+		for (Integer pageNumber : pageSelection.getPageNumbers(pdPages.size())) {
+			if (pageNumber > maxPage) {
+				LOG.error("terminated after "+pageNumber+" pages");
+				break;
+			}
+			pageNumberList.add(pageNumber);
+		}
+		return pageNumberList;
+	}
+
+	private void iterateOverPagesAndWriteFiles(List<Integer> pageNumberList) {
+		for (Integer pageNumber : pageNumberList) {
+			checkInterrupted(pageNumber);
+			this.pageNumber = pageNumber;
+			if (isPageDone(pageNumber)) {
+				addDonePage(pageNumber);
+				continue;
+			}
 			PDPage page = pdPages.get(pageNumber - 1);
-			imageNumber = 0;
 
 			if (useXMLLogger) {
 				xmlLogger.newPDFPage(pageNumber);
@@ -245,47 +419,159 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 
 			System.out.print(pageNumber + " = ");
 
-			currentSVGPage = page2svgConverter.convertPageToSVG(page, this);
-			if (makeCompactText) {
-				compactCurrentSVGPage();
-			}
+			currentSVGPage = convertPage(page2svgConverter, page, pageNumber);
 
 			if (storeSVG) {
-				addPageToPageList();
+				addPageToPageList(currentSVGPage);
 			}
 			if (writeFile) {
-				File outfile = writeFile(pageNumber);
+				File outfile = writeFile(page2svgConverter, currentSVGPage, pageNumber);
 				outfileList.add(outfile);
 			}
+			addPageMetrics(page2svgConverter.getPageMetrics());
+			checkHeap(pageNumber);
+		}
+		System.out.println();
+		LOG.debug(page2svgConverter.getFontCache());
+	}
 
-			pageNumber = pageRanges.next(pageNumber);
-			if (pageNumber > maxPage) {
-				LOG.error("terminated after "+pageNumber+" pages");
-				break;
+	/** splits the pages into contiguous ranges, one per thread.
+	 * 
+	 * each range is converted by a PageRangeConverter with its own PDDocument
+	 * and PDFPage2SVGConverter. Results are collected in range order so that
+	 * getPageList() and the output files are the same as in serial mode. Each
+	 * worker spills its stored pages beyond its share of pageWindow.
+	 * 
+	 * @param inputFile
+	 * @param pageNumberList
+	 */
+	private void iterateOverPagesInParallelAndWriteFiles(File inputFile, List<Integer> pageNumberList) {
+		// shared state must exist before the workers start
+		ensureAmiFontManager();
+		getOrCreateImageDirectory();
+		List<Integer> todoPageNumberList = new ArrayList<Integer>();
+		for (Integer pageNumber : pageNumberList) {
+			if (!isPageDone(pageNumber)) {
+				todoPageNumberList.add(pageNumber);
+			}
+		}
+		int nPages = todoPageNumberList.size();
+		int nThreads = Math.max(1, Math.min(threadCount, nPages));
+		int rangePageWindow = Math.max(1, pageWindow / nThreads);
+		List<PageRangeConverter> rangeConverterList = new ArrayList<PageRangeConverter>();
+		for (int i = 0; i < nThreads; i++) {
+			List<Integer> rangePageNumberList = todoPageNumberList.subList((i * nPages) / nThreads, ((i + 1) * nPages) / nThreads);
+			rangeConverterList.add(new PageRangeConverter(this, inputFile, rangePageNumberList, rangePageWindow));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<List<SVGSVG>> rangePageListList = new ArrayList<List<SVGSVG>>();
+		try {
+			List<Future<List<SVGSVG>>> futureList = executor.invokeAll(rangeConverterList);
+			// collects every result so that all spilled pages are deleted after a failure
+			ExecutionException failure = null;
+			for (Future<List<SVGSVG>> future : futureList) {
+				try {
+					rangePageListList.add(future.get());
+				} catch (ExecutionException e) {
+					failure = (failure == null) ? e : failure;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			if (storeSVG) {
+				// converted pages are in the order of todoPageNumberList
+				Iterator<List<SVGSVG>> rangeIterator = rangePageListList.iterator();
+				Iterator<SVGSVG> pageIterator = Collections.<SVGSVG>emptyList().iterator();
+				int i = 0;
+				for (Integer pageNumber : pageNumberList) {
+					if (i < nPages && todoPageNumberList.get(i).equals(pageNumber)) {
+						while (!pageIterator.hasNext()) {
+							pageIterator = rangeIterator.next().iterator();
+						}
+						addPageToPageList(pageIterator.next());
+						i++;
+					} else {
+						addPageToPageList(readDonePage(pageNumber));
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while converting pages", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cannot convert pages", e.getCause());
+		} finally {
+			executor.shutdown();
+			// deletes the pages the workers spilled
+			for (List<SVGSVG> rangePageList : rangePageListList) {
+				rangePageList.clear();
 			}
 		}
+		if (writeFile) {
+			for (Integer pageNumber : pageNumberList) {
+				outfileList.add(createOutfile(pageNumber));
+			}
+		}
+		// progress as in serial mode; the workers would interleave it
+		for (Integer pageNumber : todoPageNumberList) {
+			System.out.print(pageNumber + " = ");
+		}
 		System.out.println();
 	}
 
-	private void compactCurrentSVGPage() {
-		List<SVGText> oldTextList = SVGText.extractSelfAndDescendantTexts(currentSVGPage);
-		if (oldTextList.size() > 0) {
-			// insert compactedText at first text
-			int firstTextIdx = currentSVGPage.indexOf(oldTextList.get(0));
-			for (SVGText oldText : oldTextList) {
-				oldText.detach();
-			}
-			TextDecorator textDecorator = new TextDecorator();
-			SVGG g = textDecorator.compactTexts(oldTextList);
-			List<SVGText> newTextList = SVGText.extractSelfAndDescendantTexts(g);
-			for (int i = newTextList.size() - 1; i >= 0; i--) {
-				SVGText newText = newTextList.get(i);
-				newText.detach();
-				currentSVGPage.insertChild(newText, firstTextIdx);
+	/** if the heap in use is over maxHeapMegabytes releases the shared font caches,
+	 * asks for a garbage collection and stops the conversion if that is not enough.
+	 * 
+	 * called between pages
+	 * @param pageNumber page just converted
+	 */
+	void checkHeap(int pageNumber) {
+		if (maxHeapMegabytes <= 0) {
+			return;
+		}
+		long budget = maxHeapMegabytes * MEGABYTE;
+		if (getUsedHeap() > budget) {
+			LOG.debug("heap over "+maxHeapMegabytes+" MB after page "+pageNumber+"; releasing caches");
+			FontCache.clearResources();
+			System.gc();
+			long used = getUsedHeap();
+			if (used > budget) {
+				throw new RuntimeException(String.format("Heap budget of %d MB exceeded after page %d (%d MB in use)",
+						maxHeapMegabytes, pageNumber, used / MEGABYTE));
 			}
 		}
 	}
 
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/** conversion is only stopped between pages (PDFBox does not check interrupts)
+	 * used by BatchConverter to enforce per-document timeouts
+	 * 
+	 * @param pageNumber
+	 */
+	void checkInterrupted(int pageNumber) {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new RuntimeException("Conversion interrupted before page "+pageNumber);
+		}
+	}
+
+	/** converts a single page
+	 * 
+	 * may be called concurrently with different pageConverters
+	 * @param pageConverter
+	 * @param page
+	 * @param pageNumber
+	 * @return
+	 */
+	SVGSVG convertPage(PDFPage2SVGConverter pageConverter, PDPage page, int pageNumber) {
+		return pageConverter.convertPageToSVG(page, this, pageNumber);
+	}
+
 	private void createBasename(File inputFile) {
 		inputBasename = null;
 		if (inputFile != null) {
@@ -298,10 +584,8 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		}
 	}
 
-	private void addPageToPageList() {
+	private void addPageToPageList(SVGSVG svgPage) {
 		ensureSVGPageList();
-		SVGSVG svgPage = page2svgConverter.getConvertedPageSVG();
-		
 		svgPageList.add(svgPage);
 	}
 
@@ -320,21 +604,142 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		}
 	}
 
-	private File writeFile(int pageNumber) {
+	private File createOutfile(int pageNumber) {
+		return new File(outdir, createPageName(pageNumber));
+	}
+
+	/** name of the page in the OutputSink
+	 * 
+	 * @param pageNumber
+	 * @return
+	 */
+	private String createPageName(int pageNumber) {
+		return inputBasename + "-page" + pageNumber + getOutputSink().getPageSuffix();
+	}
+
+	/** writes the page, using the streamed elements if the pageConverter has them
+	 * 
+	 * @param pageConverter that has just converted svgPage
+	 * @param svgPage
+	 * @param pageNumber
+	 * @return
+	 */
+	File writeFile(PDFPage2SVGConverter pageConverter, SVGSVG svgPage, int pageNumber) {
+		long start = System.nanoTime();
+		OutputSink sink = getOutputSink();
+		long sinkNanos = sink.getNanos();
+		OutputSink.SinkOutputStream os = writeFile(pageConverter.getStreamingSVGWriter(), svgPage, pageNumber);
+		ConversionMetrics pageMetrics = pageConverter.getPageMetrics();
+		pageMetrics.addTime(ConversionMetrics.Stage.SERIALIZE, System.nanoTime() - start);
+		// includes other threads writing to the sink at the same time
+		pageMetrics.addTime(ConversionMetrics.Stage.OUTPUT, sink.getNanos() - sinkNanos);
+		pageMetrics.add(ConversionMetrics.Counter.BYTES_WRITTEN, os.getStoredCount());
+		pageMetrics.add(ConversionMetrics.Counter.BYTES_SERIALIZED, os.getCount());
+		return createOutfile(pageNumber);
+	}
 
-		File outfile = null;
+	/** writes the page through the OutputSink, which only makes it visible when complete,
+	 * so an interrupted run never leaves a truncated page under the final name
+	 * 
+	 * @param streamingWriter if null svgPage is serialized
+	 * @param svgPage
+	 * @param pageNumber
+	 * @return the closed stream
+	 */
+	private OutputSink.SinkOutputStream writeFile(StreamingSVGWriter streamingWriter, SVGSVG svgPage, int pageNumber) {
+		String name = createPageName(pageNumber);
+		MessageDigest digest = (checkpoint == null) ? null : ConversionCheckpoint.createDigest();
+		OutputSink.SinkOutputStream os;
 		try {
-			outfile = new File(outdir, inputBasename + "-page" + pageNumber + ".svg");
-			LOG.trace("Writing output to file '"+outfile.getCanonicalPath());
-			Serializer serializer = new SVGSerializer(new FileOutputStream(outfile), "UTF-8");
-			Document document = currentSVGPage.getDocument();
-			document = (document == null) ? new Document(currentSVGPage) : document;
-			serializer.setIndent(1);
-			serializer.write(document);
-		} catch (Exception e) {
+			LOG.trace("Writing output to '"+name+"'");
+			os = getOutputSink().openStream(name, digest);
+			try {
+				if (streamingWriter == null) {
+					writeDocument(svgPage, os);
+				} else {
+					streamingWriter.writeTo(os);
+				}
+				os.commit();
+			} finally {
+				// discards the page unless committed
+				os.close();
+			}
+		} catch (IOException e) {
 			throw new RuntimeException("Cannot convert PDF to SVG", e);
 		}
-		return outfile;
+		if (checkpoint != null) {
+			checkpoint.record(createOutfile(pageNumber), inputHash, pageNumber, settingsHash,
+					ConversionCheckpoint.toHex(digest.digest()));
+		}
+		return os;
+	}
+
+	File writeFile(SVGSVG svgPage, int pageNumber) {
+		writeFile((StreamingSVGWriter) null, svgPage, pageNumber);
+		return createOutfile(pageNumber);
+	}
+
+	private static void writeDocument(SVGSVG svgPage, OutputStream os) throws IOException {
+		Serializer serializer = new SVGSerializer(os, "UTF-8");
+		Document document = svgPage.getDocument();
+		document = (document == null) ? new Document(svgPage) : document;
+		serializer.setIndent(1);
+		serializer.write(document);
+	}
+
+	/** with resume, reads the checkpoint for the output directory and hashes the input
+	 * 
+	 * @param inputFile
+	 */
+	private void openCheckpoint(File inputFile) {
+		checkpoint = null;
+		if (resume && !getOutputSink().isDirectory()) {
+			LOG.warn(RESUME+" needs page files; ignored with "+OUTPUT+" "+getOutputSink().getType());
+		} else if (resume && writeFile && inputFile != null) {
+			checkpoint = new ConversionCheckpoint(outdir);
+			inputHash = ConversionCheckpoint.hash(inputFile);
+			settingsHash = ConversionCheckpoint.hash(getSettingsString());
+			LOG.debug("checkpoint "+checkpoint.getFile()+" has "+checkpoint.size()+" pages");
+		}
+	}
+
+	private void closeCheckpoint() {
+		if (checkpoint != null) {
+			checkpoint.close();
+		}
+	}
+
+	/** the options which change the content of the page files
+	 * 
+	 * @return
+	 */
+	String getSettingsString() {
+		return "width="+pageWidth+";height="+pageHeight+";nonseq="+useNonSeqParser+";fixFont="+fixFont+";compact="+makeCompactText+";styleClasses="+useStyleClasses+";textOnly="+textOnly+
+				";imageFormat="+imageFormat+";imageQuality="+imageQuality+
+				";maxInlineImageSize="+maxInlineImageSize+
+				";clipBoxes="+drawBoxesForClipPaths+";tooltips="+addTooltipDebugTitles;
+	}
+
+	private boolean isPageDone(int pageNumber) {
+		boolean done = checkpoint != null &&
+				checkpoint.isDone(createOutfile(pageNumber), inputHash, pageNumber, settingsHash);
+		if (done) {
+			LOG.debug("page "+pageNumber+" already done");
+		}
+		return done;
+	}
+
+	private void addDonePage(int pageNumber) {
+		if (storeSVG) {
+			addPageToPageList(readDonePage(pageNumber));
+		}
+		if (writeFile) {
+			outfileList.add(createOutfile(pageNumber));
+		}
+	}
+
+	private SVGSVG readDonePage(int pageNumber) {
+		return getOutputSink().readPage(createPageName(pageNumber));
 	}
 
 	private void reportNewFontFamilyNames() {
@@ -343,37 +748,82 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 	}
 
 	private void writeHTMLSystem(List<File> outfileList) {
+		if (!getOutputSink().isDirectory()) {
+			LOG.warn("no HTML display files for "+OUTPUT+" "+getOutputSink().getType());
+			return;
+		}
 		MenuSystem menuSystem = new MenuSystem(outdir);
 		menuSystem.writeDisplayFiles(outfileList, "");
 	}
 
 	private void ensureSVGPageList() {
 		if (svgPageList == null) {
-			svgPageList = new ArrayList<SVGSVG>();
+			svgPageList = new SpillingPageList(pageWindow);
 		}
 	}
 
-	private void readDocument(File file, boolean useNonSeqParser, String password) throws IOException {
-		if (useNonSeqParser) {
-			document = PDDocument.loadNonSeq(file, null, password);
-		} else {
-			document = PDDocument.load(file);
-			if (document.isEncrypted()) {
-				try {
-					document.decrypt(password);
-				} catch (CryptographyException e) {
-					System.err
-							.printf("Error: Failed to decrypt document in file '%s'.%n",
-									file.getAbsolutePath());
-					return;
-				}
-			}
+	/** reads a document with the current parser and password settings
+	 * 
+	 * used by PageRangeConverter so that each thread has its own PDDocument
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	PDDocument readDocument(File file) throws IOException {
+		return readDocument(file, useNonSeqParser, PDFpassword);
+	}
+
+	private PDDocument readDocument(File file, boolean useNonSeqParser, String password) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return loadDocument(file, useNonSeqParser, password);
+		} finally {
+			addParseTime(System.nanoTime() - start);
 		}
+	}
 
+	private PDDocument loadDocument(File file, boolean useNonSeqParser, String password) throws IOException {
+		PDDocument document = null;
+		RandomAccess scratchFile = lowMemory ? createScratchFile() : null;
+		try {
+			document = useNonSeqParser ? PDDocument.loadNonSeq(file, scratchFile, password) :
+				PDDocument.load(file, scratchFile);
+		} catch (IOException e) {
+			// the document never took over the scratch file
+			closeScratchFile(scratchFile);
+			throw e;
+		} catch (RuntimeException e) {
+			closeScratchFile(scratchFile);
+			throw e;
+		}
+		// loadNonSeq() decrypts with the password itself
+		if (!useNonSeqParser && document.isEncrypted()) {
+			try {
+				document.decrypt(password);
+			} catch (CryptographyException e) {
+				System.err
+						.printf("Error: Failed to decrypt document in file '%s'.%n",
+								file.getAbsolutePath());
+				return document;
+			}
+		}
+		return document;
 	}
 
 	private void readDocument(InputStream inputStream) throws IOException {
-		document = PDDocument.load(inputStream);
+		long start = System.nanoTime();
+		RandomAccess scratchFile = lowMemory ? createScratchFile() : null;
+		try {
+			document = PDDocument.load(inputStream, scratchFile);
+		} catch (IOException e) {
+			// the document never took over the scratch file
+			closeScratchFile(scratchFile);
+			throw e;
+		} catch (RuntimeException e) {
+			closeScratchFile(scratchFile);
+			throw e;
+		}
+		addParseTime(System.nanoTime() - start);
 		/*if (document.isEncrypted()) {
 			try {
 				document.decrypt(password);
@@ -410,14 +860,67 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 			return false;
 		}
 
+		List<String> fileList = parseArgs(args);
+		if (fileList == null) {
+			return false;
+		}
+
+		if (fileList.size() == 0) {
+			usage();
+			return false;
+		}
+
+		if (batchThreadCount > 0) {
+			return runBatch(fileList);
+		}
+
+		ensureXMLLogger();
+
+		boolean succeeded = true;
+
+		PageSelection defaultPageSelection = pageSelection;
+		for (String filename : fileList) {
+			try {
+				int idx = filename.lastIndexOf(PageSelection.FILE_SUFFIX);
+				if (idx != -1) {
+					setPageSelection(PageSelection.parse(filename.substring(idx + PageSelection.FILE_SUFFIX.length())));
+					filename = filename.substring(0, idx);
+				}
+				readFileOrDirectoryOrURL(filename);
+			} catch (Exception e) {
+				e.printStackTrace();
+				System.err.printf("Cannot parse PDF '" + filename + "':" + e+"\n");
+				if (exitOnError) {
+					return false;
+				}
+				succeeded = false;
+			} finally {
+				setPageSelection(defaultPageSelection);
+			}
+		}
+
+		writeXMLLoggerOutput();
+
+		return succeeded;
+	}
+
+	/** sets options from args
+	 * 
+	 * options (everything except input files) are remembered so that BatchConverter
+	 * can configure a fresh converter for each document
+	 * @param args
+	 * @return input files or null if args are incomplete
+	 */
+	public List<String> parseArgs(String... args) {
 		List<String> fileList = new ArrayList<String>();
+		List<Integer> fileIndexList = new ArrayList<Integer>();
 
 		for (iarg = 0; iarg < args.length; iarg++) {
 
 			LOG.trace(args[iarg]);
 			if (args[iarg].equals(PASSWORD)) {
 				if (!incrementArg(args))
-					return false;
+					return null;
 				PDFpassword = args[iarg];
 				continue;
 			}
@@ -429,7 +932,7 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 
 			if (args[iarg].equals(OUTDIR)) {
 				if (!incrementArg(args))
-					return false;
+					return null;
 				outputDirectory = args[iarg];
 				continue;
 			}
@@ -449,23 +952,102 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 				continue;
 			}
 
+			if (args[iarg].equals(STREAM)) {
+				setStreamSVG(true);
+				setStoreSVG(false);
+				continue;
+			}
+
+			if (args[iarg].equals(IMAGE_FORMAT)) {
+				if (!incrementArg(args))
+					return null;
+				imageFormat = args[iarg];
+				continue;
+			}
+
+			if (args[iarg].equals(IMAGE_QUALITY)) {
+				if (!incrementArg(args))
+					return null;
+				imageQuality = new Float(args[iarg]);
+				continue;
+			}
+
+			if (args[iarg].equals(IMAGE_THREADS)) {
+				if (!incrementArg(args))
+					return null;
+				imageThreadCount = new Integer(args[iarg]);
+				continue;
+			}
+
+			if (args[iarg].equals(LOW_MEMORY)) {
+				setLowMemory(true);
+				continue;
+			}
+
+			if (args[iarg].equals(MAX_HEAP_MB)) {
+				if (!incrementArg(args))
+					return null;
+				setMaxHeapMegabytes(new Integer(args[iarg]));
+				continue;
+			}
+
+			if (args[iarg].equals(GLYPH_CACHE)) {
+				if (!incrementArg(args))
+					return null;
+				setGlyphCacheDirectory(new File(args[iarg]));
+				continue;
+			}
+
+			if (args[iarg].equals(PAGE_CACHE)) {
+				if (!incrementArg(args))
+					return null;
+				pageCacheDirectory = args[iarg];
+				continue;
+			}
+
+			if (args[iarg].equals(PAGE_CACHE_MB)) {
+				if (!incrementArg(args))
+					return null;
+				pageCacheMegabytes = new Integer(args[iarg]);
+				continue;
+			}
+
+			if (args[iarg].equals(RESUME)) {
+				setResume(true);
+				continue;
+			}
+
+			if (args[iarg].equals(PAGE_WINDOW)) {
+				if (!incrementArg(args))
+					return null;
+				setPageWindow(new Integer(args[iarg]));
+				continue;
+			}
+
+			if (args[iarg].equals(METRICS)) {
+				if (!incrementArg(args))
+					return null;
+				setMetricsFormat(args[iarg]);
+				continue;
+			}
+
 			if (args[iarg].equals(DEBUG_CHAR_CODE)) {
 				if (!incrementArg(args))
-					return false;
+					return null;
 				debugCharCode = new Integer(args[iarg]);
 				continue;
 			}
 
 			if (args[iarg].equals(DEBUG_CHAR_NAME)) {
 				if (!incrementArg(args))
-					return false;
+					return null;
 				debugCharname = args[iarg];
 				continue;
 			}
 
 			if (args[iarg].equals(DEBUG_FONT_NAME)) {
 				if (!incrementArg(args))
-					return false;
+					return null;
 				debugFontName = args[iarg];
 				continue;
 			}
@@ -482,7 +1064,7 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 
 			if (args[iarg].equals(LOGFILE)) {
 				if (!incrementArg(args))
-					return false;
+					return null;
 				XMLLoggerFile = args[iarg];
 				continue;
 			}
@@ -507,10 +1089,64 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 				continue;
 			}
 
+			if (args[iarg].equals(OUTPUT)) {
+				if (!incrementArg(args))
+					return null;
+				outputSinkType = args[iarg];
+				setOutputSink(OutputSink.create(outputSinkType, compressionLevel));
+				continue;
+			}
+
+			if (args[iarg].equals(COMPRESSION_LEVEL)) {
+				if (!incrementArg(args))
+					return null;
+				compressionLevel = new Integer(args[iarg]);
+				setOutputSink(OutputSink.create(outputSinkType, compressionLevel));
+				continue;
+			}
+
+			if (args[iarg].equals(CSS_CLASSES)) {
+				useStyleClasses = true;
+				continue;
+			}
+
+			if (args[iarg].equals(TEXT_ONLY)) {
+				textOnly = true;
+				continue;
+			}
+
+			if (args[iarg].equals(THREADS)) {
+				if (!incrementArg(args))
+					return null;
+				setThreadCount(new Integer(args[iarg]));
+				continue;
+			}
+
+			if (args[iarg].equals(BATCH)) {
+				if (!incrementArg(args))
+					return null;
+				batchThreadCount = new Integer(args[iarg]);
+				continue;
+			}
+
+			if (args[iarg].equals(TIMEOUT)) {
+				if (!incrementArg(args))
+					return null;
+				batchTimeoutSeconds = new Integer(args[iarg]);
+				continue;
+			}
+
+			if (args[iarg].equals(MAX_MB)) {
+				if (!incrementArg(args))
+					return null;
+				batchMaxFileMegabytes = new Integer(args[iarg]);
+				continue;
+			}
+
 			if (args[iarg].equals(PAGES)) {
 				if (!incrementArg(args))
-					return false;
-				pageRanges = new PageRanges(args[iarg]);
+					return null;
+				setPageSelection(PageSelection.parse(args[iarg]));
 				continue;
 			}
 
@@ -519,33 +1155,47 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 			}
 
 			fileList.add(args[iarg]);
+			fileIndexList.add(iarg);
 		}
 
-		if (fileList.size() == 0) {
-			usage();
-			return false;
+		optionArgList = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (!fileIndexList.contains(i)) {
+				optionArgList.add(args[i]);
+			}
 		}
+		return fileList;
+	}
 
-		ensureXMLLogger();
-
-		boolean succeeded = true;
-
+	/** converts all files with a BatchConverter
+	 * 
+	 * @param fileList files and/or directories
+	 * @return false if any document failed
+	 */
+	private boolean runBatch(List<String> fileList) {
+		BatchConverter batchConverter = new BatchConverter(optionArgList, new File(outputDirectory));
+		batchConverter.setThreadCount(batchThreadCount);
+		batchConverter.setTimeoutSeconds(batchTimeoutSeconds);
+		batchConverter.setMaxFileMegabytes(batchMaxFileMegabytes);
+		batchConverter.setExitOnError(exitOnError);
 		for (String filename : fileList) {
-			try {
-				readFileOrDirectoryOrURL(filename);
-			} catch (Exception e) {
-				e.printStackTrace();
-				System.err.printf("Cannot parse PDF '" + filename + "':" + e+"\n");
-				if (exitOnError) {
-					return false;
-				}
-				succeeded = false;
+			int idx = filename.lastIndexOf(PageSelection.FILE_SUFFIX);
+			if (idx == -1) {
+				batchConverter.addFileOrDirectory(new File(filename));
+			} else {
+				batchConverter.addFile(new File(filename.substring(0, idx)),
+						PageSelection.parse(filename.substring(idx + PageSelection.FILE_SUFFIX.length())));
 			}
 		}
+		return batchConverter.run();
+	}
 
-		writeXMLLoggerOutput();
-
-		return succeeded;
+	/** number of pages converted from the last PDF
+	 * 
+	 * @return
+	 */
+	public int getConvertedPageCount() {
+		return convertedPageCount;
 	}
 
 	public void setWriteFile(boolean b) {
@@ -556,7 +1206,300 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		storeSVG = b;
 	}
 
-	private void ensureXMLLogger() {
+	/** write the elements of each page as they are created instead of building the page.
+	 * 
+	 * only has an effect when files are written and pages are not stored
+	 * (see isStreaming())
+	 * @param b
+	 */
+	public void setStreamSVG(boolean b) {
+		streamSVG = b;
+	}
+
+	/** whether consecutive glyphs with the same style are merged into text runs (see TextRunBuilder)
+	 * 
+	 * @return
+	 */
+	public boolean isCompactText() {
+		return makeCompactText;
+	}
+
+	public void setCompactText(boolean makeCompactText) {
+		this.makeCompactText = makeCompactText;
+	}
+
+	/** whether style attributes are replaced by CSS classes (see StyleClassMap)
+	 * 
+	 * @return
+	 */
+	public boolean isStyleClasses() {
+		return useStyleClasses;
+	}
+
+	public void setStyleClasses(boolean useStyleClasses) {
+		this.useStyleClasses = useStyleClasses;
+	}
+
+	/** whether pages are converted without paths, clips or images (see PDFPage2SVGConverter)
+	 * 
+	 * @return
+	 */
+	public boolean isTextOnly() {
+		return textOnly;
+	}
+
+	public void setTextOnly(boolean textOnly) {
+		this.textOnly = textOnly;
+	}
+
+	/** whether PDFPage2SVGConverter should stream elements through a StreamingSVGWriter.
+	 * 
+	 * the full SVG page is still built if anything needs it afterwards
+	 * @return
+	 */
+	public boolean isStreaming() {
+		return streamSVG && writeFile && !storeSVG;
+	}
+
+	/** replaces the ImageEncoder created from the image options
+	 * 
+	 * @param imageEncoder
+	 */
+	public synchronized void setImageEncoder(ImageEncoder imageEncoder) {
+		this.imageEncoder = imageEncoder;
+	}
+
+	/** replaces the OutputSink created from the output options
+	 * 
+	 * @param outputSink
+	 */
+	public synchronized void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	/** where pages, images and metrics are written; created from the output options on first use
+	 * 
+	 * @return
+	 */
+	public synchronized OutputSink getOutputSink() {
+		if (outputSink == null) {
+			outputSink = OutputSink.create(outputSinkType, compressionLevel);
+		}
+		return outputSink;
+	}
+
+	/** shared by all page converters; created from the image options on first use
+	 * 
+	 * @return
+	 */
+	public synchronized ImageEncoder getImageEncoder() {
+		if (imageEncoder == null) {
+			imageEncoder = new ImageEncoder(imageFormat, imageQuality, imageThreadCount);
+		}
+		return imageEncoder;
+	}
+
+	/** low-memory mode for very large PDFs.
+	 * 
+	 * Decoded streams are held in a scratch file instead of the heap, pages are found
+	 * in the page tree only when they are converted, per-page PDFBox resources are
+	 * released after each page, and pages are converted on one thread. It implies
+	 * streamSVG (and so no storeSVG).
+	 * @param lowMemory
+	 */
+	public void setLowMemory(boolean lowMemory) {
+		this.lowMemory = lowMemory;
+		if (lowMemory) {
+			setStreamSVG(true);
+			setStoreSVG(false);
+		}
+	}
+
+	public boolean isLowMemory() {
+		return lowMemory;
+	}
+
+	/** heap (MB) the conversion may use; checked between pages (see checkHeap())
+	 * 
+	 * the JVM heap (-Xmx) must be larger
+	 * @param maxHeapMegabytes 0 means no limit
+	 */
+	public void setMaxHeapMegabytes(int maxHeapMegabytes) {
+		this.maxHeapMegabytes = maxHeapMegabytes;
+	}
+
+	public int getMaxHeapMegabytes() {
+		return maxHeapMegabytes;
+	}
+
+	/** maximum number of stored pages (storeSVG) kept in memory; the others are
+	 * spilled to temporary files and read back by getPageList().get()
+	 * 
+	 * @param pageWindow
+	 */
+	public void setPageWindow(int pageWindow) {
+		if (pageWindow < 1) {
+			throw new RuntimeException("pageWindow must be >= 1; found: "+pageWindow);
+		}
+		this.pageWindow = pageWindow;
+	}
+
+	public int getPageWindow() {
+		return pageWindow;
+	}
+
+	/** converted pages are stored in (and reused from) the cache
+	 * 
+	 * @param pageCache null for none
+	 */
+	public synchronized void setPageCache(PageCache pageCache) {
+		this.pageCache = pageCache;
+	}
+
+	/** the cache given by setPageCache() or -pagecache
+	 * 
+	 * @return null if none
+	 */
+	public synchronized PageCache getPageCache() {
+		if (pageCache == null && pageCacheDirectory != null) {
+			pageCache = new PageCache(new File(pageCacheDirectory), pageCacheMegabytes);
+		}
+		return pageCache;
+	}
+
+	/** directory of the persistent GlyphOutlineCache used with xmlLoggerLogGlyphs
+	 * 
+	 * @param glyphCacheDirectory null for none
+	 */
+	public void setGlyphCacheDirectory(File glyphCacheDirectory) {
+		this.glyphCacheDirectory = glyphCacheDirectory;
+	}
+
+	/** 
+	 * @return null unless a glyph cache directory has been set
+	 */
+	public GlyphOutlineCache getGlyphOutlineCache() {
+		return glyphCacheDirectory == null ? null : GlyphOutlineCache.getInstance(glyphCacheDirectory);
+	}
+
+	/** skip pages whose files were written by an earlier run from the same PDF with
+	 * the same options and are unchanged (see ConversionCheckpoint)
+	 * 
+	 * @param resume
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	/** closes a scratch file that no PDDocument has taken over
+	 * 
+	 * @param scratchFile may be null
+	 */
+	private static void closeScratchFile(RandomAccess scratchFile) {
+		if (scratchFile != null) {
+			try {
+				scratchFile.close();
+			} catch (IOException e) {
+				LOG.warn("Cannot close scratch file: "+e);
+			}
+		}
+	}
+
+	/** scratch file for decoded streams; closed (and deleted) by PDDocument.close()
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private RandomAccess createScratchFile() throws IOException {
+		File file = File.createTempFile("pdf2svg", ".scratch");
+		RandomAccess scratchFile = new RandomAccessFile(file, "rw");
+		// the open file can still be used where the file system allows this
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+		return scratchFile;
+	}
+
+	/** pages to convert in each PDF (default PageSelection.ALL)
+	 * 
+	 * @param pageSelection
+	 */
+	public void setPageSelection(PageSelection pageSelection) {
+		this.pageSelection = (pageSelection == null) ? PageSelection.ALL : pageSelection;
+	}
+
+	public PageSelection getPageSelection() {
+		return pageSelection;
+	}
+
+	/** writes metrics for each PDF to outdir/basename-metrics.json or .prom
+	 * 
+	 * @param format METRICS_JSON, METRICS_PROMETHEUS or null (don't write)
+	 */
+	public void setMetricsFormat(String format) {
+		if (format != null && !METRICS_JSON.equals(format) && !METRICS_PROMETHEUS.equals(format)) {
+			throw new RuntimeException("metrics format must be "+METRICS_JSON+" or "+METRICS_PROMETHEUS+"; found: "+format);
+		}
+		this.metricsFormat = format;
+	}
+
+	public String getMetricsFormat() {
+		return metricsFormat;
+	}
+
+	/** times and counts for the last (or current) PDF; always recorded
+	 * 
+	 * @return
+	 */
+	public ConversionMetrics getMetrics() {
+		return documentMetrics;
+	}
+
+	/** may be called from page worker threads
+	 * 
+	 * @param pageMetrics
+	 */
+	synchronized void addPageMetrics(ConversionMetrics pageMetrics) {
+		documentMetrics.addPage(pageMetrics);
+	}
+
+	/** waits for the images of this PDF to be written; the wait is added to the IMAGE time
+	 * 
+	 */
+	private void flushImages() {
+		long start = System.nanoTime();
+		getImageEncoder().flush();
+		synchronized (this) {
+			documentMetrics.addTime(ConversionMetrics.Stage.IMAGE, System.nanoTime() - start);
+		}
+	}
+
+	private synchronized void addParseTime(long nanos) {
+		documentMetrics.addTime(ConversionMetrics.Stage.PARSE, nanos);
+	}
+
+	private void writeMetrics() {
+		boolean json = METRICS_JSON.equals(metricsFormat);
+		String metricsFile = inputBasename + "-metrics" + (json ? ".json" : ".prom");
+		try {
+			OutputSink.SinkOutputStream os = getOutputSink().openStream(metricsFile, null);
+			try {
+				String metrics = json ? documentMetrics.toJSON() + "\n" : documentMetrics.toPrometheus();
+				os.write(metrics.getBytes("UTF-8"));
+				os.commit();
+			} finally {
+				os.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write metrics: "+metricsFile, e);
+		}
+	}
+
+	void ensureXMLLogger() {
 		if (useXMLLogger && xmlLogger == null)
 			xmlLogger = new XMLLogger(xmlLoggerLogGlyphs);
 	}
@@ -625,6 +1568,13 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		return true;
 	}
 
+	/** pages stored with storeSVG.
+	 * 
+	 * at most pageWindow pages are in memory (see SpillingPageList); a page that has
+	 * been spilled is read back as a new object, so iterate in order and use set()
+	 * to keep changes
+	 * @return
+	 */
 	public List<SVGSVG> getPageList() {
 		ensureSVGPageList();
 		return svgPageList;
@@ -671,10 +1621,10 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 		return amiFontManager;
 	}
 
-	private void ensureAmiFontManager() {
+	private synchronized void ensureAmiFontManager() {
 		if (amiFontManager == null) {
 			amiFontManager = new NonStandardFontManager();
-			amiFontMap = NonStandardFontManager.readAmiFonts();
+			amiFontMap = FontCache.getAmiFonts(FontFamilySet.STANDARD_UNICODE_FONT_FAMILY_SET_XML);
 			for (String fontName : amiFontMap.keySet()) {
 				AMIFont font = amiFontMap.get(fontName);
 			}
@@ -691,7 +1641,7 @@ public class PDF2SVGConverter extends PDFStreamEngine {
 	}
 
 	
-	File getOrCreateImageDirectory() {
+	synchronized File getOrCreateImageDirectory() {
 		if (imageDirectory == null) {
 			imageDirectory = outdir == null ? null : new File(outdir, IMAGES);
 		}
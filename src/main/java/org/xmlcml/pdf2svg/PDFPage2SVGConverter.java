@@ -26,18 +26,27 @@ import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
+import nu.xom.Attribute;
+import nu.xom.Element;
+
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.encoding.DictionaryEncoding;
 import org.apache.pdfbox.encoding.Encoding;
 import org.apache.pdfbox.pdfviewer.PageDrawer;
@@ -46,6 +55,7 @@ import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDMatrix;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1CFont;
 import org.apache.pdfbox.pdmodel.graphics.PDGraphicsState;
 import org.apache.pdfbox.pdmodel.graphics.PDLineDashPattern;
 import org.apache.pdfbox.pdmodel.graphics.color.PDColorState;
@@ -54,18 +64,19 @@ import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceDictionary;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
 import org.apache.pdfbox.pdmodel.text.PDTextState;
 import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.PDFOperator;
+import org.apache.pdfbox.util.ResourceLoader;
 import org.apache.pdfbox.util.TextPosition;
+import org.apache.pdfbox.util.operator.Invoke;
+import org.apache.pdfbox.util.operator.OperatorProcessor;
 import org.xmlcml.euclid.Angle;
-import org.xmlcml.euclid.Real;
-import org.xmlcml.euclid.Real2;
 import org.xmlcml.euclid.Real2Range;
 import org.xmlcml.euclid.Transform2;
 import org.xmlcml.font.CodePoint;
 import org.xmlcml.font.CodePointSet;
-import org.xmlcml.font.NonStandardFontFamily;
+import org.xmlcml.font.FontCache;
 import org.xmlcml.font.NonStandardFontManager;
 import org.xmlcml.graphics.svg.GraphicsElement.FontStyle;
-import org.xmlcml.graphics.svg.GraphicsElement.FontWeight;
 import org.xmlcml.graphics.svg.SVGClipPath;
 import org.xmlcml.graphics.svg.SVGDefs;
 import org.xmlcml.graphics.svg.SVGElement;
@@ -77,7 +88,6 @@ import org.xmlcml.graphics.svg.SVGShape;
 import org.xmlcml.graphics.svg.SVGText;
 import org.xmlcml.graphics.svg.SVGTitle;
 import org.xmlcml.graphics.svg.SVGUtil;
-import org.xmlcml.graphics.svg.util.ImageIOUtil;
 import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
 
 /** converts a PDPage to SVG
@@ -89,11 +99,24 @@ import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
 public class PDFPage2SVGConverter extends PageDrawer {
 	
 	private static final double DEFAULT_FONT_SIZE = 8.0;
-	private static final int _BOLD_FONT_MIN = 410;
 	private static final String SYMBOL = "Symbol";
 	private static final String ENCODING = "Encoding";
 	private static final String ITALIC = "italic";
 	private static final String CLIP_PATH = "clipPath";
+	private static final String X = "x";
+	private static final String Y = "y";
+	private static final String FONT_SIZE = "font-size";
+	private static final String STROKE_WIDTH = "stroke-width";
+	private static final String TRANSFORM = "transform";
+
+	private static final String PAGE_DRAWER_PROPERTIES = "org/apache/pdfbox/resources/PageDrawer.properties";
+	private static final String INVOKE = "Do";
+	// path construction and painting, clipping, shading and inline images
+	private static final String[] TEXT_ONLY_IGNORED_OPERATORS = {
+		"m", "l", "c", "v", "y", "h", "re",
+		"S", "s", "f", "F", "f*", "B", "B*", "b", "b*", "n",
+		"W", "W*", "sh", "BI",
+	};
 
 	private final static Logger LOG = Logger.getLogger(PDFPage2SVGConverter.class);
 
@@ -109,13 +132,19 @@ public class PDFPage2SVGConverter extends PageDrawer {
 	private BasicStroke basicStroke;
 	private SVGSVG convertedPageSVG;
 	private PDGraphicsState graphicsState;
-	private Matrix testMatrix;
+	// text matrix of the current glyph without translation, reoriented for SVG
+	private float textScaleX;
+	private float textShearY;
+	private float textShearX;
+	private float textScaleY;
+	private TextMatrixClassifier textMatrixClassifier = new TextMatrixClassifier();
 	private PDFont pdFont;
 
 	private String fontFamilyName;
 	private String fontName;
 	
 	private int nPlaces = 3;
+	private AttributeFormatter attributeFormatter = new AttributeFormatter(nPlaces);
 	private PDLineDashPattern dashPattern;
 	private Double lineWidth;
 	private Set<String> clipStringSet;
@@ -124,7 +153,12 @@ public class PDFPage2SVGConverter extends PageDrawer {
 	private Encoding encoding; // to distinguish from content-type encoding
 	private String charname;
 	private Integer charCode = null;
-	private Real2 currentXY;
+	// position of the current glyph in SVG coordinates
+	private double currentX;
+	private double currentY;
+	private double fontSize;
+	// of amiFont; null if it has no font name
+	private FontStyleProfile fontStyleProfile;
 	private String fontSubType;
 	private String textContent;
 	private NonStandardFontManager amiFontManager;
@@ -134,6 +168,9 @@ public class PDFPage2SVGConverter extends PageDrawer {
 	private String lastFontName;
 
 	private HashMap<String, Integer> integerByClipStringMap;
+	// the clip only changes on W/n, q and Q so consecutive glyphs usually share it
+	private Shape lastClipShape;
+	private Map<ClipKey, String> clipStringByClipKeyMap;
 	private SVGElement defs1;
 	private boolean reportedEncodingError = false;
 	private TextPosition textPosition;
@@ -143,7 +180,23 @@ public class PDFPage2SVGConverter extends PageDrawer {
 	private int debugCount = 0;
 	private static int MAX_DEBUG = 0;
 
-	private Set<String> weightSet = new HashSet<String>();
+
+	private int pageNumber;
+	private int imageNumber;
+	private StreamingSVGWriter streamingWriter;
+	private TextRunBuilder textRunBuilder;
+	private StyleClassMap styleClassMap;
+	// true while the operators in TEXT_ONLY_IGNORED_OPERATORS do nothing
+	private boolean textOnly;
+	private FontCache fontCache = new FontCache();
+	private ConversionMetrics pageMetrics = new ConversionMetrics(0);
+	// digests of fonts and other streams shared by the pages of the document
+	private Map<COSStream, byte[]> streamDigestByStreamMap = new IdentityHashMap<COSStream, byte[]>();
+	// null for fonts whose glyphs cannot be stored (see GlyphOutlineCache.createFontKey())
+	private Map<PDFont, String> fontKeyByFontMap = new IdentityHashMap<PDFont, String>();
+	// widths by ISO-8859-1 byte (NaN until first used) for each font dictionary; the
+	// PDFont objects for one dictionary can differ from page to page
+	private Map<COSBase, float[]> byteWidthsByFontMap = new IdentityHashMap<COSBase, float[]>();
 	
 	public PDFPage2SVGConverter() throws IOException {
 		super();
@@ -155,16 +208,95 @@ public class PDFPage2SVGConverter extends PageDrawer {
 	 * @param converter
 	 */
 	public SVGSVG convertPageToSVG(PDPage page, PDF2SVGConverter converter) {
+		return convertPageToSVG(page, converter, converter.pageNumber);
+	}
+
+	/** converts a page; page and image numbering is held here rather than in the converter
+	 * so that several PDFPage2SVGConverters can run at the same time
+	 * 
+	 * @param page
+	 * @param converter
+	 * @param pageNumber used in image filenames
+	 */
+	public SVGSVG convertPageToSVG(PDPage page, PDF2SVGConverter converter, int pageNumber) {
+		this.pageNumber = pageNumber;
+		imageNumber = 0;
 		debugCount = 0;
+		resetClipPaths();
 		pageSize = null;	// reset size for each page
 		this.pdf2svgConverter = converter;
 		this.amiFontManager = converter.getAmiFontManager();
 		amiFontManager.setNullFontDescriptorReport(true);
+		setTextOnly(converter.isTextOnly());
+		fontCache.clear();
+		if (converter.isLowMemory()) {
+			streamDigestByStreamMap.clear();
+			fontKeyByFontMap.clear();
+			byteWidthsByFontMap.clear();
+		}
+		pageMetrics = new ConversionMetrics(pageNumber);
+		long start = System.nanoTime();
+		PageCache pageCache = converter.getPageCache();
+		String cacheKey = null;
+		// a cached page would not report to the logger
+		if (pageCache != null && !converter.useXMLLogger) {
+			cacheKey = PageCache.createKey(page, converter.getSettingsString(), streamDigestByStreamMap);
+			SVGSVG cachedPage = pageCache.get(cacheKey);
+			if (cachedPage != null) {
+				convertedPageSVG = cachedPage;
+				streamingWriter = null;
+				pageMetrics.addTime(ConversionMetrics.Stage.DRAW_PAGE, System.nanoTime() - start);
+				return convertedPageSVG;
+			}
+		}
 		createSVGSVG();
+		streamingWriter = converter.isStreaming() ? new StreamingSVGWriter(convertedPageSVG) : null;
+		textRunBuilder = converter.isCompactText() ? new TextRunBuilder() : null;
+		styleClassMap = converter.isStyleClasses() ? new StyleClassMap() : null;
 		drawPage(page);
+		pageMetrics.addTime(ConversionMetrics.Stage.DRAW_PAGE, System.nanoTime() - start);
+		// streamed pages are incomplete; pages with image files depend on the document
+		if (cacheKey != null && streamingWriter == null && imageNumber == 0) {
+			pageCache.put(cacheKey, convertedPageSVG);
+		}
 		return convertedPageSVG;
 	}
 	
+	/** replaces the graphics operators by ones that do nothing (or restores PageDrawer's).
+	 * 
+	 * paths are not built or painted, clips are not set, images are not decoded
+	 * and Do only runs form XObjects (which may contain text)
+	 * @param textOnly
+	 */
+	private void setTextOnly(boolean textOnly) {
+		if (textOnly == this.textOnly) {
+			return;
+		}
+		if (textOnly) {
+			OperatorProcessor ignoredOperator = new IgnoredOperator();
+			for (String operator : TEXT_ONLY_IGNORED_OPERATORS) {
+				registerOperatorProcessor(operator, ignoredOperator);
+			}
+			registerOperatorProcessor(INVOKE, new Invoke());
+		} else {
+			try {
+				Properties properties = ResourceLoader.loadProperties(PAGE_DRAWER_PROPERTIES, true);
+				for (String operator : TEXT_ONLY_IGNORED_OPERATORS) {
+					registerPageDrawerOperator(properties, operator);
+				}
+				registerPageDrawerOperator(properties, INVOKE);
+			} catch (Exception e) {
+				throw new RuntimeException("Cannot restore graphics operators", e);
+			}
+		}
+		this.textOnly = textOnly;
+	}
+
+	private void registerPageDrawerOperator(Properties properties, String operator) throws Exception {
+		String className = properties.getProperty(operator);
+		registerOperatorProcessor(operator, (OperatorProcessor) Class.forName(className).newInstance());
+	}
+
 	void drawPage(PDPage p) {
 		LOG.trace("startPage");
 		ensurePageSize();
@@ -177,6 +309,10 @@ public class PDFPage2SVGConverter extends PageDrawer {
 				ensurePageSize();
 				// can be very slow - 35 secs/page sometimes
 				processStream(page, resources, page.getContents().getStream());
+				if (pdf2svgConverter.isLowMemory()) {
+					// fonts, images and colour spaces loaded for this page
+					resources.clear();
+				}
 			}
 		} catch (Exception e) {
 			// PDFBox routines have a very bad feature of trapping exceptions
@@ -185,11 +321,12 @@ public class PDFPage2SVGConverter extends PageDrawer {
 			LOG.error("***FAILED " + e);
 			throw new RuntimeException("drawPage", e);
 		}
+		flushTextRun();
 		createDefsForClipPaths();
 		if (pdf2svgConverter.drawBoxesForClipPaths) {
 			drawBoxesForClipPaths();
 		}
-		LOG.trace("WEIGHT "+weightSet);
+		addStyleElement();
 	}
 
 	private void drawBoxesForClipPaths() {
@@ -208,7 +345,7 @@ public class PDFPage2SVGConverter extends PageDrawer {
 				box.setStroke(color[icol]);
 				box.setOpacity(1.0);
 				box.setStrokeWidth(2.0);
-				convertedPageSVG.appendChild(box);
+				addToPage(box);
 				icol = (icol+1) % 6;
 			}
 		}
@@ -285,6 +422,19 @@ public class PDFPage2SVGConverter extends PageDrawer {
     }
 
 
+	/** adds the rules for the classes used on this page (-cssclasses) to the defs
+	 * created by createDefsForClipPaths()
+	 * 
+	 */
+	private void addStyleElement() {
+		if (styleClassMap != null) {
+			Element style = styleClassMap.createStyleElement();
+			if (style != null) {
+				defs1.insertChild(style, 0);
+			}
+		}
+	}
+
 	private void ensureDefs1() {
 /*
 <svg fill-opacity="1" 
@@ -325,21 +475,26 @@ xmlns="http://www.w3.org/2000/svg">
 		charname = null;
 		charWasLogged = false;
 
+		pageMetrics.increment(ConversionMetrics.Counter.GLYPHS);
 		pdFont = textPosition.getFont();
+		long start = System.nanoTime();
 		try {
-			amiFont = amiFontManager.getAmiFontByFont(pdFont);
+			amiFont = fontCache.getAmiFont(pdFont, amiFontManager);
 		} catch (Exception e) {
 			LOG.error("bad font: "+e);
 			return;
 		}
 		setAndProcessFontNameAndFamilyName();
+		pageMetrics.addTime(ConversionMetrics.Stage.FONT, System.nanoTime() - start);
 		debugFont();
 		getCharCodeAndSetEncodingAndCharname();
 
 		SVGText svgText = new SVGText();
 		
 		createGraphicsStateAndPaintAndComposite(svgText);
-		getAndFormatClipPath();
+		if (!textOnly) {
+			getAndFormatClipPath();
+		}
 
 		if (pdf2svgConverter.useXMLLogger) {
 			pdf2svgConverter.xmlLogger.newFont(amiFont);
@@ -356,95 +511,73 @@ xmlns="http://www.w3.org/2000/svg">
 //			convertNonUnicodeCharacterEncodings();
 //			annotateContent(svgText, textContent, charCode, charname, charCode, encoding);
 		}
-		if (SYMBOL.equalsIgnoreCase(fontFamilyName)) {
-			LOG.trace("symbol >> "+charname+"/"+charCode+"/"+Integer.toHexString(charCode)+" w "+pdFont.getFontWidth(charCode));
+		// getFontWidth() is not cheap
+		if (LOG.isTraceEnabled()) {
+			if (SYMBOL.equalsIgnoreCase(fontFamilyName)) {
+				LOG.trace("symbol >> "+charname+"/"+charCode+"/"+Integer.toHexString(charCode)+" w "+pdFont.getFontWidth(charCode));
+			}
+			LOG.trace("Fn: "+fontName+"; Ff: "+fontFamilyName+"; "+textContent+"; "+charCode+"; "+charname+" w "+pdFont.getFontWidth(charCode));
 		}
 		debugChar();
 
-		LOG.trace("Fn: "+fontName+"; Ff: "+fontFamilyName+"; "+textContent+"; "+charCode+"; "+charname+" w "+pdFont.getFontWidth(charCode));
-
 		addContentAndAttributesToSVGText(svgText);
 		changeFontStyles(svgText);
-		convertedPageSVG.appendChild(svgText);
+		if (textRunBuilder != null) {
+			SVGText run = textRunBuilder.add(svgText);
+			if (run != null) {
+				appendToPage(run);
+			}
+		} else {
+			addToPage(svgText);
+		}
 	}
 
-	private void changeFontStyles(SVGText svgText) {
-		useStandardFonts(svgText);
-		computeBold(svgText);
-		computeItalic(svgText);
-		computeFixedPitch(svgText);
+	/** appends a completed element to the page (after any pending text run)
+	 * 
+	 * @param svgElement must not be changed afterwards
+	 */
+	private void addToPage(SVGElement svgElement) {
+		flushTextRun();
+		appendToPage(svgElement);
 	}
 
-	private void computeBold(SVGText svgText) {
-/**	     * The weight of the font.  According to the PDF spec "possible values are
-	     * 100, 200, 300, 400, 500, 600, 700, 800 or 900"  Where a higher number is
-	     * more weight and appears to be more bold. */
-
-		FontWeight fontWeight = FontWeight.NORMAL;
-		Float weight = amiFont.getFontWeightFloat();
-
-		if (weight > 0.0) {
-			String ww = weight.toString();
-			if (!weightSet.contains(ww)) {
-				LOG.trace("WEIGHT "+weight);
-				weightSet .add(ww);
+	private void flushTextRun() {
+		if (textRunBuilder != null) {
+			SVGText run = textRunBuilder.flush();
+			if (run != null) {
+				appendToPage(run);
 			}
 		}
-		if (weight > _BOLD_FONT_MIN) {
-			fontWeight = FontWeight.BOLD;
-		}
-//		amiFont.getOrCreateAMIFontFamily(amiFontManager);
-//		Boolean forceBold = amiFont.isForceBold();
-		Boolean forceBold = (amiFont.getNonStandardFontFamily() == null) ? null : amiFont.getNonStandardFontFamily().isForceBold();
-		if (forceBold != null && forceBold) {
-			fontWeight = FontWeight.BOLD;
-		}
-		if (amiFont.isHeuristicBold()) {
-			fontWeight = FontWeight.BOLD;
-		}
-		svgText.setFontWeight(fontWeight);
 	}
 
-	private void computeFixedPitch(SVGText svgText) {
-
-		Boolean fixedPitch = amiFont.isFixedPitch();
-		if (!fixedPitch) {
-			fixedPitch = amiFont.isHeuristicFixedPitch();
-			LOG.trace("FIXED PITCH: "+fixedPitch);
+	/** appends to the page or writes the element if streaming
+	 * 
+	 * @param svgElement
+	 */
+	private void appendToPage(SVGElement svgElement) {
+		if (styleClassMap != null) {
+			styleClassMap.addClass(svgElement);
 		}
-		if (fixedPitch) {
-			LOG.trace("FIXED PITCH!!!!!!!!!: "+fixedPitch);
-			svgText.setFontFamily(NonStandardFontFamily.DEFAULT_MONOSPACED_FONT);
-//			svgText.debug("FIXED");
+		if (streamingWriter != null) {
+			streamingWriter.writeElement(svgElement);
+		} else {
+			convertedPageSVG.appendChild(svgElement);
 		}
 	}
 
-	private void computeItalic(SVGText svgText) {
-		Boolean italic = amiFont.isItalic();
-		if (!italic) {
-			Float angle = amiFont.getItalicAngle();
-			italic = angle > 0.001;
-		}
-		if (!italic) {
-			italic = amiFont.isHeuristicItalic();
-		}
-		if (italic) {
+	/** writes the styles of the font, which are worked out once per font
+	 * 
+	 * @param svgText
+	 */
+	private void changeFontStyles(SVGText svgText) {
+		FontStyleProfile profile = (fontStyleProfile == null) ? amiFont.getStyleProfile(amiFontManager) : fontStyleProfile;
+		svgText.setFontFamily(profile.getStandardFontFamily());
+		svgText.setFontWeight(profile.getFontWeight());
+		if (profile.isItalic()) {
 			svgText.setFontStyle(FontStyle.ITALIC);
 		}
 	}
 
-	private void useStandardFonts(SVGText svgText) {
-		if (amiFont.isFixedPitch() || amiFont.isHeuristicFixedPitch()) {
-			svgText.setFontFamily(NonStandardFontFamily.DEFAULT_MONOSPACED_FONT);
-		} else if (amiFont.isSerif()) {
-			svgText.setFontFamily(NonStandardFontFamily.DEFAULT_SERIF_FONT);
-		} else if (!amiFont.isSerif()) {
-			svgText.setFontFamily(NonStandardFontFamily.DEFAULT_SANS_SERIF_FONT);
-		} else {
-			
-		}
-	}
-
 	private void debugChar() {
 		if (pdf2svgConverter.debugCharname != null && pdf2svgConverter.debugCharname.equals(charname)) {
 			LOG.debug("Logging charname: "+charname);
@@ -464,14 +597,15 @@ xmlns="http://www.w3.org/2000/svg">
 		if (fontName == null) {
 //			throw new RuntimeException("Null font name: "+amiFont);
 			LOG.error("Null font name: "+amiFont);
+			fontStyleProfile = null;
 			return;
 		} else if (!fontName.equals(lastFontName)) {
 			LOG.trace("font from "+lastFontName+" -> "+fontName);
 			lastFontName = fontName;
 		}
 		fontFamilyName = amiFont.getFontFamilyName();
-		NonStandardFontFamily amiFontFamily = amiFontManager.getFontFamilyByFamilyName(fontFamilyName);
-		amiFont.setNonStandardFontFamily(amiFontFamily);
+		// also sets the NonStandardFontFamily of amiFont, which the encoding lookups read
+		fontStyleProfile = amiFont.getStyleProfile(amiFontManager);
 	}
 
 	private void getCharCodeAndSetEncodingAndCharname() {
@@ -513,7 +647,7 @@ xmlns="http://www.w3.org/2000/svg">
 //				Encoding encoding1 = pdFont.getFontEncoding();
 //				PDFontDescriptor fontDescriptor = amiFont.getFontDescriptor();
 //				COSDictionary cosDict = (COSDictionary) ((pdFont == null) ? null : ((PDSimpleFont) pdFont).getToUnicode());
-				LOG.trace("Null encoding for character: "+charname+" / "+charCode+" at "+currentXY+" font: "+fontName+" / "+
+				LOG.trace("Null encoding for character: "+charname+" / "+charCode+" at ("+currentX+","+currentY+") font: "+fontName+" / "+
 			       fontFamilyName+" / "+amiFont.getBaseFont()+
 			       "\n                FURTHER NULL ENCODING ERRORS HIDDEN");
 				reportedEncodingError = true;
@@ -531,16 +665,17 @@ xmlns="http://www.w3.org/2000/svg">
 		// no point if its already unicode
 		if (codePointSet != null && !codePointSet.isUnicodeEncoded()) {
 			// use charname first
-			CodePoint codePoint = (charname != null) ? codePointSet.getByName(charname) : null;
-			if (codePoint == null) {
-				charCode = textContent.codePointAt(0);
+			int unicode = (charname != null) ? codePointSet.toUnicode(charname) : CodePointSet.NOT_FOUND;
+			if (unicode == CodePointSet.NOT_FOUND) {
+				int code = textContent.codePointAt(0);
+				charCode = code;
 				// try charCode as last resort
-				codePoint = codePointSet.getByDecimal(charCode);
+				unicode = codePointSet.toUnicode(code);
 			}
 			annotateText = true;
-			if (codePoint != null) {
-				charCode = codePoint.getUnicodeDecimal();
-				textContent = String.valueOf((char)(int)charCode);
+			if (unicode != CodePointSet.NOT_FOUND) {
+				charCode = unicode;
+				textContent = String.valueOf((char)unicode);
 				annotateText = false;
 			}
 		}
@@ -552,7 +687,7 @@ xmlns="http://www.w3.org/2000/svg">
 			charname = encoding.getName(charCode);
 			LOG.trace("code "+charCode+" (font: "+fontSubType+" "+fontName+") "+charname);
 		} catch (IOException e1) {
-			LOG.warn("cannot get char encoding "+" at "+currentXY, e1);
+			LOG.warn("cannot get char encoding "+" at ("+currentX+","+currentY+")", e1);
 			annotateText = true;
 		}
 	}                                                                                                    
@@ -627,6 +762,19 @@ xmlns="http://www.w3.org/2000/svg">
 		}
 		String pathString = amiFont.getPathStringByCharnameMap().get(key);
 		LOG.trace("charname: "+charname+" path: "+pathString);
+		GlyphOutlineCache glyphCache = null;
+		String glyphKey = null;
+		if (pathString == null) {
+			glyphCache = pdf2svgConverter.getGlyphOutlineCache();
+			String fontKey = (glyphCache == null) ? null : getFontKey();
+			if (fontKey != null) {
+				glyphKey = GlyphOutlineCache.createKey(fontKey, key);
+				pathString = glyphCache.get(glyphKey);
+				if (pathString != null) {
+					amiFont.getPathStringByCharnameMap().put(key, pathString);
+				}
+			}
+		}
 		if (pathString == null) {
 			ensurePageSize();
 			PDFGraphics2D graphics = new PDFGraphics2D(amiFont);
@@ -669,10 +817,20 @@ xmlns="http://www.w3.org/2000/svg">
 			pathString = graphics.getCurrentPathString();
 			LOG.trace(charname+": created "+pathString);
 			amiFont.getPathStringByCharnameMap().put(key, pathString);
+			if (glyphKey != null) {
+				glyphCache.put(glyphKey, pathString);
+			}
 		}
 		LOG.trace("pathString: "+pathString);
 	}
 
+	private String getFontKey() {
+		if (!fontKeyByFontMap.containsKey(pdFont)) {
+			fontKeyByFontMap.put(pdFont, GlyphOutlineCache.createFontKey(pdFont, streamDigestByStreamMap));
+		}
+		return fontKeyByFontMap.get(pdFont);
+	}
+
 	private void addTooltips(SVGText svgText) {
 		if (pdf2svgConverter.addTooltipDebugTitles) {
 			addTitleChildAsTooltip(svgText);
@@ -688,12 +846,39 @@ xmlns="http://www.w3.org/2000/svg">
 	}
 
 	private void addAttributesToSVGText(float width, SVGText svgText) {
-		setClipPath(svgText, clipString, (Integer) integerByClipStringMap.get(clipString));
+		if (!textOnly) {
+			setClipPath(svgText, clipString, (Integer) integerByClipStringMap.get(clipString));
+		}
 		svgText.setFontFamily(fontFamilyName);
 		setFontName(svgText, fontName);
 		setCharacterWidth(svgText, width);
 		outputHighOrInconsistentCharCodeAttributes(svgText);
-		svgText.format(nPlaces);
+		formatTextPosition(svgText);
+	}
+
+	/** rounds x, y and font-size (and any transform and stroke-width) to nPlaces.
+	 * 
+	 * svgText.format() parses the attributes back to numbers; for the usual unrotated,
+	 * unstroked glyph the values are written directly from currentX, currentY and fontSize
+	 * (replacing, and so moving to the end, the same attributes as format() would)
+	 * @param svgText
+	 */
+	private void formatTextPosition(SVGText svgText) {
+		if (svgText.getAttribute(TRANSFORM) != null || svgText.getAttribute(STROKE_WIDTH) != null) {
+			svgText.format(nPlaces);
+		} else {
+			setAttribute(svgText, X, attributeFormatter.format(currentX));
+			setAttribute(svgText, Y, attributeFormatter.format(currentY));
+			setAttribute(svgText, FONT_SIZE, attributeFormatter.format(fontSize));
+		}
+	}
+
+	private static void setAttribute(SVGElement svgElement, String name, String value) {
+		Attribute attribute = svgElement.getAttribute(name);
+		if (attribute != null) {
+			svgElement.removeAttribute(attribute);
+		}
+		svgElement.addAttribute(new Attribute(name, value));
 	}
 
 	private void ensureHighSurrogatePoints(SVGText svgText) {
@@ -725,8 +910,8 @@ xmlns="http://www.w3.org/2000/svg">
 		}
 	}
 	
-	private void setCharacterWidth(SVGElement svgElement, double width) {
-		PDF2SVGUtil.setSVGXAttribute(svgElement, PDF2SVGUtil.CHARACTER_WIDTH, String.valueOf(width));
+	private void setCharacterWidth(SVGElement svgElement, float width) {
+		PDF2SVGUtil.setSVGXAttribute(svgElement, PDF2SVGUtil.CHARACTER_WIDTH, attributeFormatter.formatWidth(width));
 	}
 	
 	private void setCharCode(SVGText svgText, Integer charCode) {
@@ -784,11 +969,43 @@ xmlns="http://www.w3.org/2000/svg">
 		}
 	}
 
+	/** clip paths are numbered from 1 on each page and written to that page's defs
+	 * 
+	 */
+	private void resetClipPaths() {
+		ensureIntegerByClipStringMap();
+		integerByClipStringMap.clear();
+		ensureClipStringSet();
+		clipStringSet.clear();
+		clipStringByClipKeyMap = new HashMap<ClipKey, String>();
+		lastClipShape = null;
+		clipString = null;
+	}
+
+	/** d-string of the current clip, created only when the clipping Shape changes.
+	 * 
+	 * PDFBox replaces (never alters) the clipping GeneralPath so an identical Shape
+	 * has the same d-string. q copies the clip so shapes are also matched by geometry.
+	 * @return
+	 */
 	private String getAndFormatClipPath() {
 		Shape shape = getGraphicsState().getCurrentClippingPath();
-		SVGPath path = new SVGPath(shape);
-		path.format(nPlaces);
-		clipString = path.getDString();
+		if (shape == lastClipShape && clipString != null) {
+			return clipString;
+		}
+		long start = System.nanoTime();
+		ClipKey clipKey = (shape == null) ? null : new ClipKey(shape);
+		clipString = (clipKey == null) ? null : clipStringByClipKeyMap.get(clipKey);
+		if (clipString == null) {
+			SVGPath path = new SVGPath(shape);
+			path.format(nPlaces);
+			clipString = path.getDString();
+			if (clipKey != null) {
+				clipStringByClipKeyMap.put(clipKey, clipString);
+			}
+		}
+		lastClipShape = shape;
+		pageMetrics.addTime(ConversionMetrics.Stage.CLIP_PATH, System.nanoTime() - start);
 		// old approach
 		ensureClipStringSet();
 		clipStringSet.add(clipString);
@@ -815,7 +1032,7 @@ xmlns="http://www.w3.org/2000/svg">
 	private float getCharacterWidth(PDFont font, String textContent) {
 		float width = 0.0f;
 		try {
-			width = font.getStringWidth(textContent);
+			width = getStringWidth(font, textContent);
 			if (/*Math.abs(1000 - width) < 0.1 && */textContent.equals("I")) {
 //				for (int i = 32; i < 128; i++) {
 //					System.out.print((char)i+": "+font.getStringWidth(String.valueOf((char)i)));
@@ -829,6 +1046,53 @@ xmlns="http://www.w3.org/2000/svg">
 		return width;
 	}
 
+	/** the same as font.getStringWidth(string) but looks up each width only once.
+	 * 
+	 * PDFont sums getFontWidth() over the ISO-8859-1 bytes of the string, so the
+	 * widths are kept by byte for each font dictionary of the document.
+	 * @param font
+	 * @param string
+	 * @return
+	 * @throws IOException
+	 */
+	float getStringWidth(PDFont font, String string) throws IOException {
+		// PDType1CFont overrides getStringWidth() and measures through its CFF metrics
+		if (font instanceof PDType1CFont) {
+			return font.getStringWidth(string);
+		}
+		float[] widths = ensureByteWidths(font);
+		float totalWidth = 0;
+		int length = string.length();
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			int b = c;
+			if (c > 0xff) {
+				// unmappable; a surrogate pair is one character
+				b = '?';
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+					i++;
+				}
+			}
+			float width = widths[b];
+			if (Float.isNaN(width)) {
+				width = font.getFontWidth(new byte[]{(byte) b}, 0, 1);
+				widths[b] = width;
+			}
+			totalWidth += width;
+		}
+		return totalWidth;
+	}
+
+	private float[] ensureByteWidths(PDFont font) {
+		float[] widths = byteWidthsByFontMap.get(font.getCOSObject());
+		if (widths == null) {
+			widths = new float[256];
+			Arrays.fill(widths, Float.NaN);
+			byteWidthsByFontMap.put(font.getCOSObject(), widths);
+		}
+		return widths;
+	}
+
 	private void annotateUnusualCharacters(SVGText svgText) {
 		String s = NonStandardFontManager.BADCHAR_S+(int)charCode+NonStandardFontManager.BADCHAR_E;
 		if (pdf2svgConverter.useXMLLogger && !charWasLogged) {
@@ -854,16 +1118,13 @@ xmlns="http://www.w3.org/2000/svg">
 	 * @param paint
 	 * @return CCC as #rrggbb (alpha is currently discarded)
 	 */
-	private static String getCSSColor(Paint paint) {
+	private String getCSSColor(Paint paint) {
 		String colorS = null;
 		if (paint instanceof Color) {
-			int r = ((Color) paint).getRed();
-			int g = ((Color) paint).getGreen();
-			int b = ((Color) paint).getBlue();
-			// int a = ((Color) paint).getAlpha();
-			int rgb = (r<<16)+(g<<8)+b;
-			colorS = String.format("#%06x", rgb);
-			if (rgb != 0) {
+			// alpha is in the top byte
+			int rgb = ((Color) paint).getRGB() & 0xffffff;
+			colorS = attributeFormatter.formatColor(rgb);
+			if (rgb != 0 && LOG.isTraceEnabled()) {
 				LOG.trace("Paint "+rgb+" "+colorS);
 			}
 		}
@@ -871,34 +1132,18 @@ xmlns="http://www.w3.org/2000/svg">
 	}
 
 	private double getFontSizeAndSetNotZeroRotations(SVGText svgText) {
-		AffineTransform at = testMatrix.createAffineTransform();
 		PDMatrix fontMatrix = pdFont.getFontMatrix();
-		at.scale(fontMatrix.getValue(0, 0) * 1000f,
-				fontMatrix.getValue(1, 1) * 1000f);
-		double scalex = at.getScaleX();
-		double scaley = at.getScaleY();
-		double scale = Math.sqrt(scalex * scaley);
-		Transform2 t2 = new Transform2(at);
-		
-		int angleDeg =0;
-		Angle angle = t2.getAngleOfRotationNew();
+		textMatrixClassifier.classify(textScaleX, textShearY, textShearX, textScaleY,
+				fontMatrix.getValue(0, 0) * 1000f, fontMatrix.getValue(1, 1) * 1000f);
+		double scale = textMatrixClassifier.getFontSize();
+		Angle angle = textMatrixClassifier.getAngle();
 		if (angle != null) {
-			angleDeg = Math.round((float)angle.getDegrees());
-			if (!Real.isZero(angleDeg, 0.0001)) LOG.trace("ANG "+angleDeg);
-		}
-		Angle skew = t2.getAngleOfSkew(0.001);
-		if (skew != null) {
-			double skewDeg = Math.round((float)angle.getDegrees());
-			if (!Real.isZero(skewDeg, 0.0001)) LOG.trace("SKEW "+skewDeg+" "+charCode);
-		}
-		if (angleDeg != 0) {
-			LOG.trace("Transform "+t2+" "+svgText.getText()+" "+at+" "+PDF2SVGUtil.getRealArray(fontMatrix));
-			// do this properly later (only if scales are anisotropic and so far no evidence)
-			scale = Math.sqrt(Math.abs(t2.elementAt(0, 1)*t2.elementAt(1, 0)));
+			LOG.trace("Transform "+textMatrixClassifier.getTransform()+" "+svgText.getText()+" "+PDF2SVGUtil.getRealArray(fontMatrix));
 			Transform2 t2a = Transform2.getRotationAboutPoint(angle, svgText.getXY());
 			svgText.setTransform(t2a);
 		}
 		svgText.setFontSize(scale);
+		fontSize = scale;
 		if (scale < 1) {
 			LOG.trace("scale "+scale);
 		}
@@ -912,20 +1157,23 @@ xmlns="http://www.w3.org/2000/svg">
 	 */
 	private void createAndReOrientateTextPosition(SVGText svgText) {
 		ensurePageSize();
-		testMatrix = textPosition.getTextPos().copy();
-		float x = testMatrix.getXPosition();
+		// read in place; the translation is not needed, only the scaling and shearing
+		Matrix textPos = textPosition.getTextPos();
+		float x = textPos.getXPosition();
 		// the 0,0-reference has to be moved from the lower left (PDF) to
 		// the upper left (AWT-graphics)
-		float y = pageSize.height - testMatrix.getYPosition();
-		// Set translation to 0,0. We only need the scaling and shearing
-		testMatrix.setValue(2, 0, 0);
-		testMatrix.setValue(2, 1, 0);
+		float y = pageSize.height - textPos.getYPosition();
+		textScaleX = textPos.getValue(0, 0);
+		textScaleY = textPos.getValue(1, 1);
 		// because of the moved 0,0-reference, we have to shear in the
 		// opposite direction
-		testMatrix.setValue(0, 1, (-1) * testMatrix.getValue(0, 1));
-		testMatrix.setValue(1, 0, (-1) * testMatrix.getValue(1, 0));
-		currentXY = new Real2(x, y);
-		svgText.setXY(currentXY);
+		textShearY = (-1) * textPos.getValue(0, 1);
+		textShearX = (-1) * textPos.getValue(1, 0);
+		currentX = x;
+		currentY = y;
+		// as setXY() without a Real2 per glyph
+		svgText.setX(currentX);
+		svgText.setY(currentY);
 	}
 
 	private void createGraphicsStateAndPaintAndComposite(SVGText svgText) {
@@ -1015,6 +1263,7 @@ xmlns="http://www.w3.org/2000/svg">
 		if (windingRule != null) {
 			generalPath.setWindingRule(windingRule);
 		}
+		pageMetrics.increment(ConversionMetrics.Counter.PATHS);
 		SVGPath svgPath = new SVGPath(generalPath);
 		clipString = getAndFormatClipPath();
 		svgPath.setClipPath(clipString);
@@ -1029,7 +1278,7 @@ xmlns="http://www.w3.org/2000/svg">
 		}
 		svgPath.setStrokeWidth(lineWidth);
 		svgPath.format(nPlaces);
-		convertedPageSVG.appendChild(svgPath);
+		addToPage(svgPath);
 		generalPath.reset();
 	}
 
@@ -1082,6 +1331,8 @@ xmlns="http://www.w3.org/2000/svg">
 //								.getStrokeJavaComposite().toString(),
 //						getGraphicsState().getCurrentClippingPath().toString());
 		if (awtImage instanceof BufferedImage) {
+			pageMetrics.increment(ConversionMetrics.Counter.IMAGES);
+			long start = System.nanoTime();
 			Transform2 t2 = new Transform2(at);
 			BufferedImage bImage = (BufferedImage) awtImage;
 			LOG.trace("IMAGE: x="+bImage.getMinX()+" y="+bImage.getMinY()+" h="+bImage.getHeight()+" w="+bImage.getWidth());
@@ -1092,14 +1343,21 @@ xmlns="http://www.w3.org/2000/svg">
 			} else {
 				createImage(t2, bImage);
 			}
+			pageMetrics.addTime(ConversionMetrics.Stage.IMAGE, System.nanoTime() - start);
 		} else {
 			LOG.warn("Image not incorporated");
 		}
 	}
 
 	private String writeImage(BufferedImage bImage) {
-		pdf2svgConverter.imageNumber++;
+		imageNumber++;
 		String filename = null;
+		OutputSink outputSink = pdf2svgConverter.getOutputSink();
+		if (!outputSink.isDirectory()) {
+			filename = createImageFilename();
+			pdf2svgConverter.getImageEncoder().encode(bImage, outputSink, PDF2SVGConverter.IMAGES+"/"+filename);
+			return filename;
+		}
 		File imageDirectory = pdf2svgConverter.getOrCreateImageDirectory();
 		if (imageDirectory != null) {
 			filename = createImageFilename();
@@ -1109,13 +1367,13 @@ xmlns="http://www.w3.org/2000/svg">
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-			ImageIOUtil.writeImageQuietly(bImage, imageFile);
+			pdf2svgConverter.getImageEncoder().encode(bImage, imageFile);
 		}
 		return filename;
 	}
 
 	private String createImageFilename() {
-		return pdf2svgConverter.inputBasename+".p"+pdf2svgConverter.pageNumber+".i"+pdf2svgConverter.imageNumber+".png";
+		return pdf2svgConverter.inputBasename+".p"+pageNumber+".i"+imageNumber+"."+pdf2svgConverter.getImageEncoder().getFormat();
 	}
 
 	private void createImage(Transform2 t2, BufferedImage bImage) {
@@ -1123,7 +1381,7 @@ xmlns="http://www.w3.org/2000/svg">
 		svgImage.setTransform(t2);
 		try {
 			svgImage.readImageDataIntoSrcValue(bImage, SVGImage.IMAGE_PNG);
-			convertedPageSVG.appendChild(svgImage);
+			addToPage(svgImage);
 		} catch (Exception e) {
 			LOG.error("Cannot convert image, skipping "+e);
 		}
@@ -1135,7 +1393,7 @@ xmlns="http://www.w3.org/2000/svg">
 		try {
 			svgImage.setHref(filename);
 			svgImage.setXYWidthHeight(bImage);
-			convertedPageSVG.appendChild(svgImage);
+			addToPage(svgImage);
 		} catch (Exception e) {
 			LOG.error("Cannot convert image, skipping "+e);
 		}
@@ -1166,6 +1424,30 @@ xmlns="http://www.w3.org/2000/svg">
 		return convertedPageSVG;
 	}
 
+	/** font lookups for the pages converted so far
+	 * 
+	 * @return
+	 */
+	public FontCache getFontCache() {
+		return fontCache;
+	}
+
+	/** times and counts for the last page; PDF2SVGConverter adds the serialization
+	 * 
+	 * @return
+	 */
+	public ConversionMetrics getPageMetrics() {
+		return pageMetrics;
+	}
+
+	/** non-null if the last page was streamed; convertedPageSVG then only holds the defs
+	 * 
+	 * @return
+	 */
+	StreamingSVGWriter getStreamingSVGWriter() {
+		return streamingWriter;
+	}
+
 	@Override
 	public void setStroke(BasicStroke basicStroke) {
 		this.basicStroke = basicStroke;
@@ -1179,4 +1461,79 @@ xmlns="http://www.w3.org/2000/svg">
 
 
 	
+	/** used for the graphics operators in text-only mode
+	 * 
+	 */
+	private static class IgnoredOperator extends OperatorProcessor {
+
+		@Override
+		public void process(PDFOperator operator, List<COSBase> arguments) {
+		}
+	}
+
+	/** geometry of a clipping Shape (segment types, coordinates and winding rule)
+	 * 
+	 */
+	private static class ClipKey {
+
+		private int windingRule;
+		private int[] types;
+		private double[] coords;
+		private int hashCode;
+
+		ClipKey(Shape shape) {
+			PathIterator pathIterator = shape.getPathIterator(null);
+			windingRule = pathIterator.getWindingRule();
+			int nSegments = 0;
+			int nCoords = 0;
+			types = new int[16];
+			coords = new double[96];
+			double[] segment = new double[6];
+			for (; !pathIterator.isDone(); pathIterator.next()) {
+				int type = pathIterator.currentSegment(segment);
+				if (nSegments == types.length) {
+					types = Arrays.copyOf(types, 2 * nSegments);
+				}
+				if (nCoords + 6 > coords.length) {
+					coords = Arrays.copyOf(coords, 2 * coords.length);
+				}
+				types[nSegments++] = type;
+				int n = getCoordinateCount(type);
+				System.arraycopy(segment, 0, coords, nCoords, n);
+				nCoords += n;
+			}
+			types = Arrays.copyOf(types, nSegments);
+			coords = Arrays.copyOf(coords, nCoords);
+			hashCode = 31 * (31 * windingRule + Arrays.hashCode(types)) + Arrays.hashCode(coords);
+		}
+
+		private static int getCoordinateCount(int type) {
+			switch (type) {
+			case PathIterator.SEG_MOVETO:
+			case PathIterator.SEG_LINETO:
+				return 2;
+			case PathIterator.SEG_QUADTO:
+				return 4;
+			case PathIterator.SEG_CUBICTO:
+				return 6;
+			default:
+				return 0;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ClipKey)) {
+				return false;
+			}
+			ClipKey other = (ClipKey) obj;
+			return hashCode == other.hashCode && windingRule == other.windingRule &&
+					Arrays.equals(types, other.types) && Arrays.equals(coords, other.coords);
+		}
+	}
 }
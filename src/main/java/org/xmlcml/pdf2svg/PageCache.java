@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nu.xom.Builder;
+import nu.xom.Document;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+/** on-disk cache of converted pages, shared by all documents and threads.
+ *
+ * Identical pages (licence pages, cover sheets, advertisements) recur in many PDFs.
+ * The key is a SHA-1 of the page's content stream(s), its resources (fonts,
+ * XObjects, ... followed recursively), MediaBox, CropBox and rotation, and the
+ * converter options. On a hit PDFPage2SVGConverter returns the stored page
+ * without interpreting the content stream.
+ *
+ * Each page is a gzipped unindented SVG file named by its key. Files are touched
+ * when read, and the least recently used are deleted when the total size goes
+ * over maxBytes. The directory may be shared between runs (and processes); a file
+ * that disappears is simply a miss, and a file stored by another process is found
+ * when its key is not in the index and is then added to it.
+ *
+ * @author pm286
+ *
+ */
+public class PageCache {
+
+	private final static Logger LOG = Logger.getLogger(PageCache.class);
+
+	public static final int DEFAULT_MAX_MEGABYTES = 256;
+
+	private static final String SUFFIX = ".svg.gz";
+	private static final String PART = ".part";
+	private static final String ENCODING = "UTF-8";
+
+	private File directory;
+	private long maxBytes;
+	// key -> size in bytes, least recently used first
+	private LinkedHashMap<String, Long> sizeByKeyMap;
+	private long totalBytes;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param directory created if necessary; existing entries are kept
+	 * @param maxMegabytes
+	 */
+	public PageCache(File directory, int maxMegabytes) {
+		this(directory, toBytes(maxMegabytes));
+	}
+
+	PageCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		directory.mkdirs();
+		if (!directory.isDirectory()) {
+			throw new RuntimeException("Cannot create page cache directory: "+directory);
+		}
+		sizeByKeyMap = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		readDirectory();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** key for a page converted with the given options.
+	 *
+	 * streamDigestMap remembers the digests of streams (e.g. embedded fonts) so that
+	 * resources shared by the pages of a document are only read once; it should not
+	 * outlive the document
+	 * @param page
+	 * @param settings options which change the SVG (see PDF2SVGConverter.getSettingsString())
+	 * @param streamDigestMap
+	 * @return hex SHA-1
+	 */
+	public static String createKey(PDPage page, String settings, Map<COSStream, byte[]> streamDigestMap) {
+		MessageDigest digest = ConversionCheckpoint.createDigest();
+		try {
+			digest.update(settings.getBytes(ENCODING));
+			COSDigest.update(digest, page.getCOSDictionary().getDictionaryObject(COSName.CONTENTS), streamDigestMap);
+			PDResources resources = page.findResources();
+			COSDigest.update(digest, resources == null ? null : resources.getCOSDictionary(), streamDigestMap);
+			COSDigest.update(digest, getCOSArray(page.findMediaBox()), streamDigestMap);
+			COSDigest.update(digest, getCOSArray(page.findCropBox()), streamDigestMap);
+			digest.update(String.valueOf(page.findRotation()).getBytes(ENCODING));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create page key", e);
+		}
+		return ConversionCheckpoint.toHex(digest.digest());
+	}
+
+	/** stored page for key or null
+	 *
+	 * @param key
+	 * @return a new SVGSVG
+	 */
+	public SVGSVG get(String key) {
+		File file = getFile(key);
+		boolean indexed;
+		synchronized (this) {
+			indexed = sizeByKeyMap.get(key) != null;
+		}
+		if (!indexed && !file.isFile()) {
+			synchronized (this) {
+				misses++;
+			}
+			return null;
+		}
+		SVGSVG page = null;
+		try {
+			page = read(file);
+		} catch (Exception e) {
+			LOG.debug("cannot read cached page "+file+": "+e);
+		}
+		synchronized (this) {
+			if (page == null) {
+				misses++;
+				remove(key);
+				// also if it was not indexed
+				file.delete();
+			} else {
+				hits++;
+				file.setLastModified(System.currentTimeMillis());
+				if (sizeByKeyMap.get(key) == null) {
+					// stored by another process
+					long size = file.length();
+					sizeByKeyMap.put(key, size);
+					totalBytes += size;
+					evict();
+				}
+			}
+		}
+		return page;
+	}
+
+	/** stores page under key, evicting least recently used pages if necessary
+	 *
+	 * @param key
+	 * @param page
+	 */
+	public void put(String key, SVGSVG page) {
+		File file = getFile(key);
+		File partFile = new File(directory, key + SUFFIX + PART + Thread.currentThread().getId());
+		try {
+			write(page, partFile);
+		} catch (IOException e) {
+			partFile.delete();
+			LOG.warn("Cannot cache page: "+e);
+			return;
+		}
+		synchronized (this) {
+			if ((file.exists() && !file.delete()) || !partFile.renameTo(file)) {
+				partFile.delete();
+				return;
+			}
+			Long oldSize = sizeByKeyMap.put(key, file.length());
+			totalBytes += file.length() - (oldSize == null ? 0 : oldSize);
+			evict();
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return (total == 0) ? 0.0 : (double) hits / (double) total;
+	}
+
+	/**
+	 * @return pages in the cache
+	 */
+	public synchronized int size() {
+		return sizeByKeyMap.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/** deletes all cached pages; the counters are kept
+	 *
+	 */
+	public synchronized void clear() {
+		for (String key : new ArrayList<String>(sizeByKeyMap.keySet())) {
+			remove(key);
+		}
+	}
+
+	private static long toBytes(int maxMegabytes) {
+		if (maxMegabytes < 1) {
+			throw new RuntimeException("page cache size must be >= 1 MB; found: "+maxMegabytes);
+		}
+		return maxMegabytes * 1024L * 1024L;
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	private void remove(String key) {
+		Long size = sizeByKeyMap.remove(key);
+		if (size != null) {
+			totalBytes -= size;
+			getFile(key).delete();
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = sizeByKeyMap.entrySet().iterator();
+		// always keep the page just added
+		while (totalBytes > maxBytes && sizeByKeyMap.size() > 1) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			LOG.trace("evicting cached page "+eldest.getKey());
+			getFile(eldest.getKey()).delete();
+			totalBytes -= eldest.getValue();
+			iterator.remove();
+		}
+	}
+
+	/** lists the existing entries, oldest first
+	 *
+	 */
+	private void readDirectory() {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				long diff = file1.lastModified() - file2.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			sizeByKeyMap.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+			totalBytes += file.length();
+		}
+		evict();
+		LOG.debug("page cache "+directory+": "+sizeByKeyMap.size()+" pages, "+totalBytes+" bytes");
+	}
+
+	private static void write(SVGSVG page, File file) throws IOException {
+		// unindented, so that reading it back creates no whitespace text nodes
+		OutputStream os = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			SVGSerializer serializer = new SVGSerializer(os, ENCODING);
+			Document document = page.getDocument();
+			document = (document == null) ? new Document(page) : document;
+			serializer.write(document);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static SVGSVG read(File file) throws Exception {
+		InputStream is = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return (SVGSVG) SVGElement.readAndCreateSVG(new Builder().build(is).getRootElement());
+		} finally {
+			is.close();
+		}
+	}
+
+	private static COSArray getCOSArray(PDRectangle rectangle) {
+		return rectangle == null ? null : rectangle.getCOSArray();
+	}
+
+	@Override
+	public String toString() {
+		return "page cache: "+hits+" hits, "+misses+" misses, "+sizeByKeyMap.size()+" pages, "+totalBytes+" bytes";
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+/** converts a contiguous range of pages of a PDF file on a worker thread.
+ *
+ * PDDocument and PageDrawer are not threadsafe so each worker reads its own
+ * copy of the document and has its own PDFPage2SVGConverter. The fontManager
+ * and XMLLogger are shared through the PDF2SVGConverter.
+ *
+ * @author pm286
+ *
+ */
+class PageRangeConverter implements Callable<List<SVGSVG>> {
+
+	private final static Logger LOG = Logger.getLogger(PageRangeConverter.class);
+
+	private PDF2SVGConverter converter;
+	private File inputFile;
+	private List<Integer> pageNumberList;
+	private int pageWindow;
+
+	/**
+	 * @param converter
+	 * @param inputFile
+	 * @param pageNumberList
+	 * @param pageWindow maximum stored pages this worker keeps in memory
+	 */
+	PageRangeConverter(PDF2SVGConverter converter, File inputFile, List<Integer> pageNumberList, int pageWindow) {
+		this.converter = converter;
+		this.inputFile = inputFile;
+		this.pageNumberList = pageNumberList;
+		this.pageWindow = pageWindow;
+	}
+
+	/** converts (and writes) the pages in order
+	 *
+	 * stored pages are spilled to disk as they are converted, so the caller must
+	 * clear() the list when it has read them
+	 * @return the SVG pages if converter.storeSVG else empty list
+	 */
+	public List<SVGSVG> call() throws Exception {
+		SpillingPageList svgPageList = new SpillingPageList(pageWindow);
+		if (pageNumberList.isEmpty()) {
+			return svgPageList;
+		}
+		boolean completed = false;
+		PDDocument document = converter.readDocument(inputFile);
+		try {
+			@SuppressWarnings("unchecked")
+			List<PDPage> pdPages = (List<PDPage>) document.getDocumentCatalog().getAllPages();
+			PDFPage2SVGConverter pageConverter = new PDFPage2SVGConverter();
+			for (Integer pageNumber : pageNumberList) {
+				converter.checkInterrupted(pageNumber);
+				LOG.trace("page "+pageNumber+" on "+Thread.currentThread().getName());
+				if (converter.useXMLLogger) {
+					converter.xmlLogger.newPDFPage(pageNumber);
+				}
+				SVGSVG svgPage = converter.convertPage(pageConverter, pdPages.get(pageNumber - 1), pageNumber);
+				if (converter.writeFile) {
+					converter.writeFile(pageConverter, svgPage, pageNumber);
+				}
+				converter.addPageMetrics(pageConverter.getPageMetrics());
+				converter.checkHeap(pageNumber);
+				if (converter.storeSVG) {
+					svgPageList.add(svgPage);
+				}
+			}
+			LOG.debug(pageConverter.getFontCache());
+			completed = true;
+		} finally {
+			document.close();
+			if (!completed) {
+				svgPageList.clear();
+			}
+		}
+		return svgPageList;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/** pages of a PDF to convert, resolved when the number of pages is known.
+ *
+ * A selection is a comma-separated list of items:
+ *   7       page 7
+ *   2-5     pages 2 to 5
+ *   10-     page 10 to the end
+ *   first:N the first N pages
+ *   last:N  the last N pages
+ *   all     every page (the default)
+ * e.g. "first:2,last:1". Pages outside the document are ignored.
+ *
+ * On the command line a selection can be given for all files with -pages or
+ * for a single file as file.pdf#pages=first:2
+ *
+ * @author pm286
+ *
+ */
+public class PageSelection {
+
+	public static final String FILE_SUFFIX = "#pages=";
+
+	private static final String ALL_PAGES = "all";
+	private static final String FIRST = "first:";
+	private static final String LAST = "last:";
+	private static final int END = Integer.MAX_VALUE;
+
+	public static final PageSelection ALL = new PageSelection(ALL_PAGES);
+
+	private String spec;
+	// each item is {start, end}; negative values count from the end (-1 is the last page)
+	private List<int[]> rangeList;
+
+	private PageSelection(String spec) {
+		this.spec = spec;
+		rangeList = new ArrayList<int[]>();
+		for (String item : spec.split(",")) {
+			rangeList.add(parseItem(item.trim(), spec));
+		}
+	}
+
+	/**
+	 * @param spec see class description
+	 * @return
+	 * @throws RuntimeException if spec cannot be parsed
+	 */
+	public static PageSelection parse(String spec) {
+		if (spec == null || spec.trim().length() == 0) {
+			throw new RuntimeException("empty page selection");
+		}
+		return new PageSelection(spec.trim());
+	}
+
+	private static int[] parseItem(String item, String spec) {
+		try {
+			if (item.equals(ALL_PAGES)) {
+				return new int[]{1, END};
+			} else if (item.startsWith(FIRST)) {
+				return new int[]{1, parsePositive(item.substring(FIRST.length()))};
+			} else if (item.startsWith(LAST)) {
+				return new int[]{-parsePositive(item.substring(LAST.length())), -1};
+			}
+			int idx = item.indexOf("-");
+			if (idx == -1) {
+				int page = parsePositive(item);
+				return new int[]{page, page};
+			}
+			int start = parsePositive(item.substring(0, idx));
+			String endString = item.substring(idx + 1).trim();
+			int end = endString.length() == 0 ? END : parsePositive(endString);
+			if (end < start) {
+				throw new RuntimeException("end before start");
+			}
+			return new int[]{start, end};
+		} catch (RuntimeException e) {
+			throw new RuntimeException("Bad page selection '"+item+"' in: "+spec, e);
+		}
+	}
+
+	private static int parsePositive(String s) {
+		int n = Integer.parseInt(s.trim());
+		if (n < 1) {
+			throw new RuntimeException("page numbers and counts start at 1");
+		}
+		return n;
+	}
+
+	/** selected pages of a document
+	 *
+	 * @param pageCount pages in document
+	 * @return page numbers (1-based) in ascending order without duplicates
+	 */
+	public List<Integer> getPageNumbers(int pageCount) {
+		TreeSet<Integer> pageNumberSet = new TreeSet<Integer>();
+		for (int[] range : rangeList) {
+			int start = range[0] < 0 ? pageCount + range[0] + 1 : range[0];
+			int end = range[1] < 0 ? pageCount + range[1] + 1 : Math.min(range[1], pageCount);
+			for (int page = Math.max(start, 1); page <= end; page++) {
+				pageNumberSet.add(page);
+			}
+		}
+		return new ArrayList<Integer>(pageNumberSet);
+	}
+
+	public boolean isAll() {
+		return ALL_PAGES.equals(spec);
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
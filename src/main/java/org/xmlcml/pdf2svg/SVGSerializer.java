@@ -36,41 +36,63 @@ public class SVGSerializer extends Serializer {
 	}
 
 
+	/** replacement for each ASCII character (null if written as is) */
+	private static final String[] ASCII_ESCAPES = new String[128];
+	static {
+		ASCII_ESCAPES['&'] = "&amp;";
+		ASCII_ESCAPES['<'] = "&lt;";
+		ASCII_ESCAPES['>'] = "&gt;";
+		ASCII_ESCAPES['\''] = "&apos;";
+		ASCII_ESCAPES['"'] = "&quot;";
+	}
+
+	// reused for each text node; a serializer is used by one thread
+	private StringBuilder escapeBuilder = new StringBuilder();
+
 	@Override
 	/**
 	 * replaces occurrences of (char)12345 by &#12345; in outputStream
+	 * 
+	 * and escapes the XML characters. Runs of characters which need no escaping are
+	 * copied in bulk and text with none is written without copying.
 	 */
 	public void write(Text text) throws IOException {
 		String s = text.getValue();
-		LOG.trace(s.length());
-		StringBuilder sb = new StringBuilder();
-		int codePointCount = s.codePointCount(0, s.length());
-		int charIndex = 0;
-		for (int i = 0; i < codePointCount; i++) {
-			int codepoint = s.codePointAt(charIndex);
-			int charCount = Character.charCount(codepoint);
-			LOG.trace(codepoint+" "+charCount);
-			charIndex += charCount;
-			if (codepoint > 127) {
-				sb.append("&#");
-				sb.append(codepoint);
-				sb.append(";");
-// escape the main XML characters				
-			} else if (codepoint == (char)'&') {
-				sb.append("&amp;");
-			} else if (codepoint == (char)'<') {
-				sb.append("&lt;");
-			} else if (codepoint ==(char)'>') {
-				sb.append("&gt;");
-			} else if (codepoint ==(char)'\'') {
-				sb.append("&apos;");
-			} else if (codepoint ==(char)'"') {
-				sb.append("&quot;");
+		int length = s.length();
+		int i = 0;
+		while (i < length && !needsEscape(s.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			writeRaw(s);
+			return;
+		}
+		StringBuilder sb = escapeBuilder;
+		sb.setLength(0);
+		int start = 0;
+		while (i < length) {
+			char c = s.charAt(i);
+			if (!needsEscape(c)) {
+				i++;
+				continue;
+			}
+			sb.append(s, start, i);
+			if (c < 128) {
+				sb.append(ASCII_ESCAPES[c]);
+				i++;
 			} else {
-				sb.append((char)codepoint);
+				int codepoint = s.codePointAt(i);
+				sb.append("&#").append(codepoint).append(';');
+				i += Character.charCount(codepoint);
 			}
+			start = i;
 		}
+		sb.append(s, start, length);
 		writeRaw(sb.toString());
 	}
 
+	private static boolean needsEscape(char c) {
+		return c >= 128 || ASCII_ESCAPES[c] != null;
+	}
+
 }
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nu.xom.Builder;
+import nu.xom.Document;
+import nu.xom.Serializer;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+/** list of SVG pages which keeps at most window pages in memory.
+ *
+ * When a page is added beyond the window the least recently used page is
+ * written (once) to a gzipped XML file in a temporary directory and dropped.
+ * get() reads a spilled page back, which may spill another. Iterating in order
+ * therefore needs memory for only window pages.
+ *
+ * A page read back is a new SVGSVG, so changes made to a page after it has
+ * been spilled are lost unless the page is stored again with set().
+ * clear() deletes the files. Otherwise they are deleted when the JVM exits: only
+ * the directory is registered with deleteOnExit(), and one shutdown hook empties
+ * the directories of all lists not yet cleared.
+ *
+ * @author pm286
+ *
+ */
+public class SpillingPageList extends AbstractList<SVGSVG> {
+
+	private final static Logger LOG = Logger.getLogger(SpillingPageList.class);
+
+	public static final int DEFAULT_WINDOW = 32;
+
+	private static final String ENCODING = "UTF-8";
+	private static final String SUFFIX = ".svg.gz";
+
+	// spill directories not yet cleared; emptied by the shutdown hook
+	private static Set<File> spillDirectorySet = new HashSet<File>();
+	private static boolean shutdownHookAdded;
+
+	private int window;
+	private int size;
+	// resident pages in least recently used order
+	private LinkedHashMap<Integer, SVGSVG> pageByIndexMap;
+	private List<File> spillFileList;
+	private File spillDirectory;
+	private int spillCount;
+	private int reloadCount;
+
+	/**
+	 * @param window maximum pages in memory (>= 1)
+	 */
+	public SpillingPageList(int window) {
+		if (window < 1) {
+			throw new RuntimeException("page window must be >= 1; found: "+window);
+		}
+		this.window = window;
+		pageByIndexMap = new LinkedHashMap<Integer, SVGSVG>(16, 0.75f, true);
+		spillFileList = new ArrayList<File>();
+	}
+
+	public SpillingPageList() {
+		this(DEFAULT_WINDOW);
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized boolean add(SVGSVG page) {
+		spillFileList.add(null);
+		size++;
+		putResident(size - 1, page);
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public synchronized SVGSVG get(int index) {
+		checkIndex(index);
+		SVGSVG page = pageByIndexMap.get(index);
+		if (page == null) {
+			page = readPage(spillFileList.get(index));
+			reloadCount++;
+			putResident(index, page);
+		}
+		return page;
+	}
+
+	/** replaces a page (e.g. after changing a page which may have been spilled)
+	 *
+	 */
+	@Override
+	public synchronized SVGSVG set(int index, SVGSVG page) {
+		SVGSVG oldPage = get(index);
+		deleteSpillFile(index);
+		putResident(index, page);
+		return oldPage;
+	}
+
+	/** removes all pages and deletes the spilled files
+	 *
+	 */
+	@Override
+	public synchronized void clear() {
+		for (int i = 0; i < spillFileList.size(); i++) {
+			deleteSpillFile(i);
+		}
+		spillFileList.clear();
+		pageByIndexMap.clear();
+		size = 0;
+		modCount++;
+		if (spillDirectory != null) {
+			spillDirectory.delete();
+			synchronized (spillDirectorySet) {
+				spillDirectorySet.remove(spillDirectory);
+			}
+			spillDirectory = null;
+		}
+	}
+
+	/**
+	 * @return pages written to disk
+	 */
+	public synchronized int getSpillCount() {
+		return spillCount;
+	}
+
+	/**
+	 * @return pages read back from disk
+	 */
+	public synchronized int getReloadCount() {
+		return reloadCount;
+	}
+
+	/**
+	 * @return pages currently in memory
+	 */
+	public synchronized int getResidentCount() {
+		return pageByIndexMap.size();
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("page "+index+" of "+size);
+		}
+	}
+
+	private void putResident(int index, SVGSVG page) {
+		pageByIndexMap.put(index, page);
+		if (pageByIndexMap.size() > window) {
+			Iterator<Integer> iterator = pageByIndexMap.keySet().iterator();
+			Integer eldest = iterator.next();
+			SVGSVG eldestPage = pageByIndexMap.get(eldest);
+			if (spillFileList.get(eldest) == null) {
+				spillFileList.set(eldest, writePage(eldestPage, eldest));
+			}
+			pageByIndexMap.remove(eldest);
+		}
+	}
+
+	private File writePage(SVGSVG page, int index) {
+		File file = new File(ensureSpillDirectory(), "page"+index+SUFFIX);
+		try {
+			OutputStream os = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				Document document = page.getDocument();
+				document = (document == null) ? new Document(page) : document;
+				new Serializer(os, ENCODING).write(document);
+			} finally {
+				os.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot spill page to "+file, e);
+		}
+		spillCount++;
+		LOG.trace("spilled page "+index+" to "+file);
+		return file;
+	}
+
+	private SVGSVG readPage(File file) {
+		try {
+			InputStream is = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return (SVGSVG) SVGElement.readAndCreateSVG(new Builder().build(is).getRootElement());
+			} finally {
+				is.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Cannot read spilled page "+file, e);
+		}
+	}
+
+	private void deleteSpillFile(int index) {
+		File file = spillFileList.get(index);
+		if (file != null) {
+			file.delete();
+			spillFileList.set(index, null);
+		}
+	}
+
+	private File ensureSpillDirectory() {
+		if (spillDirectory == null) {
+			try {
+				spillDirectory = File.createTempFile("pdf2svg-pages", "");
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot create page spill directory", e);
+			}
+			if (!spillDirectory.delete() || !spillDirectory.mkdir()) {
+				throw new RuntimeException("Cannot create page spill directory: "+spillDirectory);
+			}
+			// application shutdown hooks run before the deleteOnExit() files are deleted
+			spillDirectory.deleteOnExit();
+			registerSpillDirectory(spillDirectory);
+		}
+		return spillDirectory;
+	}
+
+	private static void registerSpillDirectory(File directory) {
+		synchronized (spillDirectorySet) {
+			spillDirectorySet.add(directory);
+			if (!shutdownHookAdded) {
+				Runtime.getRuntime().addShutdownHook(new Thread("pdf2svg-spill-cleanup") {
+					@Override
+					public void run() {
+						deleteSpillFiles();
+					}
+				});
+				shutdownHookAdded = true;
+			}
+		}
+	}
+
+	private static void deleteSpillFiles() {
+		synchronized (spillDirectorySet) {
+			for (File directory : spillDirectorySet) {
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						file.delete();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import nu.xom.Element;
+import nu.xom.Node;
+
+import org.apache.log4j.Logger;
+
+/** writes the elements of a page as they are created rather than building the whole page.
+ *
+ * The page element (normally SVGSVG) only holds the children which are not known
+ * until the end of the page (the clipPath defs). Every other element is serialized
+ * as soon as it is complete into a byte buffer and can then be garbage collected.
+ *
+ * The defs come first in the output so the page is assembled in writeTo():
+ * start tag and defs, the buffered elements, end tag. The result is byte-for-byte
+ * the same as serializing the complete Document with SVGSerializer and indent 1.
+ * That is why the body is not written straight to the output: the clipPaths are
+ * only known once the page is finished. The buffer holds serialized bytes, which
+ * are several times smaller than the XOM elements they replace.
+ *
+ * @author pm286
+ *
+ */
+class StreamingSVGWriter {
+
+	private final static Logger LOG = Logger.getLogger(StreamingSVGWriter.class);
+
+	static final String ENCODING = "UTF-8";
+	static final int INDENT = 1;
+
+	private Element pageElement;
+	private ByteArrayOutputStream bodyStream;
+	private PageSerializer bodySerializer;
+	private int elementCount;
+
+	/**
+	 * @param pageElement root of page; must have its attributes and namespaces set and
+	 * must have at least one child element (e.g. defs) by the time writeTo() is called
+	 */
+	StreamingSVGWriter(Element pageElement) {
+		this.pageElement = pageElement;
+		bodyStream = new ByteArrayOutputStream();
+		try {
+			bodySerializer = new PageSerializer(bodyStream);
+			// sets up indentation and namespace context for the children; the tag itself is discarded
+			bodySerializer.writeStartTag(pageElement);
+			bodySerializer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot start page", e);
+		}
+		bodyStream.reset();
+	}
+
+	/** serializes a complete element as the next child of the page.
+	 *
+	 * the element should not be altered or appended anywhere afterwards
+	 * @param element
+	 */
+	void writeElement(Element element) {
+		try {
+			bodySerializer.writeChild(element);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write element", e);
+		}
+		elementCount++;
+	}
+
+	/** number of elements written through writeElement()
+	 *
+	 * @return
+	 */
+	int getElementCount() {
+		return elementCount;
+	}
+
+	/** writes the page (XML declaration, page start tag and current children, streamed
+	 * elements, end tag).
+	 *
+	 * does not close the stream
+	 * @param os
+	 */
+	void writeTo(OutputStream os) {
+		if (pageElement.getChildElements().size() == 0) {
+			throw new RuntimeException("streamed page must have at least one child element");
+		}
+		try {
+			bodySerializer.flush();
+			PageSerializer pageSerializer = new PageSerializer(os);
+			pageSerializer.writeXMLDeclaration();
+			pageSerializer.writeStartTag(pageElement);
+			for (int i = 0; i < pageElement.getChildCount(); i++) {
+				pageSerializer.writeChild(pageElement.getChild(i));
+			}
+			pageSerializer.flush();
+			LOG.trace("streamed "+elementCount+" elements in "+bodyStream.size()+" bytes");
+			bodyStream.writeTo(os);
+			pageSerializer.writeEndTag(pageElement);
+			pageSerializer.writeLineBreak();
+			pageSerializer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write page", e);
+		}
+	}
+
+	/** exposes the protected methods of Serializer that write the parts of a document
+	 *
+	 */
+	private static class PageSerializer extends SVGSerializer {
+
+		PageSerializer(OutputStream os) throws UnsupportedEncodingException {
+			super(os, ENCODING);
+			setIndent(INDENT);
+		}
+
+		@Override
+		protected void writeXMLDeclaration() throws IOException {
+			super.writeXMLDeclaration();
+		}
+
+		@Override
+		protected void writeStartTag(Element element) throws IOException {
+			super.writeStartTag(element);
+		}
+
+		@Override
+		protected void writeEndTag(Element element) throws IOException {
+			super.writeEndTag(element);
+		}
+
+		@Override
+		protected void writeChild(Node node) throws IOException {
+			super.writeChild(node);
+		}
+
+		// breakLine() is final
+		void writeLineBreak() throws IOException {
+			breakLine();
+		}
+	}
+}
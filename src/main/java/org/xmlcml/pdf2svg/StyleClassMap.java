@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Nodes;
+import nu.xom.Text;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.font.NonStandardFontManager;
+import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
+
+/** replaces the repeated style attributes of page elements by CSS classes (-cssclasses).
+ *
+ * Each distinct combination of the attributes in STYLE_ATTRIBUTES (and svgx:fontName)
+ * on an element becomes a rule .sN{...} in a single style element (id STYLE_ID) and
+ * the element gets class="sN" instead of the attributes. svgx:fontName is kept as the
+ * custom property --svgx-fontName, which renderers ignore. Lengths are written with
+ * px as CSS requires.
+ *
+ * expandClasses() restores the attributes, so a page written with classes can be
+ * read as if it had been written without them. Values which could not be read back
+ * from CSS (containing ; { } \ or line ends) and non-numeric lengths stay inline.
+ *
+ * Not threadsafe; one per page.
+ *
+ * @author pm286
+ *
+ */
+public class StyleClassMap {
+
+	private final static Logger LOG = Logger.getLogger(StyleClassMap.class);
+
+	public static final String STYLE = "style";
+	public static final String STYLE_ID = "pdf2svgStyles";
+	public static final String CLASS = "class";
+	public static final String CLASS_PREFIX = "s";
+
+	/** presentation attributes moved into classes, in rule order */
+	static final String[] STYLE_ATTRIBUTES = {
+		"stroke", "fill", "stroke-width", "clip-path", "opacity",
+		"font-family", "font-size", "font-weight", "font-style",
+	};
+	static final String FONT_NAME_PROPERTY = "--svgx-fontName";
+
+	private static final String ID = "id";
+	private static final String TYPE = "type";
+	private static final String TEXT_CSS = "text/css";
+	private static final String PX = "px";
+	private static final String STROKE_WIDTH = "stroke-width";
+	private static final String FONT_SIZE = "font-size";
+
+	private Map<String, String> classNameByRuleMap = new LinkedHashMap<String, String>();
+	private StringBuilder ruleBuilder = new StringBuilder();
+	private List<String> nameList = new ArrayList<String>();
+	private long elementCount;
+
+	/** moves the style attributes of the element into a class.
+	 *
+	 * elements with no style attributes or with a class already are unchanged
+	 * @param element
+	 */
+	public void addClass(SVGElement element) {
+		if (element.getAttribute(CLASS) != null) {
+			return;
+		}
+		ruleBuilder.setLength(0);
+		nameList.clear();
+		for (String name : STYLE_ATTRIBUTES) {
+			String value = element.getAttributeValue(name);
+			if (value != null && isLength(name)) {
+				if (!isNumber(value)) {
+					continue;
+				}
+				value += PX;
+			}
+			if (addDeclaration(name, value)) {
+				nameList.add(name);
+			}
+		}
+		String fontName = PDF2SVGUtil.getSVGXAttribute(element, NonStandardFontManager.FONT_NAME);
+		boolean hasFontName = addDeclaration(FONT_NAME_PROPERTY, fontName);
+		if (ruleBuilder.length() == 0) {
+			return;
+		}
+		String rule = ruleBuilder.toString();
+		String className = classNameByRuleMap.get(rule);
+		if (className == null) {
+			className = CLASS_PREFIX+(classNameByRuleMap.size() + 1);
+			classNameByRuleMap.put(rule, className);
+		}
+		for (String name : nameList) {
+			element.removeAttribute(element.getAttribute(name));
+		}
+		if (hasFontName) {
+			element.removeAttribute(element.getAttribute(NonStandardFontManager.FONT_NAME, PDF2SVGUtil.SVGX_NS));
+		}
+		element.addAttribute(new Attribute(CLASS, className));
+		elementCount++;
+	}
+
+	private boolean addDeclaration(String property, String value) {
+		if (value == null || !isCSSSafe(value)) {
+			return false;
+		}
+		if (ruleBuilder.length() > 0) {
+			ruleBuilder.append(';');
+		}
+		ruleBuilder.append(property).append(':').append(value);
+		return true;
+	}
+
+	/** the style element holding a rule for each class.
+	 *
+	 * @return null if no element has been given a class
+	 */
+	public Element createStyleElement() {
+		if (classNameByRuleMap.isEmpty()) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : classNameByRuleMap.entrySet()) {
+			sb.append("\n.").append(entry.getValue()).append('{').append(entry.getKey()).append('}');
+		}
+		sb.append("\n");
+		Element style = new Element(STYLE, SVGElement.SVG_NAMESPACE);
+		style.addAttribute(new Attribute(ID, STYLE_ID));
+		style.addAttribute(new Attribute(TYPE, TEXT_CSS));
+		style.appendChild(new Text(sb.toString()));
+		LOG.trace(classNameByRuleMap.size()+" classes for "+elementCount+" elements");
+		return style;
+	}
+
+	/** number of classes
+	 *
+	 * @return
+	 */
+	public int size() {
+		return classNameByRuleMap.size();
+	}
+
+	/** number of elements given a class
+	 *
+	 * @return
+	 */
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	/** replaces the classes from a StyleClassMap by the original attributes and removes the style element.
+	 *
+	 * documents without the style element are unchanged
+	 * @param root page (or any ancestor of it)
+	 * @return number of elements expanded
+	 */
+	public static int expandClasses(Element root) {
+		Nodes styleNodes = root.query("//*[local-name()='"+STYLE+"' and @"+ID+"='"+STYLE_ID+"']");
+		if (styleNodes.size() == 0) {
+			return 0;
+		}
+		Element style = (Element) styleNodes.get(0);
+		Map<String, String[]> declarationsByClassMap = parseRules(style.getValue());
+		style.detach();
+		int count = 0;
+		Nodes nodes = root.query("//*[@"+CLASS+"]");
+		for (int i = 0; i < nodes.size(); i++) {
+			Element element = (Element) nodes.get(i);
+			Attribute classAttribute = element.getAttribute(CLASS);
+			String[] declarations = declarationsByClassMap.get(classAttribute.getValue());
+			if (declarations == null) {
+				continue;
+			}
+			element.removeAttribute(classAttribute);
+			for (int j = 0; j < declarations.length; j += 2) {
+				element.addAttribute(createAttribute(declarations[j], declarations[j + 1]));
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/** property/value pairs by class name
+	 *
+	 * @param css rules written by createStyleElement()
+	 * @return
+	 */
+	static Map<String, String[]> parseRules(String css) {
+		Map<String, String[]> declarationsByClassMap = new HashMap<String, String[]>();
+		for (String rule : css.split("\\}")) {
+			rule = rule.trim();
+			int brace = rule.indexOf('{');
+			if (!rule.startsWith(".") || brace < 0) {
+				continue;
+			}
+			String className = rule.substring(1, brace).trim();
+			String[] declarationList = rule.substring(brace + 1).split(";");
+			String[] declarations = new String[2 * declarationList.length];
+			for (int i = 0; i < declarationList.length; i++) {
+				String declaration = declarationList[i];
+				int colon = declaration.indexOf(':');
+				if (colon < 0) {
+					throw new RuntimeException("bad CSS declaration in ."+className+": "+declaration);
+				}
+				declarations[2 * i] = declaration.substring(0, colon);
+				declarations[2 * i + 1] = declaration.substring(colon + 1);
+			}
+			declarationsByClassMap.put(className, declarations);
+		}
+		return declarationsByClassMap;
+	}
+
+	private static Attribute createAttribute(String property, String value) {
+		if (FONT_NAME_PROPERTY.equals(property)) {
+			return new Attribute(PDF2SVGUtil.SVGX_PREFIX+":"+NonStandardFontManager.FONT_NAME, PDF2SVGUtil.SVGX_NS, value);
+		}
+		if (isLength(property) && value.endsWith(PX)) {
+			value = value.substring(0, value.length() - PX.length());
+		}
+		return new Attribute(property, value);
+	}
+
+	private static boolean isLength(String name) {
+		return FONT_SIZE.equals(name) || STROKE_WIDTH.equals(name);
+	}
+
+	private static boolean isNumber(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (!Character.isDigit(c) && c != '.' && c != '-' && c != '+' && c != 'E' && c != 'e') {
+				return false;
+			}
+		}
+		return value.length() > 0;
+	}
+
+	private static boolean isCSSSafe(String value) {
+		if (value.length() == 0 || value.trim().length() != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ';' || c == '{' || c == '}' || c == '\\' || c == '\n' || c == '\r') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.awt.geom.AffineTransform;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.euclid.Angle;
+import org.xmlcml.euclid.Real;
+import org.xmlcml.euclid.Transform2;
+
+/** finds the font size and rotation of a glyph from its text matrix and font matrix.
+ *
+ * Almost all text has an unrotated, unskewed matrix (no shear and positive scales).
+ * For this the size is sqrt(scaleX * scaleY) and there is no rotation, so no
+ * Transform2 or trigonometry is needed. Anything else is analysed with Transform2
+ * as before.
+ *
+ * Consecutive glyphs nearly always share the matrix (the translation is not part of
+ * it), so the last result is kept and returned without work if the components are
+ * unchanged. Not threadsafe; each PDFPage2SVGConverter has its own.
+ *
+ * @author pm286
+ *
+ */
+class TextMatrixClassifier {
+
+	private final static Logger LOG = Logger.getLogger(TextMatrixClassifier.class);
+
+	// components of the last matrix classified
+	private float scaleX;
+	private float shearY;
+	private float shearX;
+	private float scaleY;
+	private float fontScaleX;
+	private float fontScaleY;
+	private boolean classified;
+
+	private boolean axisAligned;
+	private double fontSize;
+	private Angle angle;
+	private Transform2 transform;
+	private long hits;
+	private long misses;
+
+	/** classifies the text matrix (translation removed) scaled by the font matrix.
+	 *
+	 * the arguments are in the order of AffineTransform(m00, m10, m01, m11, ...)
+	 * @param scaleX
+	 * @param shearY
+	 * @param shearX
+	 * @param scaleY
+	 * @param fontScaleX font matrix (0,0) * 1000
+	 * @param fontScaleY font matrix (1,1) * 1000
+	 */
+	void classify(float scaleX, float shearY, float shearX, float scaleY, float fontScaleX, float fontScaleY) {
+		if (classified &&
+				scaleX == this.scaleX && shearY == this.shearY &&
+				shearX == this.shearX && scaleY == this.scaleY &&
+				fontScaleX == this.fontScaleX && fontScaleY == this.fontScaleY) {
+			hits++;
+			return;
+		}
+		misses++;
+		this.scaleX = scaleX;
+		this.shearY = shearY;
+		this.shearX = shearX;
+		this.scaleY = scaleY;
+		this.fontScaleX = fontScaleX;
+		this.fontScaleY = fontScaleY;
+		classified = true;
+		// as AffineTransform.scale(fontScaleX, fontScaleY)
+		double m00 = (double) scaleX * fontScaleX;
+		double m10 = (double) shearY * fontScaleX;
+		double m01 = (double) shearX * fontScaleY;
+		double m11 = (double) scaleY * fontScaleY;
+		fontSize = Math.sqrt(m00 * m11);
+		angle = null;
+		transform = null;
+		axisAligned = m01 == 0.0 && m10 == 0.0 && m00 > 0.0 && m11 > 0.0;
+		if (!axisAligned) {
+			analyse(new AffineTransform(m00, m10, m01, m11, 0.0, 0.0));
+		}
+	}
+
+	private void analyse(AffineTransform at) {
+		transform = new Transform2(at);
+		int angleDeg = 0;
+		Angle rotation = transform.getAngleOfRotationNew();
+		if (rotation != null) {
+			angleDeg = Math.round((float) rotation.getDegrees());
+			if (!Real.isZero(angleDeg, 0.0001)) LOG.trace("ANG "+angleDeg);
+		}
+		Angle skew = transform.getAngleOfSkew(0.001);
+		if (skew != null) {
+			double skewDeg = Math.round((float) skew.getDegrees());
+			if (!Real.isZero(skewDeg, 0.0001)) LOG.trace("SKEW "+skewDeg);
+		}
+		if (angleDeg != 0) {
+			// do this properly later (only if scales are anisotropic and so far no evidence)
+			fontSize = Math.sqrt(Math.abs(transform.elementAt(0, 1) * transform.elementAt(1, 0)));
+			angle = rotation;
+		}
+	}
+
+	/** true if the last matrix had no shear and positive scales
+	 *
+	 * @return
+	 */
+	boolean isAxisAligned() {
+		return axisAligned;
+	}
+
+	double getFontSize() {
+		return fontSize;
+	}
+
+	/** rotation of the last matrix
+	 *
+	 * @return null if not rotated (to the nearest degree)
+	 */
+	Angle getAngle() {
+		return angle;
+	}
+
+	/** the full transform; only created for matrices which are not axis-aligned
+	 *
+	 * @return null for axis-aligned matrices
+	 */
+	Transform2 getTransform() {
+		return transform;
+	}
+
+	long getHits() {
+		return hits;
+	}
+
+	long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import nu.xom.Attribute;
+
+import org.xmlcml.graphics.svg.SVGText;
+import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
+
+/** merges consecutive glyphs into text runs as they are created (-compact).
+ *
+ * A glyph joins the current run if it has the same attributes apart from x and
+ * svgx:width (so the same baseline, font, size, fill, stroke and clip), no child
+ * elements (e.g. tooltips) and lies to the right of the previous glyph. The run
+ * is the first glyph's SVGText with the text of all the glyphs and x (and
+ * svgx:width) holding a space-separated value per glyph; a run of one glyph is
+ * unchanged. SVG applies the x values per character, so glyphs whose text is not
+ * exactly one character (ligatures, surrogate pairs) are never merged.
+ *
+ * add() returns the previous run when a glyph cannot join it; flush() returns
+ * the current run (at the end of the page or before any other element).
+ *
+ * @author pm286
+ *
+ */
+class TextRunBuilder {
+
+	private static final String X = "x";
+	private static final String SEPARATOR = " ";
+
+	private SVGText run;
+	private String runSignature;
+	private double lastX;
+	private int glyphCount;
+	private StringBuilder textBuilder = new StringBuilder();
+	private StringBuilder xBuilder = new StringBuilder();
+	private StringBuilder widthBuilder = new StringBuilder();
+
+	/** adds a complete glyph
+	 *
+	 * @param glyph must not be changed afterwards
+	 * @return the finished run if glyph starts a new one, else null
+	 */
+	SVGText add(SVGText glyph) {
+		String signature = createSignature(glyph);
+		String xValue = glyph.getAttributeValue(X);
+		double x = parseX(xValue);
+		if (run != null && signature != null && signature.equals(runSignature) && x > lastX) {
+			textBuilder.append(glyph.getValue());
+			xBuilder.append(SEPARATOR).append(xValue);
+			widthBuilder.append(SEPARATOR).append(getWidth(glyph));
+			glyphCount++;
+			lastX = x;
+			return null;
+		}
+		SVGText finishedRun = flush();
+		run = glyph;
+		runSignature = signature;
+		lastX = x;
+		glyphCount = 1;
+		textBuilder.append(glyph.getValue());
+		xBuilder.append(xValue);
+		widthBuilder.append(getWidth(glyph));
+		return finishedRun;
+	}
+
+	/** completes the current run
+	 *
+	 * @return null if there is none
+	 */
+	SVGText flush() {
+		SVGText finishedRun = run;
+		if (finishedRun != null && glyphCount > 1) {
+			finishedRun.setText(textBuilder.toString());
+			finishedRun.addAttribute(new Attribute(X, xBuilder.toString()));
+			PDF2SVGUtil.setSVGXAttribute(finishedRun, PDF2SVGUtil.CHARACTER_WIDTH, widthBuilder.toString());
+		}
+		run = null;
+		runSignature = null;
+		glyphCount = 0;
+		textBuilder.setLength(0);
+		xBuilder.setLength(0);
+		widthBuilder.setLength(0);
+		return finishedRun;
+	}
+
+	/** the attributes which must be equal for glyphs to be in the same run
+	 *
+	 * @param glyph
+	 * @return null if the glyph cannot be merged
+	 */
+	private static String createSignature(SVGText glyph) {
+		if (glyph.getChildElements().size() > 0 || glyph.getAttribute(X) == null ||
+				glyph.getValue().length() != 1) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < glyph.getAttributeCount(); i++) {
+			Attribute attribute = glyph.getAttribute(i);
+			String name = attribute.getLocalName();
+			String namespace = attribute.getNamespaceURI();
+			if ((X.equals(name) && namespace.length() == 0) ||
+					(PDF2SVGUtil.CHARACTER_WIDTH.equals(name) && PDF2SVGUtil.SVGX_NS.equals(namespace))) {
+				continue;
+			}
+			sb.append(namespace).append('|').append(name).append('=').append(attribute.getValue()).append('\u0000');
+		}
+		return sb.toString();
+	}
+
+	private static String getWidth(SVGText glyph) {
+		String width = PDF2SVGUtil.getSVGXAttribute(glyph, PDF2SVGUtil.CHARACTER_WIDTH);
+		return width == null ? "0.0" : width;
+	}
+
+	private static double parseX(String xValue) {
+		try {
+			return xValue == null ? Double.NaN : Double.parseDouble(xValue);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
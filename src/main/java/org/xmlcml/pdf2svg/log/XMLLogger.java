@@ -18,9 +18,15 @@ import org.xmlcml.pdf2svg.AMIFont;
 import nu.xom.Attribute;
 import nu.xom.Document;
 import nu.xom.Element;
+import nu.xom.Elements;
 import nu.xom.ParentNode;
 import nu.xom.Serializer;
 
+/** records fonts and characters in an XML log.
+ * 
+ * pages of a PDF may be converted on several threads so the current page is 
+ * held per thread and page elements are inserted in page-number order
+ */
 public class XMLLogger {
 
 
@@ -55,7 +61,7 @@ public class XMLLogger {
 	private Element root;
 	private Element fontlist;
 	private Element file;
-	private Element page;
+	private ThreadLocal<Element> page;
 
 	private List<String> fontnames; // names of all fonts in the fontlist
 	private Map<String, AMIFont> fontmap; // only valid for the current PDF
@@ -71,7 +77,7 @@ public class XMLLogger {
 		reset();
 	}
 
-	public void reset() {
+	public synchronized void reset() {
 		root = new Element(PDF_LOG);
 		root.addAttribute(new Attribute(GLYPHS, Boolean.toString(logGlyphs)));
 
@@ -79,14 +85,14 @@ public class XMLLogger {
 		root.appendChild(fontlist);
 
 		file = null;
-		page = null;
+		page = new ThreadLocal<Element>();
 
 		fontnames = new ArrayList<String>();
 		if (logGlyphs)
 			fontmap = null;
 	}
 
-	public void newPDFFile(String fileName, int pageCount) {
+	public synchronized void newPDFFile(String fileName, int pageCount) {
 		file = new Element(PDF);
 		file.addAttribute(new Attribute(FILENAME, fileName));
 		file.addAttribute(new Attribute(PAGE_COUNT, Integer
@@ -97,15 +103,32 @@ public class XMLLogger {
 			fontmap = new HashMap<String, AMIFont>();
 	}
 
-	public void newPDFPage(int pageNumber) {
+	public synchronized void newPDFPage(int pageNumber) {
 		if (file == null)
 			throw new RuntimeException("no current PDF file!");
-		page = new Element(PAGE);
-		page.addAttribute(new Attribute(NUM, Integer.toString(pageNumber)));
-		file.appendChild(page);
+		Element pageElement = new Element(PAGE);
+		pageElement.addAttribute(new Attribute(NUM, Integer.toString(pageNumber)));
+		file.insertChild(pageElement, getPageInsertionIndex(pageNumber));
+		page.set(pageElement);
 	}
 
-	public void newFont(AMIFont amiFont) {
+	/** pages may arrive out of order when converted on several threads
+	 * 
+	 * @param pageNumber
+	 * @return index after last page with lower number
+	 */
+	private int getPageInsertionIndex(int pageNumber) {
+		Elements pageElements = file.getChildElements(PAGE);
+		for (int i = pageElements.size() - 1; i >= 0; i--) {
+			Element pageElement = pageElements.get(i);
+			if (Integer.parseInt(pageElement.getAttributeValue(NUM)) < pageNumber) {
+				return file.indexOf(pageElement) + 1;
+			}
+		}
+		return 0;
+	}
+
+	public synchronized void newFont(AMIFont amiFont) {
 		String fontName = amiFont.getFontName();
 		if (fontName == null)
 			return;
@@ -150,7 +173,8 @@ public class XMLLogger {
 		}
 	}
 
-	public void newCharacter(String fontName, String fontFamilyName, String charName, int charCode) {
+	public synchronized void newCharacter(String fontName, String fontFamilyName, String charName, int charCode) {
+		Element page = this.page.get();
 		if (file == null || page == null)
 			throw new RuntimeException("no current PDF file or page!");
 
@@ -197,7 +221,8 @@ public class XMLLogger {
 		page.appendChild(character);
 	}
 
-	public void newException(Exception e) {
+	public synchronized void newException(Exception e) {
+		Element page = this.page.get();
 		if (file == null || page == null) {
 			throw new RuntimeException("no current PDF file or page!");
 		}
@@ -212,7 +237,7 @@ public class XMLLogger {
 		page.appendChild(exceptionElement);
 	}
 
-	public void writeXMLFile(OutputStream outputStream) {
+	public synchronized void writeXMLFile(OutputStream outputStream) {
 		ParentNode parent = root.getParent();
 		Document doc = (parent != null) ? (Document) parent : new Document(root);
 		try {
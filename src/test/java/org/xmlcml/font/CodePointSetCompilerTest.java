@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.font;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CodePointSetCompilerTest {
+
+	private static final String MATHPI1_XML = CodePointSet.CODEPOINT_DIR+"defacto/mathpi1.xml";
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		CodePointSet.setUseCompiledTables(false);
+		CodePointSet xmlSet;
+		try {
+			xmlSet = CodePointSet.readCodePointSet(MATHPI1_XML);
+		} finally {
+			CodePointSet.setUseCompiledTables(true);
+		}
+		CodePointSet compiledSet = roundTrip(xmlSet);
+		Assert.assertEquals(xmlSet.size(), compiledSet.size());
+		Assert.assertEquals(xmlSet.getEncoding(), compiledSet.getEncoding());
+		Assert.assertEquals(xmlSet.getId(), compiledSet.getId());
+		Assert.assertEquals(xmlSet.getNames(), compiledSet.getNames());
+		Assert.assertEquals(xmlSet.createElementWithSortedIntegers().toXML(), 
+				compiledSet.createElementWithSortedIntegers().toXML());
+		// compiled sets are not rebuilt as XML
+		Assert.assertEquals(0, compiledSet.getChildElements().size());
+		for (CodePoint codePoint : xmlSet.getCodePoints()) {
+			Integer decimal = codePoint.getDecimal();
+			if (decimal != null) {
+				Assert.assertTrue(compiledSet.containsKey(decimal));
+				Assert.assertEquals(""+decimal, codePoint.getUnicodeDecimal(), 
+						compiledSet.getByDecimal(decimal).getUnicodeDecimal());
+			}
+		}
+		for (String name : xmlSet.getNames()) {
+			Assert.assertEquals(name, xmlSet.getByName(name).getUnicodeDecimal(), 
+					compiledSet.getByName(name).getUnicodeDecimal());
+		}
+	}
+
+	@Test
+	public void testIncludesAreExpanded() throws IOException {
+		CodePointSet.setUseCompiledTables(false);
+		CodePointSet xmlSet;
+		try {
+			xmlSet = CodePointSet.readCodePointSet(CodePointSet.UNICODE_POINT_SET_XML);
+		} finally {
+			CodePointSet.setUseCompiledTables(true);
+		}
+		CodePointSet compiledSet = roundTrip(xmlSet);
+		Assert.assertEquals(xmlSet.size(), compiledSet.size());
+		CodePoint codePoint = compiledSet.getByUnicodeValue("U+039F");
+		Assert.assertNotNull(codePoint);
+		Assert.assertEquals("GREEK CAPITAL LETTER OMICRON", codePoint.getUnicodeName());
+	}
+
+	@Test
+	public void testCompiledResourceName() {
+		Assert.assertEquals("org/xmlcml/pdf2svg/codepoints/defacto/mathpi1.cpb", 
+				CodePointSetCompiler.getCompiledResourceName(MATHPI1_XML));
+	}
+
+	private CodePointSet roundTrip(CodePointSet codePointSet) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		CodePointSetCompiler.write(codePointSet, baos);
+		return CodePointSetCompiler.read(new ByteArrayInputStream(baos.toByteArray()));
+	}
+}
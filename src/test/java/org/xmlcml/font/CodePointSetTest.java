@@ -127,5 +127,52 @@ public class CodePointSetTest {
 //		Assert.assertNull("183", codePoint);               // MTSYN does not include Unicode // does NOW!
 	}
 
+	@Test
+	public void testToUnicode() throws Exception {
+		CodePointSet codePointSet = CodePointSet.readCodePointSet("org/xmlcml/pdf2svg/codepoints/test/mtsyn.xml");
+		Assert.assertEquals("SOLIDUS", 47, codePointSet.toUnicode(5));
+		Assert.assertEquals("A", 65, codePointSet.toUnicode(65));
+		Assert.assertEquals(CodePointSet.NOT_FOUND, codePointSet.toUnicode(-5));
+		Assert.assertEquals(CodePointSet.NOT_FOUND, codePointSet.toUnicode(0x10FFFF));
+		Assert.assertEquals(CodePointSet.NOT_FOUND, codePointSet.toUnicode("noSuchCharname"));
+	}
+
+	@Test
+	public void testIndexAgreesWithCodePoints() throws Exception {
+		String[] resources = {
+				"org/xmlcml/pdf2svg/codepoints/defacto/mathpi1.xml",
+				"org/xmlcml/pdf2svg/codepoints/defacto/mtsyn.xml",
+				CodePointSet.UNICODE_POINT_SET_XML,
+		};
+		for (String resource : resources) {
+			CodePointSet codePointSet = CodePointSet.readCodePointSet(resource);
+			for (String name : codePointSet.getNames()) {
+				CodePoint codePoint = codePointSet.getByName(name);
+				Assert.assertEquals(name, name, codePoint.getName());
+				Assert.assertEquals(name, (int) codePoint.getUnicodeDecimal(), codePointSet.toUnicode(name));
+			}
+			for (CodePoint codePoint : codePointSet.getCodePoints()) {
+				Integer decimal = codePoint.getDecimal();
+				if (decimal != null) {
+					Assert.assertSame(resource+" "+decimal, codePointSet.getByDecimal(decimal), codePointSet.getByDecimal((int) decimal));
+					Assert.assertEquals(resource+" "+decimal, 
+							(int) codePointSet.getByDecimal((int) decimal).getUnicodeDecimal(), codePointSet.toUnicode(decimal));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testIndexIsRebuiltAfterAdd() {
+		CodePointSet codePointSet = new CodePointSet();
+		codePointSet.setEncoding("test");
+		Assert.assertNull(codePointSet.getByDecimal(1000));
+		CodePoint codePoint = new CodePoint(1000, "thousand");
+		codePointSet.add(codePoint);
+		Assert.assertSame(codePoint, codePointSet.getByDecimal(1000));
+		Assert.assertSame(codePoint, codePointSet.getByName("thousand"));
+		Assert.assertEquals(0x274E, codePointSet.toUnicode(1000));
+	}
+
 
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.font;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.pdf2svg.AMIFont;
+
+public class FontCacheTest {
+
+	@Test
+	public void testFontFamilySetIsShared() {
+		FontCache.clearResources();
+		FontFamilySet set1 = FontCache.getFontFamilySet(FontFamilySet.NON_STANDARD_FONT_FAMILY_SET_XML);
+		FontFamilySet set2 = FontCache.getFontFamilySet(FontFamilySet.NON_STANDARD_FONT_FAMILY_SET_XML);
+		Assert.assertSame(set1, set2);
+		Assert.assertNotNull(set1.getFontFamilyByName("MathematicalPi-One"));
+		Assert.assertEquals(1, FontCache.getResourceMisses());
+		Assert.assertEquals(1, FontCache.getResourceHits());
+		Assert.assertEquals(0.5, FontCache.getResourceHitRate(), 0.0001);
+	}
+
+	@Test
+	public void testEviction() {
+		FontCache.clearResources();
+		FontCache.setMaxResources(1);
+		try {
+			FontFamilySet set1 = FontCache.getFontFamilySet(FontFamilySet.NON_STANDARD_FONT_FAMILY_SET_XML);
+			FontCache.getFontFamilySet(FontFamilySet.STANDARD_UNICODE_FONT_FAMILY_SET_XML);
+			FontFamilySet set2 = FontCache.getFontFamilySet(FontFamilySet.NON_STANDARD_FONT_FAMILY_SET_XML);
+			Assert.assertNotSame(set1, set2);
+			Assert.assertEquals(3, FontCache.getResourceMisses());
+		} finally {
+			FontCache.setMaxResources(FontCache.DEFAULT_MAX_RESOURCES);
+		}
+	}
+
+	@Test
+	public void testAmiFontByPDFont() {
+		NonStandardFontManager fontManager = new NonStandardFontManager();
+		FontCache fontCache = new FontCache();
+		AMIFont amiFont = fontCache.getAmiFont(PDType1Font.TIMES_ROMAN, fontManager);
+		for (int i = 0; i < 9; i++) {
+			Assert.assertSame(amiFont, fontCache.getAmiFont(PDType1Font.TIMES_ROMAN, fontManager));
+		}
+		Assert.assertSame(amiFont, fontManager.getAmiFontByFont(PDType1Font.TIMES_ROMAN));
+		Assert.assertEquals(1, fontCache.getMisses());
+		Assert.assertEquals(9, fontCache.getHits());
+		Assert.assertEquals(0.9, fontCache.getHitRate(), 0.0001);
+		fontCache.clear();
+		fontCache.getAmiFont(PDType1Font.TIMES_ROMAN, fontManager);
+		Assert.assertEquals(2, fontCache.getMisses());
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.euclid.Real2;
+import org.xmlcml.euclid.Util;
+import org.xmlcml.graphics.svg.SVGText;
+
+public class AttributeFormatterTest {
+
+	@Test
+	public void testFormatSameAsUtilFormat() {
+		AttributeFormatter formatter = new AttributeFormatter(3);
+		double[] values = {0.0, -0.0, 1.0, -1.0, 0.5, 0.0004, 0.0005, -0.0004, 12.3456, 604.852, 340.6605,
+				9.5, 1234567.891, 9999999.9996, 1.0e8, -2.5e-5};
+		for (double value : values) {
+			Assert.assertEquals(String.valueOf(value), String.valueOf(Util.format(value, 3)), formatter.format(value));
+		}
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			double value = (random.nextDouble() - 0.5) * 2000.0;
+			Assert.assertEquals(String.valueOf(value), String.valueOf(Util.format(value, 3)), formatter.format(value));
+		}
+		Assert.assertEquals("NaN", formatter.format(Double.NaN));
+	}
+
+	@Test
+	public void testFormatSameAsSVGText() {
+		AttributeFormatter formatter = new AttributeFormatter(3);
+		// glyph positions and sizes are floats on the page
+		Random random = new Random(3);
+		for (int i = 0; i < 10000; i++) {
+			double x = random.nextFloat() * 612.0f;
+			double y = random.nextFloat() * 792.0f;
+			double fontSize = 4.0f + random.nextFloat() * 20.0f;
+			SVGText glyph = new SVGText();
+			glyph.setXY(new Real2(x, y));
+			glyph.setFontSize(fontSize);
+			glyph.format(3);
+			Assert.assertEquals(glyph.getAttributeValue("x"), formatter.format(x));
+			Assert.assertEquals(glyph.getAttributeValue("y"), formatter.format(y));
+			Assert.assertEquals(glyph.getAttributeValue("font-size"), formatter.format(fontSize));
+		}
+	}
+
+	@Test
+	public void testOtherPlaces() {
+		Assert.assertEquals("13.0", new AttributeFormatter(0).format(12.5));
+		Assert.assertEquals("12.35", new AttributeFormatter(2).format(12.345));
+		Assert.assertEquals("1.0E-4", new AttributeFormatter(4).format(0.0001));
+	}
+
+	@Test
+	public void testColor() {
+		AttributeFormatter formatter = new AttributeFormatter(3);
+		Random random = new Random(2);
+		for (int i = 0; i < 10000; i++) {
+			int rgb = random.nextInt(0x1000000);
+			Assert.assertEquals(String.format("#%06x", rgb), formatter.formatColor(rgb));
+			Assert.assertEquals(String.format("#%06x", rgb), formatter.formatColor(rgb));
+		}
+		Assert.assertEquals("#000000", formatter.formatColor(0));
+		Assert.assertSame(formatter.formatColor(0xff0000), formatter.formatColor(0xff0000));
+	}
+
+	@Test
+	public void testWidth() {
+		AttributeFormatter formatter = new AttributeFormatter(3);
+		float[] widths = {556.0f, 277.83203f, 0.0f, 1000.0f, 0.001f};
+		for (float width : widths) {
+			Assert.assertEquals(String.valueOf((double) width), formatter.formatWidth(width));
+			Assert.assertEquals(String.valueOf((double) width), formatter.formatWidth(width));
+		}
+	}
+}
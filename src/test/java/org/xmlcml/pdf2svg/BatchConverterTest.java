@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.pdf2svg.BatchConverter.DocumentResult;
+import org.xmlcml.pdf2svg.BatchConverter.Status;
+
+public class BatchConverterTest {
+
+	@Test
+	public void testFailureDoesNotAffectOtherDocuments() {
+		File outdir = new File("target/batch/failure");
+		BatchConverter batchConverter = new BatchConverter(
+				Arrays.asList(new String[]{"-outdir", outdir.toString(), "-mkdir"}), outdir);
+		batchConverter.setThreadCount(2);
+		batchConverter.addFileOrDirectory(new File("src/test/resources/page6.pdf"));
+		batchConverter.addFileOrDirectory(new File("src/test/resources/nonexistent.pdf"));
+		Assert.assertFalse(batchConverter.run());
+		List<DocumentResult> resultList = batchConverter.getResultList();
+		Assert.assertEquals(2, resultList.size());
+		Assert.assertEquals(Status.OK, resultList.get(0).getStatus());
+		Assert.assertEquals(1, resultList.get(0).getPageCount());
+		Assert.assertEquals(Status.FAILED, resultList.get(1).getStatus());
+		Assert.assertNotNull(resultList.get(1).getThrowable());
+		Assert.assertEquals(1, batchConverter.getFailureCount());
+		Assert.assertTrue(new File(outdir, BatchConverter.MANIFEST_XML).exists());
+	}
+
+	@Test
+	public void testExitOnErrorSkipsWithoutInterrupting() {
+		File outdir = new File("target/batch/exitonerror");
+		BatchConverter batchConverter = new BatchConverter(
+				Arrays.asList(new String[]{"-outdir", outdir.toString(), "-mkdir"}), outdir);
+		batchConverter.setThreadCount(1);
+		batchConverter.setExitOnError(true);
+		batchConverter.addFileOrDirectory(new File("src/test/resources/nonexistent.pdf"));
+		for (int i = 0; i < 4; i++) {
+			batchConverter.addFileOrDirectory(new File("src/test/resources/page6.pdf"));
+		}
+		Assert.assertFalse(batchConverter.run());
+		List<DocumentResult> resultList = batchConverter.getResultList();
+		Assert.assertEquals(5, resultList.size());
+		Assert.assertEquals(Status.FAILED, resultList.get(0).getStatus());
+		// a document already started is finished, not interrupted
+		for (DocumentResult result : resultList.subList(1, 5)) {
+			Assert.assertTrue(result.getStatus().toString(), 
+					Status.OK.equals(result.getStatus()) || Status.SKIPPED.equals(result.getStatus()));
+		}
+		Assert.assertEquals(Status.SKIPPED, resultList.get(4).getStatus());
+	}
+
+	@Test
+	public void testMaxFileMegabytes() {
+		File outdir = new File("target/batch/maxmb");
+		BatchConverter batchConverter = new BatchConverter(
+				Arrays.asList(new String[]{"-outdir", outdir.toString()}), outdir);
+		batchConverter.setMaxFileMegabytes(1);
+		File bigFile = new File(Fixtures.MISC_DIR, "BMCBioinfGood2009.pdf");
+		Assert.assertTrue(bigFile.length() > 1024 * 1024);
+		batchConverter.addFileOrDirectory(bigFile);
+		Assert.assertFalse(batchConverter.run());
+		DocumentResult result = batchConverter.getResultList().get(0);
+		Assert.assertEquals(Status.FAILED, result.getStatus());
+		Assert.assertEquals(0, result.getPageCount());
+	}
+
+	@Test
+	public void testCommandLine() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		Assert.assertTrue(converter.run("-outdir", "target/batch/word", "-mkdir", "-batch", "2", "-timeout", "600",
+				"src/test/resources/word"));
+		Assert.assertTrue(new File("target/batch/word", BatchConverter.MANIFEST_XML).exists());
+	}
+}
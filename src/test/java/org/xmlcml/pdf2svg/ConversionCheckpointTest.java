@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConversionCheckpointTest {
+
+	private static final String INPUT = ConversionCheckpoint.hash("input");
+	private static final String SETTINGS = ConversionCheckpoint.hash("settings");
+
+	private File dir;
+	private File outfile;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = new File("target/checkpoint");
+		dir.mkdirs();
+		new File(dir, ConversionCheckpoint.CHECKPOINT_FILE).delete();
+		outfile = new File(dir, "doc-page1.svg");
+		write(outfile, "<svg/>", false);
+	}
+
+	@Test
+	public void testRecordAndReread() {
+		ConversionCheckpoint checkpoint = new ConversionCheckpoint(dir);
+		Assert.assertFalse(checkpoint.isDone(outfile, INPUT, 1, SETTINGS));
+		checkpoint.record(outfile, INPUT, 1, SETTINGS, ConversionCheckpoint.hash(outfile));
+		checkpoint.close();
+
+		checkpoint = new ConversionCheckpoint(dir);
+		Assert.assertEquals(1, checkpoint.size());
+		Assert.assertTrue(checkpoint.isDone(outfile, INPUT, 1, SETTINGS));
+		Assert.assertFalse(checkpoint.isDone(outfile, INPUT, 2, SETTINGS));
+		Assert.assertFalse(checkpoint.isDone(outfile, ConversionCheckpoint.hash("other"), 1, SETTINGS));
+		Assert.assertFalse(checkpoint.isDone(outfile, INPUT, 1, ConversionCheckpoint.hash("other")));
+	}
+
+	@Test
+	public void testChangedOutputIsStale() throws IOException {
+		ConversionCheckpoint checkpoint = new ConversionCheckpoint(dir);
+		checkpoint.record(outfile, INPUT, 1, SETTINGS, ConversionCheckpoint.hash(outfile));
+		checkpoint.close();
+		write(outfile, "<svg></svg>", false);
+		Assert.assertFalse(new ConversionCheckpoint(dir).isDone(outfile, INPUT, 1, SETTINGS));
+		outfile.delete();
+		Assert.assertFalse(new ConversionCheckpoint(dir).isDone(outfile, INPUT, 1, SETTINGS));
+	}
+
+	@Test
+	public void testTruncatedLineIsIgnored() throws IOException {
+		ConversionCheckpoint checkpoint = new ConversionCheckpoint(dir);
+		checkpoint.record(outfile, INPUT, 1, SETTINGS, ConversionCheckpoint.hash(outfile));
+		checkpoint.close();
+		File checkpointFile = checkpoint.getFile();
+		write(checkpointFile, "doc-page2.svg\t"+INPUT+"\t2\t"+SETTINGS+"\t12ab", true);
+
+		checkpoint = new ConversionCheckpoint(dir);
+		Assert.assertEquals(1, checkpoint.size());
+		File outfile2 = new File(dir, "doc-page2.svg");
+		write(outfile2, "<svg/>", false);
+		checkpoint.record(outfile2, INPUT, 2, SETTINGS, ConversionCheckpoint.hash(outfile2));
+		checkpoint.close();
+		checkpoint = new ConversionCheckpoint(dir);
+		Assert.assertEquals(2, checkpoint.size());
+		Assert.assertTrue(checkpoint.isDone(outfile2, INPUT, 2, SETTINGS));
+	}
+
+	private static void write(File file, String s, boolean append) throws IOException {
+		OutputStream os = new FileOutputStream(file, append);
+		try {
+			os.write(s.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+}
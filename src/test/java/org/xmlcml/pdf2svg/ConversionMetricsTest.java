@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.pdf2svg.ConversionMetrics.Counter;
+import org.xmlcml.pdf2svg.ConversionMetrics.Stage;
+
+public class ConversionMetricsTest {
+
+	@Test
+	public void testPagesAreAddedToDocument() {
+		ConversionMetrics document = new ConversionMetrics("test.pdf");
+		document.addTime(Stage.PARSE, 5);
+		ConversionMetrics page2 = createPage(2, 100, 7);
+		ConversionMetrics page1 = createPage(1, 10, 3);
+		document.addPage(page2);
+		document.addPage(page1);
+		Assert.assertEquals(5, document.getNanos(Stage.PARSE));
+		Assert.assertEquals(110, document.getNanos(Stage.DRAW_PAGE));
+		Assert.assertEquals(10, document.getCount(Counter.GLYPHS));
+		Assert.assertEquals(2, document.getCount(Counter.PAGES));
+		Assert.assertEquals(1, document.getPageMetricsList().get(0).getPageNumber());
+		Assert.assertEquals(2, document.getPageMetricsList().get(1).getPageNumber());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testCannotAddPageToPage() {
+		createPage(1, 0, 0).addPage(createPage(2, 0, 0));
+	}
+
+	@Test
+	public void testJSON() {
+		ConversionMetrics document = new ConversionMetrics("a \"b\".pdf");
+		document.addPage(createPage(1, 10, 3));
+		String json = document.toJSON();
+		Assert.assertTrue(json, json.startsWith("{\"document\":\"a \\\"b\\\".pdf\",\"nanos\":{\"parse\":0,\"drawPage\":10,"));
+		Assert.assertTrue(json, json.contains("\"counts\":{\"pages\":1,\"glyphs\":3,"));
+		Assert.assertTrue(json, json.contains("\"pageMetrics\":[\n{\"page\":1,\"nanos\":{\"parse\":0,\"drawPage\":10,"));
+		Assert.assertTrue(json, json.endsWith("}]}"));
+	}
+
+	@Test
+	public void testPrometheus() {
+		ConversionMetrics document = new ConversionMetrics("test.pdf");
+		document.addPage(createPage(1, 1500000000L, 3));
+		String prometheus = document.toPrometheus();
+		Assert.assertTrue(prometheus, prometheus.contains(
+				"pdf2svg_stage_seconds_total{document=\"test.pdf\",stage=\"drawPage\"} 1.500000000\n"));
+		Assert.assertTrue(prometheus, prometheus.contains("# TYPE pdf2svg_glyphs_total counter\n"));
+		Assert.assertTrue(prometheus, prometheus.contains("pdf2svg_bytes_written_total{document=\"test.pdf\"} 0\n"));
+	}
+
+	private static ConversionMetrics createPage(int pageNumber, long drawNanos, int glyphs) {
+		ConversionMetrics page = new ConversionMetrics(pageNumber);
+		page.addTime(Stage.DRAW_PAGE, drawNanos);
+		page.add(Counter.GLYPHS, glyphs);
+		return page;
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.font.NonStandardFontFamily;
+import org.xmlcml.font.NonStandardFontManager;
+import org.xmlcml.graphics.svg.GraphicsElement.FontWeight;
+
+public class FontStyleProfileTest {
+
+	@Test
+	public void testProfileIsBuiltOnce() {
+		NonStandardFontManager fontManager = new NonStandardFontManager();
+		AMIFont amiFont = fontManager.getAmiFontByFont(PDType1Font.TIMES_ROMAN);
+		FontStyleProfile profile = amiFont.getStyleProfile(fontManager);
+		Assert.assertSame(profile, amiFont.getStyleProfile(fontManager));
+		Assert.assertSame(profile.getNonStandardFontFamily(), amiFont.getNonStandardFontFamily());
+	}
+
+	@Test
+	public void testStandardFonts() {
+		NonStandardFontManager fontManager = new NonStandardFontManager();
+		FontStyleProfile courier = fontManager.getAmiFontByFont(PDType1Font.COURIER).getStyleProfile(fontManager);
+		Assert.assertTrue(courier.isFixedPitch());
+		Assert.assertEquals(NonStandardFontFamily.DEFAULT_MONOSPACED_FONT, courier.getStandardFontFamily());
+		// AFM weight 500 is over BOLD_FONT_MIN
+		Assert.assertEquals(FontWeight.BOLD, courier.getFontWeight());
+
+		FontStyleProfile timesBoldItalic = fontManager.getAmiFontByFont(PDType1Font.TIMES_BOLD_ITALIC).getStyleProfile(fontManager);
+		Assert.assertFalse(timesBoldItalic.isFixedPitch());
+		Assert.assertEquals(FontWeight.BOLD, timesBoldItalic.getFontWeight());
+		// the italic angle is negative; found from the name
+		Assert.assertTrue(timesBoldItalic.isItalic());
+
+		FontStyleProfile helvetica = fontManager.getAmiFontByFont(PDType1Font.HELVETICA).getStyleProfile(fontManager);
+		Assert.assertFalse(helvetica.isItalic());
+		Assert.assertEquals(helvetica.isSerif() ? NonStandardFontFamily.DEFAULT_SERIF_FONT : NonStandardFontFamily.DEFAULT_SANS_SERIF_FONT,
+				helvetica.getStandardFontFamily());
+	}
+}
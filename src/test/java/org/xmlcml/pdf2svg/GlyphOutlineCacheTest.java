@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlyphOutlineCacheTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File("target/glyphcache");
+		new File(dir, GlyphOutlineCache.STORE_FILE).delete();
+	}
+
+	@Test
+	public void testPutAndReopen() {
+		GlyphOutlineCache cache = new GlyphOutlineCache(dir, 1);
+		Assert.assertNull(cache.get("f/a"));
+		cache.put("f/a", "M0 0 L1 1");
+		cache.put("f/b", "M0 0 L2 2");
+		// only one is decoded in memory; the other comes from the file
+		Assert.assertEquals("M0 0 L1 1", cache.get("f/a"));
+		Assert.assertEquals("M0 0 L2 2", cache.get("f/b"));
+		Assert.assertEquals(2, cache.getHits());
+		cache.close();
+
+		cache = new GlyphOutlineCache(dir, 10);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals("M0 0 L2 2", cache.get("f/b"));
+		cache.close();
+	}
+
+	@Test
+	public void testTruncatedRecordIsReplaced() throws Exception {
+		GlyphOutlineCache cache = new GlyphOutlineCache(dir, 10);
+		cache.put("f/a", "M0 0 L1 1");
+		cache.close();
+		File file = new File(dir, GlyphOutlineCache.STORE_FILE);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length());
+		raf.writeInt(3);
+		raf.writeInt(100);
+		raf.close();
+
+		cache = new GlyphOutlineCache(dir, 10);
+		Assert.assertEquals(1, cache.size());
+		cache.put("f/b", "M1 1");
+		cache.close();
+		cache = new GlyphOutlineCache(dir, 10);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals("M1 1", cache.get("f/b"));
+		cache.close();
+	}
+
+	@Test
+	public void testFontKeys() throws Exception {
+		String key1 = getFirstFontKey();
+		Assert.assertNotNull(key1);
+		Assert.assertEquals(key1, getFirstFontKey());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getFirstFontKey() throws Exception {
+		PDDocument document = PDDocument.loadNonSeq(new File("src/test/resources/word/harterchap7small.pdf"), null);
+		try {
+			List<PDPage> pages = (List<PDPage>) document.getDocumentCatalog().getAllPages();
+			Map<String, PDFont> fonts = pages.get(0).findResources().getFonts();
+			PDFont font = fonts.values().iterator().next();
+			return GlyphOutlineCache.createFontKey(font, new IdentityHashMap<COSStream, byte[]>());
+		} finally {
+			document.close();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageEncoderTest {
+
+	@Test
+	public void testFlushWaitsForBackgroundImages() throws Exception {
+		File dir = new File("target/imageEncoder/background");
+		dir.mkdirs();
+		ImageEncoder imageEncoder = new ImageEncoder(ImageEncoder.PNG, 0.5f, 2);
+		int nImages = 20;
+		for (int i = 0; i < nImages; i++) {
+			imageEncoder.encode(createImage(BufferedImage.TYPE_INT_RGB), new File(dir, "i"+i+".png"));
+		}
+		imageEncoder.flush();
+		Assert.assertEquals(nImages, imageEncoder.getImageCount());
+		Assert.assertEquals(0, imageEncoder.getFailureCount());
+		for (int i = 0; i < nImages; i++) {
+			BufferedImage image = ImageIO.read(new File(dir, "i"+i+".png"));
+			Assert.assertEquals(64, image.getWidth());
+		}
+	}
+
+	@Test
+	public void testJPGWithAlpha() throws Exception {
+		File dir = new File("target/imageEncoder/jpg");
+		dir.mkdirs();
+		ImageEncoder imageEncoder = new ImageEncoder(ImageEncoder.JPG, 0.8f, 0);
+		File file = new File(dir, "alpha.jpg");
+		imageEncoder.encode(createImage(BufferedImage.TYPE_INT_ARGB), file);
+		Assert.assertEquals(0, imageEncoder.getFailureCount());
+		Assert.assertEquals(48, ImageIO.read(file).getHeight());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testBadFormat() {
+		new ImageEncoder("gif", null, 1);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testBadQuality() {
+		new ImageEncoder(ImageEncoder.PNG, 2.0f, 1);
+	}
+
+	private static BufferedImage createImage(int type) {
+		BufferedImage image = new BufferedImage(64, 48, type);
+		for (int x = 0; x < image.getWidth(); x++) {
+			for (int y = 0; y < image.getHeight(); y++) {
+				image.setRGB(x, y, 0xff000000 | (x * 4 << 16) | (y * 5 << 8));
+			}
+		}
+		return image;
+	}
+}
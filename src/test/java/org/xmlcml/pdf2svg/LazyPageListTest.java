@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LazyPageListTest {
+
+	@Test
+	public void testSamePagesAsGetAllPages() throws Exception {
+		assertSamePages(new File("src/test/resources/word/harterchap7small.pdf"));
+		assertSamePages(new File("src/test/resources/mdpi/materials-05-00027.pdf"));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfRange() throws Exception {
+		PDDocument document = PDDocument.loadNonSeq(new File("src/test/resources/page6.pdf"), null);
+		try {
+			new LazyPageList(document).get(1);
+		} finally {
+			document.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void assertSamePages(File file) throws Exception {
+		PDDocument document = PDDocument.loadNonSeq(file, null);
+		try {
+			List<PDPage> allPages = (List<PDPage>) document.getDocumentCatalog().getAllPages();
+			LazyPageList lazyPages = new LazyPageList(document);
+			Assert.assertEquals(allPages.size(), lazyPages.size());
+			for (int i = lazyPages.size() - 1; i >= 0; i--) {
+				Assert.assertSame("page "+(i + 1), allPages.get(i).getCOSDictionary(), lazyPages.get(i).getCOSDictionary());
+			}
+		} finally {
+			document.close();
+		}
+	}
+}
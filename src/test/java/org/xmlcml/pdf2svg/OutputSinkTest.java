@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import nu.xom.Attribute;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+public class OutputSinkTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File("target/outputsink");
+		delete(dir);
+		dir.mkdirs();
+	}
+
+	private static void delete(File file) {
+		if (file.isDirectory()) {
+			for (File child : file.listFiles()) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testDirectory() throws Exception {
+		OutputSink sink = OutputSink.create(OutputSink.DIR, OutputSink.DEFAULT_LEVEL);
+		sink.open(dir, "doc");
+		OutputSink.SinkOutputStream os = sink.openStream("doc-page1.svg", null);
+		os.write("<svg xmlns=\"http://www.w3.org/2000/svg\"/>".getBytes("UTF-8"));
+		Assert.assertFalse(new File(dir, "doc-page1.svg").exists());
+		os.commit();
+		os.close();
+		sink.close();
+		File file = new File(dir, "doc-page1.svg");
+		Assert.assertTrue(file.exists());
+		Assert.assertFalse(new File(dir, "doc-page1.svg.part").exists());
+		Assert.assertEquals(file.length(), os.getStoredCount());
+		Assert.assertEquals(file.length(), sink.getBytesIn());
+		Assert.assertEquals(1, sink.getEntryCount());
+		Assert.assertEquals(".svg", sink.getPageSuffix());
+	}
+
+	@Test
+	public void testSVGZ() throws Exception {
+		OutputSink sink = OutputSink.create(OutputSink.SVGZ, 9);
+		sink.open(dir, "doc");
+		String name = "doc-page1" + sink.getPageSuffix();
+		Assert.assertEquals("doc-page1.svgz", name);
+		SVGSVG page = createPage();
+		OutputSink.SinkOutputStream os = sink.openStream(name, null);
+		os.write(page.toXML().getBytes("UTF-8"));
+		os.commit();
+		os.close();
+		sink.close();
+		Assert.assertTrue(os.getStoredCount() < os.getCount());
+		Assert.assertEquals(new File(dir, name).length(), sink.getBytesStored());
+		SVGSVG readPage = sink.readPage(name);
+		Assert.assertEquals("600.0", readPage.getAttributeValue("width"));
+		Assert.assertEquals(page.getChildCount(), readPage.getChildCount());
+	}
+
+	@Test
+	public void testZip() throws Exception {
+		OutputSink sink = OutputSink.create(OutputSink.ZIP, OutputSink.DEFAULT_LEVEL);
+		sink.open(dir, "doc");
+		Assert.assertFalse(sink.isDirectory());
+		OutputSink.SinkOutputStream os = sink.openStream("doc-page1.svg", null);
+		os.write(createPage().toXML().getBytes("UTF-8"));
+		os.commit();
+		os.close();
+		ImageEncoder imageEncoder = new ImageEncoder(ImageEncoder.PNG, null, 2);
+		imageEncoder.encode(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), sink, "images/doc.p1.i1.png");
+		imageEncoder.flush();
+		Assert.assertEquals(0, imageEncoder.getFailureCount());
+		Assert.assertFalse(new File(dir, "doc.zip").exists());
+		sink.close();
+		File zip = new File(dir, "doc.zip");
+		Assert.assertTrue(zip.exists());
+		Assert.assertFalse(new File(dir, "doc-page1.svg").exists());
+		Assert.assertFalse(new File(dir, "images").exists());
+		Map<String, ZipEntry> entryByNameMap = new HashMap<String, ZipEntry>();
+		ZipFile zipFile = new ZipFile(zip);
+		try {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				entryByNameMap.put(entry.getName(), entry);
+			}
+		} finally {
+			zipFile.close();
+		}
+		Assert.assertEquals(2, entryByNameMap.size());
+		Assert.assertEquals(ZipEntry.DEFLATED, entryByNameMap.get("doc-page1.svg").getMethod());
+		Assert.assertEquals(ZipEntry.STORED, entryByNameMap.get("images/doc.p1.i1.png").getMethod());
+		Assert.assertEquals(2, sink.getEntryCount());
+		Assert.assertNull(sink.readPage("doc-page1.svg"));
+	}
+
+	@Test
+	public void testEmptyZipIsNotWritten() {
+		OutputSink sink = OutputSink.create(OutputSink.ZIP, 1);
+		sink.open(dir, "empty");
+		sink.close();
+		Assert.assertFalse(new File(dir, "empty.zip").exists());
+	}
+
+	@Test
+	public void testFailedWriteIsNotPublished() throws Exception {
+		String[] types = {OutputSink.DIR, OutputSink.SVGZ, OutputSink.ZIP};
+		for (String type : types) {
+			OutputSink sink = OutputSink.create(type, OutputSink.DEFAULT_LEVEL);
+			sink.open(dir, "failed");
+			String name = "failed-page1" + sink.getPageSuffix();
+			OutputSink.SinkOutputStream os = sink.openStream(name, null);
+			try {
+				writeAndFail(os);
+				os.commit();
+				Assert.fail("should throw");
+			} catch (IOException e) {
+				// expected
+			} finally {
+				os.close();
+			}
+			Assert.assertFalse(os.isCommitted());
+			sink.close();
+			Assert.assertFalse(type, new File(dir, name).exists());
+			Assert.assertFalse(type, new File(dir, name+".part").exists());
+			Assert.assertFalse(type, new File(dir, "failed.zip").exists());
+			Assert.assertEquals(0, sink.getEntryCount());
+		}
+	}
+
+	@Test
+	public void testAbortedZipIsNotPublished() throws Exception {
+		OutputSink sink = OutputSink.create(OutputSink.ZIP, OutputSink.DEFAULT_LEVEL);
+		sink.open(dir, "aborted");
+		OutputSink.SinkOutputStream os = sink.openStream("aborted-page1.svg", null);
+		os.write(createPage().toXML().getBytes("UTF-8"));
+		os.commit();
+		os.close();
+		// the document fails before its other pages
+		sink.abort();
+		Assert.assertFalse(new File(dir, "aborted.zip").exists());
+		Assert.assertFalse(new File(dir, "aborted.zip.part").exists());
+	}
+
+	@Test
+	public void testCommitAfterFailedEntry() throws Exception {
+		OutputSink sink = OutputSink.create(OutputSink.ZIP, OutputSink.DEFAULT_LEVEL);
+		sink.open(dir, "partial");
+		OutputSink.SinkOutputStream failed = sink.openStream("partial-page1.svg", null);
+		try {
+			writeAndFail(failed);
+		} catch (IOException e) {
+			// expected
+		} finally {
+			failed.close();
+		}
+		OutputSink.SinkOutputStream os = sink.openStream("partial-page2.svg", null);
+		os.write(createPage().toXML().getBytes("UTF-8"));
+		os.commit();
+		os.close();
+		sink.close();
+		ZipFile zipFile = new ZipFile(new File(dir, "partial.zip"));
+		try {
+			Assert.assertNull(zipFile.getEntry("partial-page1.svg"));
+			Assert.assertNotNull(zipFile.getEntry("partial-page2.svg"));
+		} finally {
+			zipFile.close();
+		}
+	}
+
+	// as a serializer failing part way through a page
+	private static void writeAndFail(OutputStream os) throws IOException {
+		os.write("<svg xmlns=\"http://www.w3.org/2000/svg\">".getBytes("UTF-8"));
+		throw new IOException("disk full");
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testBadLevel() {
+		OutputSink.create(OutputSink.SVGZ, 10);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testBadType() {
+		OutputSink.create("tar", OutputSink.DEFAULT_LEVEL);
+	}
+
+	private static SVGSVG createPage() {
+		SVGSVG page = new SVGSVG();
+		page.addAttribute(new Attribute("width", "600.0"));
+		for (int i = 0; i < 100; i++) {
+			SVGSVG child = new SVGSVG();
+			child.addAttribute(new Attribute("x", String.valueOf(i)));
+			page.appendChild(child);
+		}
+		return page;
+	}
+}
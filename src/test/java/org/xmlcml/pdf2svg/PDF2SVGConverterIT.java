@@ -16,16 +16,30 @@
 package org.xmlcml.pdf2svg;
 
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import nu.xom.Element;
+import nu.xom.Nodes;
 
 import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.xmlcml.graphics.svg.SVGG;
 import org.xmlcml.graphics.svg.SVGPath;
 import org.xmlcml.graphics.svg.SVGSVG;
 import org.xmlcml.graphics.svg.SVGText;
 import org.xmlcml.graphics.svg.SVGUtil;
+import org.xmlcml.graphics.svg.normalize.TextDecorator;
 
 /** this is a mess and needs refactoring
  * 
@@ -91,6 +105,279 @@ public class PDF2SVGConverterIT {
 				&& nPaths < 210);
 	}
 
+	@Test
+	public void testThreadsGiveSamePagesAsSerial() {
+		PDF2SVGConverter serialConverter = new PDF2SVGConverter();
+		serialConverter.run("-outdir", "target/threads/serial", "-storesvg",
+				"src/test/resources/word/harterchap7small.pdf");
+		PDF2SVGConverter parallelConverter = new PDF2SVGConverter();
+		parallelConverter.run("-outdir", "target/threads/parallel", "-storesvg", "-threads", "3",
+				"src/test/resources/word/harterchap7small.pdf");
+		List<SVGSVG> serialPages = serialConverter.getPageList();
+		List<SVGSVG> parallelPages = parallelConverter.getPageList();
+		Assert.assertEquals("Page count", serialPages.size(), parallelPages.size());
+		for (int i = 0; i < serialPages.size(); i++) {
+			Assert.assertEquals("page "+(i + 1), serialPages.get(i).toXML(), parallelPages.get(i).toXML());
+		}
+	}
+
+	@Test
+	public void testStreamGivesSameFilesAsDOM() throws Exception {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/stream/dom", "src/test/resources/page6.pdf");
+		PDF2SVGConverter streamingConverter = new PDF2SVGConverter();
+		streamingConverter.run("-outdir", "target/stream/streamed", "-stream", "src/test/resources/page6.pdf");
+		Assert.assertEquals(0, streamingConverter.getPageList().size());
+		byte[] dom = readBytes(new File("target/stream/dom/page6-page1.svg"));
+		byte[] streamed = readBytes(new File("target/stream/streamed/page6-page1.svg"));
+		Assert.assertTrue(Arrays.equals(dom, streamed));
+	}
+
+	@Test
+	public void testPages() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/pages/first", "-storesvg", "-pages", "first:2",
+				"src/test/resources/word/harterchap7small.pdf");
+		Assert.assertEquals(2, converter.getPageList().size());
+		Assert.assertTrue(new File("target/pages/first/harterchap7small-page2.svg").exists());
+		Assert.assertFalse(new File("target/pages/first/harterchap7small-page3.svg").exists());
+		converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/pages/last", "-storesvg",
+				"src/test/resources/word/harterchap7small.pdf#pages=last:1");
+		Assert.assertEquals(1, converter.getPageList().size());
+		Assert.assertFalse(new File("target/pages/last/harterchap7small-page1.svg").exists());
+	}
+
+	@Test
+	public void testResume() {
+		File outdir = new File("target/resume");
+		new File(outdir, ConversionCheckpoint.CHECKPOINT_FILE).delete();
+		File page1 = new File(outdir, "harterchap7small-page1.svg");
+		File page2 = new File(outdir, "harterchap7small-page2.svg");
+		new PDF2SVGConverter().run("-outdir", outdir.toString(), "-resume",
+				"src/test/resources/word/harterchap7small.pdf");
+		long lastModified1 = page1.lastModified();
+		page2.delete();
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", outdir.toString(), "-resume", "-storesvg",
+				"src/test/resources/word/harterchap7small.pdf");
+		Assert.assertEquals(lastModified1, page1.lastModified());
+		Assert.assertTrue(page2.exists());
+		Assert.assertFalse(new File(outdir, page2.getName()+".part").exists());
+		Assert.assertEquals(converter.getPageList().size(), outdir.list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".svg");
+			}
+		}).length);
+	}
+
+	@Test
+	public void testPageCache() {
+		File cacheDir = new File("target/pagecache/it");
+		PageCache pageCache = new PageCache(cacheDir, 16);
+		pageCache.clear();
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.setPageCache(pageCache);
+		converter.run("-outdir", "target/pagecache/first", "src/test/resources/word/harterchap7small.pdf");
+		long misses = pageCache.getMisses();
+		Assert.assertEquals(0, pageCache.getHits());
+		Assert.assertTrue(pageCache.size() > 0);
+		converter = new PDF2SVGConverter();
+		converter.setPageCache(pageCache);
+		converter.run("-outdir", "target/pagecache/second", "src/test/resources/word/harterchap7small.pdf");
+		Assert.assertEquals(pageCache.size(), pageCache.getHits());
+		Assert.assertEquals(misses + misses - pageCache.size(), pageCache.getMisses());
+		Assert.assertEquals(ConversionCheckpoint.hash(new File("target/pagecache/first/harterchap7small-page1.svg")),
+				ConversionCheckpoint.hash(new File("target/pagecache/second/harterchap7small-page1.svg")));
+	}
+
+	@Test
+	public void testCompactTextRuns() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/compact/glyphs", "-storesvg", "-pages", "1",
+				"src/test/resources/word/harterchap7small.pdf");
+		SVGSVG glyphPage = converter.getPageList().get(0);
+		converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/compact/runs", "-storesvg", "-compact", "-pages", "1",
+				"src/test/resources/word/harterchap7small.pdf");
+		SVGSVG runPage = converter.getPageList().get(0);
+		Nodes glyphs = glyphPage.query("//*[local-name()='text']");
+		Nodes runs = runPage.query("//*[local-name()='text']");
+		Assert.assertTrue("runs", runs.size() > 0 && runs.size() < glyphs.size());
+		Assert.assertEquals(glyphPage.query("//*[local-name()='path']").size(),
+				runPage.query("//*[local-name()='path']").size());
+		StringBuilder glyphText = new StringBuilder();
+		for (int i = 0; i < glyphs.size(); i++) {
+			glyphText.append(glyphs.get(i).getValue());
+		}
+		StringBuilder runText = new StringBuilder();
+		for (int i = 0; i < runs.size(); i++) {
+			runText.append(runs.get(i).getValue());
+		}
+		Assert.assertEquals(glyphText.toString(), runText.toString());
+	}
+
+	/** each character of a run must be where the per-glyph page and the old
+	 * TextDecorator compaction put it
+	 */
+	@Test
+	public void testCompactTextRunPositions() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/compact/glyphs", "-storesvg", "-pages", "1-2",
+				"src/test/resources/word/harterchap7small.pdf");
+		List<SVGSVG> glyphPages = converter.getPageList();
+		converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/compact/runs", "-storesvg", "-compact", "-pages", "1-2",
+				"src/test/resources/word/harterchap7small.pdf");
+		List<SVGSVG> runPages = converter.getPageList();
+		for (int page = 0; page < runPages.size(); page++) {
+			Nodes runs = runPages.get(page).query("//*[local-name()='text']");
+			for (int i = 0; i < runs.size(); i++) {
+				Element run = (Element) runs.get(i);
+				String[] xs = run.getAttributeValue("x").trim().split("\\s+");
+				// a single glyph (possibly a ligature) or one x per character
+				Assert.assertTrue(run.getValue(), xs.length == 1 || xs.length == run.getValue().length());
+			}
+			List<SVGText> glyphs = SVGText.extractSelfAndDescendantTexts(glyphPages.get(page));
+			List<String> runCharacters = getCharacterPositions(runs);
+			Assert.assertEquals(getCharacterPositions(glyphPages.get(page).query("//*[local-name()='text']")), runCharacters);
+			for (SVGText glyph : glyphs) {
+				glyph.detach();
+			}
+			SVGG decorated = new TextDecorator().compactTexts(glyphs);
+			Assert.assertEquals(runCharacters, getCharacterPositions(decorated.query("//*[local-name()='text']")));
+		}
+	}
+
+	/** character, x (to 0.01) and y of each character; x is only known for the first
+	 * character of a multi-character glyph
+	 */
+	private static List<String> getCharacterPositions(Nodes texts) {
+		List<String> positionList = new ArrayList<String>();
+		for (int i = 0; i < texts.size(); i++) {
+			Element text = (Element) texts.get(i);
+			String value = text.getValue();
+			String[] xs = text.getAttributeValue("x").trim().split("\\s+");
+			double y = Double.parseDouble(text.getAttributeValue("y"));
+			for (int j = 0; j < value.length(); j++) {
+				String x = null;
+				if (xs.length == value.length() || j == 0) {
+					x = String.format("%.2f", Double.parseDouble(xs[j]));
+				}
+				positionList.add(value.charAt(j)+" "+x+" "+String.format("%.2f", y));
+			}
+		}
+		return positionList;
+	}
+
+	@Test
+	public void testStyleClasses() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/cssclasses/inline", "-storesvg", "-pages", "1",
+				"src/test/resources/word/harterchap7small.pdf");
+		SVGSVG inlinePage = converter.getPageList().get(0);
+		converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/cssclasses/classes", "-storesvg", "-cssclasses", "-pages", "1",
+				"src/test/resources/word/harterchap7small.pdf");
+		SVGSVG classPage = converter.getPageList().get(0);
+		Assert.assertEquals(1, classPage.query("//*[@id='"+StyleClassMap.STYLE_ID+"']").size());
+		Assert.assertTrue(classPage.toXML().length() < inlinePage.toXML().length());
+		Assert.assertEquals(0, inlinePage.query("//*[@class]").size());
+		Assert.assertTrue(StyleClassMap.expandClasses(classPage) > 0);
+		Nodes inlineTexts = inlinePage.query("//*[local-name()='text']");
+		Nodes expandedTexts = classPage.query("//*[local-name()='text']");
+		Assert.assertEquals(inlineTexts.size(), expandedTexts.size());
+		for (int i = 0; i < inlineTexts.size(); i++) {
+			Element inlineText = (Element) inlineTexts.get(i);
+			Element expandedText = (Element) expandedTexts.get(i);
+			Assert.assertEquals(inlineText.getAttributeCount(), expandedText.getAttributeCount());
+			Assert.assertEquals(inlineText.getAttributeValue("fill"), expandedText.getAttributeValue("fill"));
+			Assert.assertEquals(inlineText.getAttributeValue("font-size"), expandedText.getAttributeValue("font-size"));
+		}
+	}
+
+	@Test
+	public void testTextOnly() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/textonly/full", "-storesvg", "-pages", "1-2",
+				"src/test/resources/word/harterchap7small.pdf");
+		List<SVGSVG> fullPages = converter.getPageList();
+		converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/textonly/text", "-storesvg", "-textonly", "-pages", "1-2",
+				"src/test/resources/word/harterchap7small.pdf");
+		List<SVGSVG> textPages = converter.getPageList();
+		Assert.assertEquals(fullPages.size(), textPages.size());
+		for (int i = 0; i < textPages.size(); i++) {
+			SVGSVG textPage = textPages.get(i);
+			Assert.assertEquals(0, textPage.query("//*[local-name()='path' or local-name()='image']").size());
+			Assert.assertEquals(0, textPage.query("//@clip-path").size());
+			Nodes fullTexts = fullPages.get(i).query("//*[local-name()='text']");
+			Nodes texts = textPage.query("//*[local-name()='text']");
+			Assert.assertEquals(fullTexts.size(), texts.size());
+			for (int j = 0; j < texts.size(); j++) {
+				Assert.assertEquals(fullTexts.get(j).getValue(), texts.get(j).getValue());
+				Assert.assertEquals(((Element) fullTexts.get(j)).getAttributeValue("x"), ((Element) texts.get(j)).getAttributeValue("x"));
+			}
+		}
+	}
+
+	@Test
+	public void testOutputSinks() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/sink/svgz", "-output", "svgz", "-compresslevel", "9", "-pages", "1-2",
+				"src/test/resources/word/harterchap7small.pdf");
+		Assert.assertTrue(new File("target/sink/svgz/harterchap7small-page1.svgz").exists());
+		Assert.assertFalse(new File("target/sink/svgz/harterchap7small-page1.svg").exists());
+		Assert.assertTrue(converter.getOutputSink().getBytesStored() < converter.getOutputSink().getBytesIn());
+		converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/sink/zip", "-output", "zip", "-metrics", "json", "-pages", "1-2",
+				"src/test/resources/word/harterchap7small.pdf");
+		Assert.assertTrue(new File("target/sink/zip/harterchap7small.zip").exists());
+		Assert.assertFalse(new File("target/sink/zip/harterchap7small-page1.svg").exists());
+		Assert.assertEquals(3, converter.getOutputSink().getEntryCount());
+	}
+
+	@Test
+	public void testClipPathsAreNumberedPerPage() {
+		PDF2SVGConverter converter = new PDF2SVGConverter();
+		converter.run("-outdir", "target/clip", "-storesvg",
+				"src/test/resources/word/harterchap7small.pdf");
+		List<SVGSVG> pages = converter.getPageList();
+		Assert.assertTrue("pages", pages.size() > 1);
+		for (SVGSVG page : pages) {
+			Nodes clipPaths = page.query("//*[local-name()='clipPath']");
+			Assert.assertTrue("clipPaths", clipPaths.size() > 0);
+			Set<String> idSet = new HashSet<String>();
+			for (int i = 0; i < clipPaths.size(); i++) {
+				idSet.add(((Element) clipPaths.get(i)).getAttributeValue("id"));
+			}
+			for (int i = 1; i <= clipPaths.size(); i++) {
+				Assert.assertTrue("clipPath"+i, idSet.contains("clipPath"+i));
+			}
+			Nodes references = page.query("//@clip-path");
+			for (int i = 0; i < references.size(); i++) {
+				String value = references.get(i).getValue();
+				String id = value.substring("url(#".length(), value.length() - 1);
+				Assert.assertTrue(value, idSet.contains(id));
+			}
+		}
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, n);
+			}
+		} finally {
+			is.close();
+		}
+		return baos.toByteArray();
+	}
+
 	@Test
 	public void testWord() {
 		PDF2SVGConverter converter = new PDF2SVGConverter();
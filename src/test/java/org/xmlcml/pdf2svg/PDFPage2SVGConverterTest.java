@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontFactory;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PDFPage2SVGConverterTest {
+
+	@Test
+	public void testCachedStringWidth() throws Exception {
+		PDFPage2SVGConverter converter = new PDFPage2SVGConverter();
+		PDFont[] fonts = {PDType1Font.HELVETICA, PDType1Font.TIMES_BOLD, PDType1Font.COURIER, PDType1Font.SYMBOL};
+		String[] strings = {"", "a", "W", " ", "fi", "Hello, world", "éü ", "α—", "x𝐀y"};
+		// twice; the second time from the cache
+		for (int pass = 0; pass < 2; pass++) {
+			for (PDFont font : fonts) {
+				for (String s : strings) {
+					Assert.assertEquals(font.getBaseFont()+" "+s, font.getStringWidth(s), converter.getStringWidth(font, s), 0.0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testWidthsAreKeptByDictionary() throws Exception {
+		PDFPage2SVGConverter converter = new PDFPage2SVGConverter();
+		Assert.assertEquals(600f, converter.getStringWidth(PDType1Font.COURIER, "i"), 0.0f);
+		// another PDFont for the same dictionary
+		PDFont courier = PDFontFactory.createFont((COSDictionary) PDType1Font.COURIER.getCOSObject());
+		Assert.assertNotSame(PDType1Font.COURIER, courier);
+		Assert.assertEquals(600f, converter.getStringWidth(courier, "i"), 0.0f);
+		Assert.assertEquals(PDType1Font.HELVETICA.getStringWidth("i"), converter.getStringWidth(PDType1Font.HELVETICA, "i"), 0.0f);
+	}
+}
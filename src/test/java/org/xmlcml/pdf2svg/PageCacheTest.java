@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import nu.xom.Attribute;
+
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+public class PageCacheTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File("target/pagecache");
+		if (dir.isDirectory()) {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testKeys() throws Exception {
+		File file = new File("src/test/resources/word/harterchap7small.pdf");
+		List<String> keys1 = createKeys(file, "a");
+		List<String> keys2 = createKeys(file, "a");
+		Assert.assertEquals(keys1, keys2);
+		Assert.assertFalse(keys1.get(0).equals(keys1.get(1)));
+		Assert.assertFalse(keys1.get(0).equals(createKeys(file, "b").get(0)));
+	}
+
+	@Test
+	public void testPutAndGet() {
+		PageCache pageCache = new PageCache(dir, 1);
+		Assert.assertNull(pageCache.get("k1"));
+		pageCache.put("k1", createPage("p1"));
+		Assert.assertEquals("p1", pageCache.get("k1").getAttributeValue("id"));
+		Assert.assertEquals(1, pageCache.getHits());
+		Assert.assertEquals(1, pageCache.getMisses());
+		// entries survive a new cache on the same directory
+		pageCache = new PageCache(dir, 1);
+		Assert.assertEquals(1, pageCache.size());
+		Assert.assertNotNull(pageCache.get("k1"));
+	}
+
+	@Test
+	public void testEviction() {
+		PageCache pageCache = new PageCache(dir, 1L);
+		pageCache.put("k1", createPage("p1"));
+		long pageBytes = pageCache.getTotalBytes();
+		pageCache = new PageCache(dir, 2 * pageBytes);
+		pageCache.put("k2", createPage("p2"));
+		Assert.assertNotNull(pageCache.get("k1"));
+		pageCache.put("k3", createPage("p3"));
+		Assert.assertEquals(2, pageCache.size());
+		Assert.assertNull(pageCache.get("k2"));
+		Assert.assertNotNull(pageCache.get("k1"));
+		Assert.assertNotNull(pageCache.get("k3"));
+	}
+
+	@Test
+	public void testSharedDirectory() {
+		PageCache pageCache1 = new PageCache(dir, 1);
+		PageCache pageCache2 = new PageCache(dir, 1);
+		pageCache1.put("k1", createPage("p1"));
+		Assert.assertEquals(0, pageCache2.size());
+		Assert.assertEquals("p1", pageCache2.get("k1").getAttributeValue("id"));
+		Assert.assertEquals(1, pageCache2.getHits());
+		Assert.assertEquals(1, pageCache2.size());
+		Assert.assertEquals(pageCache1.getTotalBytes(), pageCache2.getTotalBytes());
+		Assert.assertNull(pageCache2.get("k2"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> createKeys(File file, String settings) throws Exception {
+		PDDocument document = PDDocument.loadNonSeq(file, null);
+		try {
+			List<PDPage> pages = (List<PDPage>) document.getDocumentCatalog().getAllPages();
+			IdentityHashMap<COSStream, byte[]> streamDigestMap = new IdentityHashMap<COSStream, byte[]>();
+			return Arrays.asList(
+					PageCache.createKey(pages.get(0), settings, streamDigestMap),
+					PageCache.createKey(pages.get(1), settings, streamDigestMap));
+		} finally {
+			document.close();
+		}
+	}
+
+	private static SVGSVG createPage(String id) {
+		SVGSVG page = new SVGSVG();
+		page.addAttribute(new Attribute("id", id));
+		return page;
+	}
+}
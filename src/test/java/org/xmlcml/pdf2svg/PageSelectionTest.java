@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PageSelectionTest {
+
+	@Test
+	public void testAll() {
+		Assert.assertTrue(PageSelection.ALL.isAll());
+		Assert.assertEquals(Arrays.asList(1, 2, 3), PageSelection.ALL.getPageNumbers(3));
+		Assert.assertEquals(0, PageSelection.ALL.getPageNumbers(0).size());
+	}
+
+	@Test
+	public void testRanges() {
+		PageSelection pageSelection = PageSelection.parse("7, 2-3,10-");
+		Assert.assertEquals(Arrays.asList(2, 3, 7, 10, 11, 12), pageSelection.getPageNumbers(12));
+		Assert.assertEquals(Arrays.asList(2, 3), pageSelection.getPageNumbers(5));
+	}
+
+	@Test
+	public void testFirstAndLast() {
+		PageSelection pageSelection = PageSelection.parse("first:2,last:1");
+		Assert.assertEquals(Arrays.asList(1, 2, 100), pageSelection.getPageNumbers(100));
+		Assert.assertEquals(Arrays.asList(1, 2), pageSelection.getPageNumbers(2));
+		Assert.assertEquals(Arrays.asList(1), pageSelection.getPageNumbers(1));
+		Assert.assertEquals(Arrays.asList(3, 4, 5), PageSelection.parse("last:3").getPageNumbers(5));
+		Assert.assertEquals(Arrays.asList(1, 2), PageSelection.parse("last:3").getPageNumbers(2));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testBadRange() {
+		PageSelection.parse("5-2");
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testBadItem() {
+		PageSelection.parse("first:0");
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testEmpty() {
+		PageSelection.parse(" ");
+	}
+}
@@ -18,6 +18,7 @@ package org.xmlcml.pdf2svg;
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Random;
 
 import org.apache.log4j.Logger;
 import org.junit.Assert;
@@ -114,4 +115,66 @@ public class SVGSerializerTest {
 			charIndex += charCount;
 		}
 	}
+
+	@Test
+	public void testEscapes() throws IOException {
+		Assert.assertEquals("<t>plain text</t>", serializeText("plain text"));
+		Assert.assertEquals("<t>a&amp;b&lt;c&gt;d&apos;e&quot;f</t>", serializeText("a&b<c>d'e\"f"));
+		Assert.assertEquals("<t>&#945;x&#120030;&#945;</t>", serializeText((char)945+"x"+SCRIPT_O+(char)945));
+	}
+
+	@Test
+	public void testSameAsCodepointEscaping() throws IOException {
+		Random random = new Random(17);
+		String[] alphabet = {"a", "b", " ", "<", ">", "&", "'", "\"", "\t", "\n", ";", "#",
+				String.valueOf((char)945), String.valueOf((char)160), SCRIPT_O};
+		for (int n = 0; n < 200; n++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(20);
+			for (int i = 0; i < length; i++) {
+				sb.append(alphabet[random.nextInt(alphabet.length)]);
+			}
+			String s = sb.toString();
+			// not empty, which would give <t/>
+			s = "["+s+"]";
+			Assert.assertEquals(s, "<t>"+escapeByCodepoint(s)+"</t>", serializeText(s));
+		}
+	}
+
+	private static String serializeText(String s) throws IOException {
+		Element e = new Element("t");
+		e.appendChild(s);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Serializer serializer = new SVGSerializer(baos, "UTF-8");
+		serializer.write(new Document(e));
+		String xml = baos.toString("UTF-8");
+		return xml.substring(xml.indexOf("<t>"), xml.lastIndexOf("</t>") + 4);
+	}
+
+	/** the original SVGSerializer escaping, one codepoint at a time */
+	private static String escapeByCodepoint(String s) {
+		StringBuilder sb = new StringBuilder();
+		int codePointCount = s.codePointCount(0, s.length());
+		int charIndex = 0;
+		for (int i = 0; i < codePointCount; i++) {
+			int codepoint = s.codePointAt(charIndex);
+			charIndex += Character.charCount(codepoint);
+			if (codepoint > 127) {
+				sb.append("&#").append(codepoint).append(";");
+			} else if (codepoint == '&') {
+				sb.append("&amp;");
+			} else if (codepoint == '<') {
+				sb.append("&lt;");
+			} else if (codepoint == '>') {
+				sb.append("&gt;");
+			} else if (codepoint == '\'') {
+				sb.append("&apos;");
+			} else if (codepoint == '"') {
+				sb.append("&quot;");
+			} else {
+				sb.append((char) codepoint);
+			}
+		}
+		return sb.toString();
+	}
 }
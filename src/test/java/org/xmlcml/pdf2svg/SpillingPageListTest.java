@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.Iterator;
+
+import nu.xom.Attribute;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.graphics.svg.SVGSVG;
+
+public class SpillingPageListTest {
+
+	@Test
+	public void testIterateWithinWindow() {
+		SpillingPageList pageList = createPageList(3, 10);
+		Assert.assertEquals(10, pageList.size());
+		Assert.assertEquals(3, pageList.getResidentCount());
+		Assert.assertEquals(7, pageList.getSpillCount());
+		int i = 0;
+		for (SVGSVG page : pageList) {
+			Assert.assertEquals("p"+i, page.getAttributeValue("id"));
+			Assert.assertTrue(pageList.getResidentCount() <= 3);
+			i++;
+		}
+		Assert.assertEquals(10, i);
+		Assert.assertEquals(10, pageList.getReloadCount());
+		// the last pages are evicted by the first; after that nothing is written again
+		Assert.assertEquals(10, pageList.getSpillCount());
+		for (SVGSVG page : pageList) {
+			Assert.assertNotNull(page);
+		}
+		Assert.assertEquals(10, pageList.getSpillCount());
+		pageList.clear();
+		Assert.assertEquals(0, pageList.size());
+	}
+
+	@Test
+	public void testSetKeepsChanges() {
+		SpillingPageList pageList = createPageList(1, 3);
+		SVGSVG page = pageList.get(0);
+		page.addAttribute(new Attribute("class", "changed"));
+		pageList.set(0, page);
+		pageList.get(2);
+		Assert.assertEquals("changed", pageList.get(0).getAttributeValue("class"));
+		Iterator<SVGSVG> iterator = pageList.iterator();
+		Assert.assertEquals("p0", iterator.next().getAttributeValue("id"));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfRange() {
+		createPageList(2, 2).get(2);
+	}
+
+	private static SpillingPageList createPageList(int window, int pages) {
+		SpillingPageList pageList = new SpillingPageList(window);
+		for (int i = 0; i < pages; i++) {
+			SVGSVG page = new SVGSVG();
+			page.addAttribute(new Attribute("id", "p"+i));
+			pageList.add(page);
+		}
+		return pageList;
+	}
+}
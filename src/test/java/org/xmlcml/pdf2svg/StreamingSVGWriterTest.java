@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import nu.xom.Document;
+import nu.xom.Serializer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.euclid.Real2;
+import org.xmlcml.graphics.svg.SVGDefs;
+import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.graphics.svg.SVGPath;
+import org.xmlcml.graphics.svg.SVGSVG;
+import org.xmlcml.graphics.svg.SVGText;
+import org.xmlcml.graphics.svg.SVGTitle;
+import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
+
+public class StreamingSVGWriterTest {
+
+	@Test
+	public void testSameBytesAsSerializer() throws IOException {
+		SVGSVG streamedPage = createPage();
+		SVGSVG page = createPage();
+		StreamingSVGWriter streamingWriter = new StreamingSVGWriter(streamedPage);
+		for (int i = 0; i < 3; i++) {
+			streamingWriter.writeElement(createText(i));
+			page.appendChild(createText(i));
+		}
+		streamingWriter.writeElement(new SVGPath("M0 0 L10 10"));
+		page.appendChild(new SVGPath("M0 0 L10 10"));
+		Assert.assertEquals(4, streamingWriter.getElementCount());
+
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		streamingWriter.writeTo(streamed);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		Serializer serializer = new SVGSerializer(serialized, "UTF-8");
+		serializer.setIndent(1);
+		serializer.write(new Document(page));
+		Assert.assertEquals(serialized.toString("UTF-8"), streamed.toString("UTF-8"));
+	}
+
+	private SVGSVG createPage() {
+		SVGSVG page = new SVGSVG();
+		page.setWidth(600.0);
+		page.setHeight(800.0);
+		page.addNamespaceDeclaration(PDF2SVGUtil.SVGX_PREFIX, PDF2SVGUtil.SVGX_NS);
+		SVGElement defs = new SVGDefs();
+		defs.setId("defs1");
+		page.appendChild(defs);
+		return page;
+	}
+
+	private SVGText createText(int i) {
+		SVGText text = new SVGText(new Real2(10.0 * i, 20.0), (char)945+"<"+i);
+		PDF2SVGUtil.setSVGXAttribute(text, PDF2SVGUtil.CHARACTER_WIDTH, "500.0");
+		if (i == 1) {
+			text.appendChild(new SVGTitle("title"+i));
+		}
+		return text;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import java.util.Map;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.font.NonStandardFontManager;
+import org.xmlcml.graphics.svg.SVGDefs;
+import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.graphics.svg.SVGSVG;
+import org.xmlcml.graphics.svg.SVGText;
+import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
+
+public class StyleClassMapTest {
+
+	private static SVGText createGlyph(String fill, String x, String fontSize, String value) {
+		SVGText text = new SVGText();
+		text.addAttribute(new Attribute("stroke", "none"));
+		text.addAttribute(new Attribute("fill", fill));
+		text.addAttribute(new Attribute("clip-path", "url(#clipPath2)"));
+		text.addAttribute(new Attribute("font-family", "Frutiger-Light"));
+		PDF2SVGUtil.setSVGXAttribute(text, NonStandardFontManager.FONT_NAME, "LGFBDG+Frutiger-Light");
+		PDF2SVGUtil.setSVGXAttribute(text, PDF2SVGUtil.CHARACTER_WIDTH, "500.0");
+		text.addAttribute(new Attribute("x", x));
+		text.addAttribute(new Attribute("y", "51.237"));
+		text.addAttribute(new Attribute("font-size", fontSize));
+		text.setText(value);
+		return text;
+	}
+
+	@Test
+	public void testSharedClass() {
+		StyleClassMap styleClassMap = new StyleClassMap();
+		SVGText c = createGlyph("#000000", "547.385", "9.513", "C");
+		SVGText e = createGlyph("#000000", "553.248", "9.513", "e");
+		SVGText b = createGlyph("#2c70ff", "507.487", "9.513", "B");
+		styleClassMap.addClass(c);
+		styleClassMap.addClass(e);
+		styleClassMap.addClass(b);
+		Assert.assertEquals(2, styleClassMap.size());
+		Assert.assertEquals(3, styleClassMap.getElementCount());
+		Assert.assertEquals("s1", c.getAttributeValue(StyleClassMap.CLASS));
+		Assert.assertEquals("s1", e.getAttributeValue(StyleClassMap.CLASS));
+		Assert.assertEquals("s2", b.getAttributeValue(StyleClassMap.CLASS));
+		Assert.assertNull(c.getAttribute("fill"));
+		Assert.assertNull(c.getAttribute("font-size"));
+		Assert.assertNull(PDF2SVGUtil.getSVGXAttribute(c, NonStandardFontManager.FONT_NAME));
+		Assert.assertEquals("500.0", PDF2SVGUtil.getSVGXAttribute(c, PDF2SVGUtil.CHARACTER_WIDTH));
+		Assert.assertEquals("547.385", c.getAttributeValue("x"));
+		Element style = styleClassMap.createStyleElement();
+		Assert.assertEquals(StyleClassMap.STYLE_ID, style.getAttributeValue("id"));
+		Map<String, String[]> declarationsByClassMap = StyleClassMap.parseRules(style.getValue());
+		Assert.assertEquals(2, declarationsByClassMap.size());
+		String[] declarations = declarationsByClassMap.get("s2");
+		Assert.assertEquals("fill", declarations[2]);
+		Assert.assertEquals("#2c70ff", declarations[3]);
+		Assert.assertTrue(style.getValue().contains("font-size:9.513px"));
+	}
+
+	@Test
+	public void testExpandClasses() {
+		SVGSVG page = new SVGSVG();
+		SVGElement defs = new SVGDefs();
+		page.appendChild(defs);
+		SVGText[] glyphs = {
+				createGlyph("#000000", "547.385", "9.513", "C"),
+				createGlyph("#000000", "553.248", "9.513", "e"),
+				createGlyph("#199b72", "533.522", "9.0", "M"),
+				createGlyph("red", "1.0", "12pt", "x"),
+		};
+		Element[] originals = new Element[glyphs.length];
+		StyleClassMap styleClassMap = new StyleClassMap();
+		for (int i = 0; i < glyphs.length; i++) {
+			originals[i] = (Element) glyphs[i].copy();
+			styleClassMap.addClass(glyphs[i]);
+			page.appendChild(glyphs[i]);
+		}
+		defs.appendChild(styleClassMap.createStyleElement());
+		// non-numeric font-size is left inline
+		Assert.assertEquals("12pt", glyphs[3].getAttributeValue("font-size"));
+
+		Assert.assertEquals(4, StyleClassMap.expandClasses(page));
+		Assert.assertEquals(0, defs.getChildCount());
+		for (int i = 0; i < glyphs.length; i++) {
+			assertSameAttributes(originals[i], glyphs[i]);
+		}
+		Assert.assertEquals("#199b72", glyphs[2].getAttributeValue("fill"));
+		Assert.assertEquals("9.0", glyphs[2].getAttributeValue("font-size"));
+		Assert.assertEquals("url(#clipPath2)", glyphs[2].getAttributeValue("clip-path"));
+		Assert.assertEquals("LGFBDG+Frutiger-Light",
+				PDF2SVGUtil.getSVGXAttribute(glyphs[2], NonStandardFontManager.FONT_NAME));
+		Assert.assertEquals("12pt", glyphs[3].getAttributeValue("font-size"));
+	}
+
+	@Test
+	public void testUnsafeValueStaysInline() {
+		StyleClassMap styleClassMap = new StyleClassMap();
+		SVGText text = createGlyph("#000000", "1.0", "9.0", "a");
+		text.addAttribute(new Attribute("font-family", "a;b"));
+		styleClassMap.addClass(text);
+		Assert.assertEquals("a;b", text.getAttributeValue("font-family"));
+		Assert.assertNull(text.getAttribute("fill"));
+	}
+
+	private static void assertSameAttributes(Element expected, Element actual) {
+		Assert.assertEquals(expected.getAttributeCount(), actual.getAttributeCount());
+		for (int i = 0; i < expected.getAttributeCount(); i++) {
+			Attribute attribute = expected.getAttribute(i);
+			Assert.assertEquals(attribute.getValue(),
+					actual.getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI()));
+		}
+		Assert.assertEquals(expected.getValue(), actual.getValue());
+	}
+}
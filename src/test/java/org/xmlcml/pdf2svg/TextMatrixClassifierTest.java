@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TextMatrixClassifierTest {
+
+	@Test
+	public void testAxisAligned() {
+		TextMatrixClassifier classifier = new TextMatrixClassifier();
+		classifier.classify(9.96f, -0.0f, -0.0f, 9.96f, 1.0f, 1.0f);
+		Assert.assertTrue(classifier.isAxisAligned());
+		Assert.assertEquals(9.96, classifier.getFontSize(), 0.0001);
+		Assert.assertNull(classifier.getAngle());
+		Assert.assertNull(classifier.getTransform());
+		// anisotropic (e.g. horizontal scaling)
+		classifier.classify(8.0f, 0.0f, 0.0f, 10.0f, 0.5f, 2.0f);
+		Assert.assertTrue(classifier.isAxisAligned());
+		Assert.assertEquals(Math.sqrt(4.0 * 20.0), classifier.getFontSize(), 0.0001);
+	}
+
+	@Test
+	public void testNotAxisAligned() {
+		TextMatrixClassifier classifier = new TextMatrixClassifier();
+		classifier.classify(0.0f, 10.0f, -10.0f, 0.0f, 1.0f, 1.0f);
+		Assert.assertFalse(classifier.isAxisAligned());
+		Assert.assertNotNull(classifier.getTransform());
+		classifier.classify(10.0f, 0.0f, 2.0f, 10.0f, 1.0f, 1.0f);
+		Assert.assertFalse(classifier.isAxisAligned());
+		// mirrored
+		classifier.classify(-10.0f, 0.0f, 0.0f, 10.0f, 1.0f, 1.0f);
+		Assert.assertFalse(classifier.isAxisAligned());
+	}
+
+	@Test
+	public void testRepeatedMatrixIsNotReclassified() {
+		TextMatrixClassifier classifier = new TextMatrixClassifier();
+		for (int i = 0; i < 10; i++) {
+			classifier.classify(12.0f, 0.0f, 0.0f, 12.0f, 1.0f, 1.0f);
+		}
+		Assert.assertEquals(1, classifier.getMisses());
+		Assert.assertEquals(9, classifier.getHits());
+		classifier.classify(12.0f, 0.0f, 0.0f, 12.0f, 0.5f, 1.0f);
+		Assert.assertEquals(2, classifier.getMisses());
+		Assert.assertEquals(Math.sqrt(6.0 * 12.0), classifier.getFontSize(), 0.0001);
+	}
+}
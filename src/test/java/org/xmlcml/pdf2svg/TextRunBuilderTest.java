@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 pm286 <peter.murray.rust@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xmlcml.pdf2svg;
+
+import nu.xom.Attribute;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.graphics.svg.SVGText;
+import org.xmlcml.graphics.svg.SVGTitle;
+import org.xmlcml.pdf2svg.util.PDF2SVGUtil;
+
+public class TextRunBuilderTest {
+
+	@Test
+	public void testMergeSameStyle() {
+		TextRunBuilder builder = new TextRunBuilder();
+		Assert.assertNull(builder.add(createGlyph("a", "10.0", "20.0", "5.0", "black")));
+		Assert.assertNull(builder.add(createGlyph("b", "15.0", "20.0", "6.0", "black")));
+		Assert.assertNull(builder.add(createGlyph("c", "21.0", "20.0", "5.0", "black")));
+		SVGText run = builder.flush();
+		Assert.assertEquals("abc", run.getValue());
+		Assert.assertEquals("10.0 15.0 21.0", run.getAttributeValue("x"));
+		Assert.assertEquals("20.0", run.getAttributeValue("y"));
+		Assert.assertEquals("5.0 6.0 5.0", PDF2SVGUtil.getSVGXAttribute(run, PDF2SVGUtil.CHARACTER_WIDTH));
+		Assert.assertNull(builder.flush());
+	}
+
+	@Test
+	public void testNewRuns() {
+		TextRunBuilder builder = new TextRunBuilder();
+		builder.add(createGlyph("a", "10.0", "20.0", "5.0", "black"));
+		// new baseline
+		SVGText run = builder.add(createGlyph("b", "15.0", "30.0", "5.0", "black"));
+		Assert.assertEquals("a", run.getValue());
+		Assert.assertEquals("10.0", run.getAttributeValue("x"));
+		// new fill
+		Assert.assertEquals("b", builder.add(createGlyph("c", "20.0", "30.0", "5.0", "red")).getValue());
+		// going backwards
+		Assert.assertEquals("c", builder.add(createGlyph("d", "5.0", "30.0", "5.0", "red")).getValue());
+		SVGText glyph = createGlyph("e", "25.0", "30.0", "5.0", "red");
+		glyph.appendChild(new SVGTitle("tooltip"));
+		Assert.assertEquals("d", builder.add(glyph).getValue());
+		Assert.assertSame(glyph, builder.add(createGlyph("f", "30.0", "30.0", "5.0", "red")));
+		Assert.assertEquals("f", builder.flush().getValue());
+	}
+
+	@Test
+	public void testMultiCharacterGlyphsAreNotMerged() {
+		TextRunBuilder builder = new TextRunBuilder();
+		builder.add(createGlyph("a", "10.0", "20.0", "5.0", "black"));
+		// ligature: one x for two characters
+		SVGText ligature = createGlyph("fi", "15.0", "20.0", "9.0", "black");
+		Assert.assertEquals("a", builder.add(ligature).getValue());
+		Assert.assertSame(ligature, builder.add(createGlyph("c", "24.0", "20.0", "5.0", "black")));
+		Assert.assertEquals("15.0", ligature.getAttributeValue("x"));
+		builder.add(createGlyph("d", "29.0", "20.0", "5.0", "black"));
+		// surrogate pair
+		SVGText run = builder.add(createGlyph("𝐀", "34.0", "20.0", "5.0", "black"));
+		Assert.assertEquals("cd", run.getValue());
+		Assert.assertEquals("24.0 29.0", run.getAttributeValue("x"));
+		Assert.assertEquals("𝐀", builder.flush().getValue());
+	}
+
+	private static SVGText createGlyph(String text, String x, String y, String width, String fill) {
+		SVGText glyph = new SVGText();
+		glyph.addAttribute(new Attribute("fill", fill));
+		glyph.addAttribute(new Attribute("x", x));
+		glyph.addAttribute(new Attribute("y", y));
+		PDF2SVGUtil.setSVGXAttribute(glyph, PDF2SVGUtil.CHARACTER_WIDTH, width);
+		glyph.appendChild(text);
+		return glyph;
+	}
+}